@@ -0,0 +1,80 @@
+package com.ivez.etaengine.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.ingest.PingDecoder;
+import com.ivez.etaengine.ingest.PingIngest;
+import com.ivez.etaengine.model.EtaUpdateDTO;
+import com.ivez.etaengine.service.PingPool;
+import com.ivez.etaengine.service.PipelineMetrics;
+import com.ivez.etaengine.service.Routes;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Inbound ping decode (Jackson data binding vs the streaming PingDecoder used by
+// WebSocketIngestSource) and outbound ETA payload encode
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"8", "40"})
+    public int stops;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String pingJson;
+    private EtaUpdateDTO etaUpdate;
+    private PingDecoder decoder;
+    private PingPool pool;
+    private PingIngest.Counters counters;
+
+    @Setup
+    public void setUp() throws Exception {
+        // Same shape the simulator sends
+        pingJson = objectMapper.writeValueAsString(
+                new BusPing("bus02", 17.432335231502606, 78.38587919581818, 1_700_000_000L, 23));
+
+        Map<String, Long> etaPerStop = new LinkedHashMap<>();
+        for (int i = 0; i < stops; i++) {
+            etaPerStop.put("stop_hh_" + (i + 1), 1_700_000_000_000L + i * 95_000L);
+        }
+        etaUpdate = new EtaUpdateDTO("bus02", etaPerStop);
+
+        pool = new PingPool();
+        ReflectionTestUtils.setField(pool, "size", 64);
+        pool.init();
+        Routes routes = new Routes();
+        ReflectionTestUtils.invokeMethod(routes, "addRoute", "bus02", Routes.buildRoute("r1",
+                new double[] {17.43, 17.44}, new double[] {78.38, 78.39}, new ArrayList<>(), 100));
+        decoder = new PingDecoder(routes, pool);
+        counters = new PingIngest(null, new PipelineMetrics(new SimpleMeterRegistry()), null, pool).counters("bench");
+    }
+
+    @Benchmark
+    public BusPing decodeBusPing() throws Exception {
+        return objectMapper.readValue(pingJson, BusPing.class);
+    }
+
+    @Benchmark
+    public void decodeBusPingStreaming(Blackhole bh) throws Exception {
+        decoder.decode(pingJson, counters, ping -> {
+            bh.consume(ping.getLat());
+            pool.release(ping);                // as the pipeline worker would
+        });
+    }
+
+    @Benchmark
+    public String encodeEtaUpdate() throws Exception {
+        return objectMapper.writeValueAsString(etaUpdate);
+    }
+}
@@ -0,0 +1,120 @@
+package com.ivez.etaengine.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.model.Stop;
+import com.ivez.etaengine.service.Routes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Route and ping fixtures shared by the benchmarks. Everything is seeded so runs are comparable.
+//   hyd          - the real route_hyd_hitech_loop.geojson (bench.routes.dir, default ../routes)
+//   synthetic10k - a generated 10 000-vertex loop with 40 stops, ~5 m between vertices
+public final class Fixtures {
+
+    public static final String HYD = "hyd";
+    public static final String SYNTHETIC_10K = "synthetic10k";
+    public static final String BUS_ID = "bus_syn";        // the bus statesAlong puts on a route
+
+    public static final double GRID_CELL_METERS = 100;    // routes.grid-cell-meters
+    public static final double ARRIVAL_RADIUS_METERS = 50; // routes.arrival-radius-meters
+
+    private static final double METERS_PER_DEG_LAT = 110540.0;
+    private static final double METERS_PER_DEG_LON = 111320.0;
+
+    private Fixtures() {}
+
+    public static RouteData route(String name) {
+        switch (name) {
+            case HYD:
+                return hydRoute();
+            case SYNTHETIC_10K:
+                return syntheticRoute(10_000, 40, 42);
+            default:
+                throw new IllegalArgumentException("Unknown route fixture: " + name);
+        }
+    }
+
+    public static RouteData hydRoute() {
+        File file = new File(System.getProperty("bench.routes.dir", "../routes"), "route_hyd_hitech_loop.geojson");
+        try {
+            return Routes.parseRouteFile(new ObjectMapper().readTree(file), GRID_CELL_METERS, ARRIVAL_RADIUS_METERS).route();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read route fixture " + file.getAbsolutePath(), e);
+        }
+    }
+
+    // Wobbly closed loop around HITEC City, roughly 1.5 km radius
+    public static RouteData syntheticRoute(int vertices, int stopCount, long seed) {
+        Random random = new Random(seed);
+        double centerLat = 17.4435;
+        double centerLon = 78.3772;
+        double lonScale = METERS_PER_DEG_LON * Math.cos(Math.toRadians(centerLat));
+
+        double[] lats = new double[vertices];
+        double[] lons = new double[vertices];
+        for (int i = 0; i < vertices - 1; i++) {
+            double theta = 2 * Math.PI * i / (vertices - 1);
+            double radius = 1500 + 250 * Math.sin(7 * theta) + random.nextGaussian() * 2;
+            lats[i] = centerLat + radius * Math.sin(theta) / METERS_PER_DEG_LAT;
+            lons[i] = centerLon + radius * Math.cos(theta) / lonScale;
+        }
+        lats[vertices - 1] = lats[0];        // closed loop like the real routes
+        lons[vertices - 1] = lons[0];
+
+        List<Stop> stops = new ArrayList<>(stopCount);
+        for (int s = 0; s < stopCount; s++) {
+            int v = s * (vertices - 1) / stopCount;
+            // Stops sit at the kerb, a few meters off the centreline
+            double lat = lats[v] + 6 / METERS_PER_DEG_LAT;
+            double lon = lons[v] + 6 / lonScale;
+            stops.add(new Stop("stop_syn_" + (s + 1), "Synthetic " + (s + 1), lon, lat));
+        }
+        return Routes.buildRoute("synthetic_loop", lats, lons, stops, GRID_CELL_METERS);
+    }
+
+    /**
+     * {@code n} GPS fixes travelling once around the route in order, with
+     * ~{@code noiseMeters} of gaussian noise. Returned as {lats, lons}.
+     */
+    public static double[][] pingsAlong(RouteData route, int n, double noiseMeters, long seed) {
+        Random random = new Random(seed);
+        double[] lats = route.getLats();
+        double[] lons = route.getLons();
+        double lonScale = METERS_PER_DEG_LON * Math.cos(Math.toRadians(lats[0]));
+        int segments = lats.length - 1;
+
+        double[][] out = new double[2][n];
+        for (int i = 0; i < n; i++) {
+            double position = (double) i * segments / n;
+            int s = (int) position;
+            double t = position - s;
+            out[0][i] = lats[s] + t * (lats[s + 1] - lats[s]) + random.nextGaussian() * noiseMeters / METERS_PER_DEG_LAT;
+            out[1][i] = lons[s] + t * (lons[s + 1] - lons[s]) + random.nextGaussian() * noiseMeters / lonScale;
+        }
+        return out;
+    }
+
+    // Matched bus states along the route, as BusStateTracker would produce them
+    public static BusState[] statesAlong(RouteData route, int n, double speed) {
+        double[][] pings = pingsAlong(route, n, 0, 7);
+        BusState[] states = new BusState[n];
+        long timestamp = 1_700_000_000L;
+        for (int i = 0; i < n; i++) {
+            double lat = pings[0][i];
+            double lon = pings[1][i];
+            int segment = route.getSegmentGrid().nearestSegment(lat, lon);
+            states[i] = new BusState(BUS_ID, lat, lon, speed, segment,
+                    route.offsetOf(segment, lat, lon), new HashSet<>(), new ConcurrentHashMap<>(), timestamp + i);
+        }
+        return states;
+    }
+}
@@ -0,0 +1,56 @@
+package com.ivez.etaengine.bench;
+
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.util.GeoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Point-to-point haversine, alone and as a scan of one ping against every stop
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeoBenchmark {
+
+    private static final int POINTS = 1024;           // power of two, cycled with a mask
+
+    @Param({Fixtures.HYD, Fixtures.SYNTHETIC_10K})
+    public String route;
+
+    private double[] lats;
+    private double[] lons;
+    private double[] stopLats;
+    private double[] stopLons;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        RouteData data = Fixtures.route(route);
+        double[][] pings = Fixtures.pingsAlong(data, POINTS, 10, 1);
+        lats = pings[0];
+        lons = pings[1];
+        stopLats = data.getStopLats();
+        stopLons = data.getStopLons();
+    }
+
+    @Benchmark
+    public double haversine() {
+        int i = next++ & (POINTS - 1);
+        int j = (i + 1) & (POINTS - 1);
+        return GeoUtils.haversine(lats[i], lons[i], lats[j], lons[j]);
+    }
+
+    // One ping against every stop (the arrival check before stops were bucketed by segment)
+    @Benchmark
+    public double stopDistancesHaversine() {
+        int i = next++ & (POINTS - 1);
+        double min = Double.MAX_VALUE;
+        for (int s = 0; s < stopLats.length; s++) {
+            min = Math.min(min, GeoUtils.haversine(lats[i], lons[i], stopLats[s], stopLons[s]));
+        }
+        return min;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ivez.etaengine.bench;
+
+import com.ivez.etaengine.util.KalmanFilter;
+import com.ivez.etaengine.util.KalmanFilterBank;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One ETA pass worth of filter steps for a bus: the per-stop filter map EtaPredictor used to
+// keep ("<busId>_stop<n>" -> KalmanFilter) against the bus's KalmanFilterBank
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KalmanBankBenchmark {
+
+    private static final int PASSES = 64;
+
+    @Param({"10", "40"})
+    public int stops;
+
+    private double[][] measurements;
+    private final Map<String, KalmanFilter> filters = new HashMap<>();
+    private KalmanFilterBank bank;
+    private double[] out;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(3);
+        measurements = new double[PASSES][stops];
+        for (int p = 0; p < PASSES; p++) {
+            for (int i = 0; i < stops; i++) {
+                measurements[p][i] = 60 * (i + 1) - p * 0.5 + random.nextGaussian() * 20;
+            }
+        }
+        bank = new KalmanFilterBank(stops, 1, 0.5, 5);
+        out = new double[stops];
+    }
+
+    @Benchmark
+    public double filterMap() {
+        double[] z = measurements[next++ & (PASSES - 1)];
+        double sum = 0;
+        for (int i = 0; i < stops; i++) {
+            double measurement = z[i];
+            KalmanFilter filter = filters.computeIfAbsent(Fixtures.BUS_ID + "_stop" + (i + 1),
+                    key -> new KalmanFilter(measurement, 1, 0.5, 5));
+            sum += filter.update(measurement);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double[] bank() {
+        bank.update(measurements[next++ & (PASSES - 1)], out);
+        return out;
+    }
+}
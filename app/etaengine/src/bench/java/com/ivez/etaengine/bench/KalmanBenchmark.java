@@ -0,0 +1,38 @@
+package com.ivez.etaengine.bench;
+
+import com.ivez.etaengine.util.KalmanFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One filter step per stop per ETA pass, so this runs (#stops x ping rate) times a second
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KalmanBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    private final double[] measurements = new double[SAMPLES];
+    private KalmanFilter filter;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(3);
+        for (int i = 0; i < SAMPLES; i++) {
+            measurements[i] = 600 - i * 0.5 + random.nextGaussian() * 20;   // ETA seconds counting down
+        }
+        // Same tuning EtaPredictor uses
+        filter = new KalmanFilter(measurements[0], 1, 0.5, 5);
+    }
+
+    @Benchmark
+    public double update() {
+        return filter.update(measurements[next++ & (SAMPLES - 1)]);
+    }
+}
@@ -0,0 +1,54 @@
+package com.ivez.etaengine.bench;
+
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.model.Stop;
+import com.ivez.etaengine.service.Routes;
+import com.ivez.etaengine.util.SegmentGrid;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Route load work done by Routes: grid build, stop-to-segment assignment, full build
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouteBuildBenchmark {
+
+    @Param({Fixtures.HYD, Fixtures.SYNTHETIC_10K})
+    public String route;
+
+    private RouteData data;
+    private List<Stop> stops;
+    private SegmentGrid grid;
+
+    @Setup
+    public void setUp() {
+        data = Fixtures.route(route);
+        stops = data.getStops();
+        grid = data.getSegmentGrid();
+    }
+
+    @Benchmark
+    public SegmentGrid buildGrid() {
+        return new SegmentGrid(data.getLats(), data.getLons(), Fixtures.GRID_CELL_METERS);
+    }
+
+    @Benchmark
+    public int assignStopsToSegments() {
+        int sum = 0;
+        for (Stop stop : stops) {
+            sum += grid.nearestSegment(stop.getLat(), stop.getLon());
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public RouteData buildRoute() {
+        return Routes.buildRoute(data.getRouteId(), data.getLats(), data.getLons(),
+                stops, Fixtures.GRID_CELL_METERS);
+    }
+}
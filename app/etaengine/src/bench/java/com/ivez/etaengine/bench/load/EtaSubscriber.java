@@ -0,0 +1,79 @@
+package com.ivez.etaengine.bench.load;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.HdrHistogram.Recorder;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// A /ws/eta client that times legacy position frames against the ping that produced them
+class EtaSubscriber extends WebSocketClient {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Map<String, SyntheticBus> buses;
+    private final Recorder latency;
+    private final LongAdder messages;
+    private final LongAdder unmatched;
+
+    EtaSubscriber(URI uri, Map<String, SyntheticBus> buses, Recorder latency, LongAdder messages, LongAdder unmatched) {
+        super(uri);
+        this.buses = buses;
+        this.latency = latency;
+        this.messages = messages;
+        this.unmatched = unmatched;
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshake) {
+    }
+
+    @Override
+    public void onMessage(String message) {
+        long now = System.nanoTime();
+        messages.increment();
+
+        String busId = null;
+        long timestamp = -1;
+        boolean position = false;
+        try (JsonParser p = JSON.createParser(message)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                p.nextToken();
+                switch (field) {
+                    case "busId" -> busId = p.getText();
+                    case "timestamp" -> timestamp = p.getLongValue();
+                    case "lat" -> position = true;
+                    default -> p.skipChildren();
+                }
+            }
+        } catch (Exception e) {
+            return;
+        }
+        if (!position || busId == null) return;     // ETA frames carry no ping timestamp
+
+        SyntheticBus bus = buses.get(busId);
+        long sent = bus == null ? -1 : bus.sentAt(timestamp);
+        if (sent < 0) {
+            unmatched.increment();
+            return;
+        }
+        latency.recordValue(Math.max(0, now - sent));
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+        if (remote) System.err.println("Subscriber closed by server: " + code + " " + reason);
+    }
+
+    @Override
+    public void onError(Exception ex) {
+        System.err.println("Subscriber error: " + ex.getMessage());
+    }
+}
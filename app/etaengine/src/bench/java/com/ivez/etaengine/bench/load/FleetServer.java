@@ -0,0 +1,53 @@
+package com.ivez.etaengine.bench.load;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Stand-in for the Python GPS simulator on the port the websocket ingest source connects to
+class FleetServer extends WebSocketServer {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch listenerConnected = new CountDownLatch(1);
+
+    FleetServer(int port) {
+        super(new InetSocketAddress(port));
+        setReuseAddr(true);
+        setTcpNoDelay(true);
+    }
+
+    boolean awaitStarted(long seconds) throws InterruptedException {
+        return started.await(seconds, TimeUnit.SECONDS);
+    }
+
+    boolean awaitListener(long seconds) throws InterruptedException {
+        return listenerConnected.await(seconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        listenerConnected.countDown();
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        System.err.println("Fleet server error: " + ex.getMessage());
+    }
+}
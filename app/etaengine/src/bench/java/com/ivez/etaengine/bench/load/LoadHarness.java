@@ -0,0 +1,275 @@
+package com.ivez.etaengine.bench.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ivez.etaengine.EtaengineApplication;
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.service.Routes;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end throughput harness. Starts a stand-in GPS feed on :8765, boots the
+ * engine in-process against it with a synthetic fleet cloned from the GeoJSON routes,
+ * attaches /ws/eta subscribers and reports sustained pings/sec, ping-to-client
+ * latency percentiles and heap usage.
+ * <p>
+ * Arguments are {@code key=value}: buses (1000), rate (pings/s per bus, 1.0),
+ * subscribers (20), duration (60 s), warmup (10 s), report (5 s), step (simulated
+ * seconds per ping, 3), noise (GPS noise in meters, 5), routes (../routes).
+ * Arguments starting with {@code --} are passed to Spring, e.g. {@code --ingest.workers=8}.
+ * By default persistence goes to an in-memory H2 database.
+ */
+public class LoadHarness {
+
+    private static final int FEED_PORT = 8765;            // ingest.websocket.url default
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> springArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                springArgs.add(arg);
+            } else if (arg.contains("=")) {
+                options.put(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                throw new IllegalArgumentException("Expected key=value or --spring.property=value, got " + arg);
+            }
+        }
+        int busCount = Integer.parseInt(options.getOrDefault("buses", "1000"));
+        double ratePerBus = Double.parseDouble(options.getOrDefault("rate", "1.0"));
+        int subscriberCount = Integer.parseInt(options.getOrDefault("subscribers", "20"));
+        long durationSec = Long.parseLong(options.getOrDefault("duration", "60"));
+        long warmupSec = Long.parseLong(options.getOrDefault("warmup", "10"));
+        long reportSec = Long.parseLong(options.getOrDefault("report", "5"));
+        long stepSec = Long.parseLong(options.getOrDefault("step", "3"));
+        double noiseMeters = Double.parseDouble(options.getOrDefault("noise", "5"));
+        File routesDir = new File(options.getOrDefault("routes", "../routes"));
+
+        new LoadHarness().run(busCount, ratePerBus, subscriberCount, durationSec, warmupSec, reportSec,
+                stepSec, noiseMeters, routesDir, springArgs);
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, SyntheticBus> buses = new HashMap<>();
+    private final Recorder latency = new Recorder(3);
+    private final LongAdder clientMessages = new LongAdder();
+    private final LongAdder unmatched = new LongAdder();
+
+    private void run(int busCount, double ratePerBus, int subscriberCount, long durationSec, long warmupSec,
+                     long reportSec, long stepSec, double noiseMeters, File routesDir, List<String> springArgs)
+            throws Exception {
+        Path fleetDir = Files.createTempDirectory("etaengine-load-routes");
+        FleetServer feed = new FleetServer(FEED_PORT);
+        ConfigurableApplicationContext context = null;
+        List<EtaSubscriber> subscribers = new ArrayList<>();
+        try {
+            SyntheticBus[] fleet = writeFleet(routesDir, fleetDir, busCount, stepSec, noiseMeters);
+            for (SyntheticBus bus : fleet) buses.put(bus.busId, bus);
+
+            feed.start();
+            if (!feed.awaitStarted(10)) throw new IllegalStateException("Fleet server did not start on :" + FEED_PORT);
+
+            context = startEngine(fleetDir, springArgs);
+            if (!feed.awaitListener(30)) throw new IllegalStateException("Ping feed never connected");
+            String port = context.getEnvironment().getProperty("local.server.port");
+
+            for (int i = 0; i < subscriberCount; i++) {
+                EtaSubscriber subscriber = new EtaSubscriber(URI.create("ws://localhost:" + port + "/ws/eta"),
+                        buses, latency, clientMessages, unmatched);
+                if (!subscriber.connectBlocking()) throw new IllegalStateException("Subscriber " + i + " failed to connect");
+                subscribers.add(subscriber);
+            }
+
+            System.out.printf("Fleet: %d buses, %.2f pings/s each (%.0f offered/s), %d subscribers, %d s + %d s warmup%n",
+                    busCount, ratePerBus, busCount * ratePerBus, subscriberCount, durationSec, warmupSec);
+            drive(feed, fleet, ratePerBus, durationSec, warmupSec, reportSec, context.getBean(MeterRegistry.class));
+        } finally {
+            for (EtaSubscriber subscriber : subscribers) subscriber.close();
+            if (context != null) context.close();
+            feed.stop(1000);
+            try (Stream<Path> files = Files.list(fleetDir)) {
+                files.forEach(f -> f.toFile().delete());
+            }
+            Files.deleteIfExists(fleetDir);
+        }
+    }
+
+    // The real routes, each assigned round-robin a share of the synthetic buses through busIds
+    private SyntheticBus[] writeFleet(File routesDir, Path fleetDir, int busCount, long stepSec, double noiseMeters)
+            throws IOException {
+        File[] templates = routesDir.listFiles((dir, name) -> name.endsWith(".geojson"));
+        if (templates == null || templates.length == 0) {
+            throw new IllegalArgumentException("No .geojson routes in " + routesDir.getAbsolutePath());
+        }
+        Arrays.sort(templates);
+        JsonNode[] trees = new JsonNode[templates.length];
+        RouteData[] routes = new RouteData[templates.length];
+        for (int t = 0; t < templates.length; t++) {
+            trees[t] = objectMapper.readTree(templates[t]);
+            ObjectNode props = (ObjectNode) trees[t].get("features").get(0).get("properties");
+            props.remove("busId");
+            props.putArray("busIds");
+            routes[t] = Routes.parseRouteFile(trees[t], 100, 50).route();
+        }
+
+        long now = System.currentTimeMillis() / 1000;
+        SyntheticBus[] fleet = new SyntheticBus[busCount];
+        for (int i = 0; i < busCount; i++) {
+            int t = i % templates.length;
+            String busId = String.format("load%05d", i);
+            ((ArrayNode) trees[t].get("features").get(0).get("properties").get("busIds")).add(busId);
+            fleet[i] = new SyntheticBus(busId, routes[t], now, stepSec, noiseMeters, i);
+        }
+        for (int t = 0; t < templates.length; t++) {
+            objectMapper.writeValue(fleetDir.resolve(templates[t].getName()).toFile(), trees[t]);
+        }
+        return fleet;
+    }
+
+    private ConfigurableApplicationContext startEngine(Path fleetDir, List<String> springArgs) {
+        // System properties outrank application.properties; --key=value arguments outrank both
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("routes.directory", fleetDir.toString());
+        defaults.put("server.port", "0");
+        defaults.put("spring.main.banner-mode", "off");
+        defaults.put("logging.level.com.ivez.etaengine", "WARN");
+        defaults.put("spring.datasource.url", "jdbc:h2:mem:load;MODE=MySQL;NON_KEYWORDS=DATE");
+        defaults.put("spring.datasource.username", "sa");
+        defaults.put("spring.datasource.password", "");
+        defaults.put("spring.jpa.properties.hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        defaults.put("spring.jpa.show-sql", "false");
+        defaults.put("journal.enabled", "false");
+        defaults.put("snapshot.enabled", "false");
+        defaults.forEach((key, value) -> {
+            if (System.getProperty(key) == null) System.setProperty(key, value);
+        });
+        return new SpringApplicationBuilder(EtaengineApplication.class).run(springArgs.toArray(new String[0]));
+    }
+
+    // Paces pings evenly across the fleet at the offered rate and prints a line per report interval
+    private void drive(FleetServer feed, SyntheticBus[] fleet, double ratePerBus, long durationSec, long warmupSec,
+                       long reportSec, MeterRegistry registry) throws Exception {
+        double totalRate = fleet.length * ratePerBus;
+        Counter received = registry.find("eta.pings.received").counter();
+        Histogram overall = new Histogram(3);
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmupSec * 1_000_000_000L;
+        long end = measureFrom + durationSec * 1_000_000_000L;
+        long nextReport = start + reportSec * 1_000_000_000L;
+        long sent = 0;
+
+        Snapshot last = new Snapshot(start, 0, received, registry);
+        Snapshot measureStart = null;
+        System.out.printf("%8s %10s %10s %10s %10s %10s %10s %8s%n",
+                "t(s)", "sent/s", "accepted/s", "dropped", "client/s", "p50(ms)", "p99(ms)", "heap(MB)");
+
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) break;
+            long due = (long) ((now - start) / 1e9 * totalRate);
+            while (sent < due) {
+                SyntheticBus bus = fleet[(int) (sent % fleet.length)];
+                BusPing ping = bus.next();
+                String json = objectMapper.writeValueAsString(ping);
+                bus.markSent(ping.getTimestamp(), System.nanoTime());
+                feed.broadcast(json);
+                sent++;
+            }
+
+            if (now >= nextReport) {
+                Histogram interval = latency.getIntervalHistogram();
+                Snapshot current = new Snapshot(now, sent, received, registry);
+                if (measureStart == null && now >= measureFrom) {
+                    measureStart = current;
+                } else if (measureStart != null) {
+                    overall.add(interval);
+                }
+                current.print(last, interval, (now - start) / 1e9);
+                last = current;
+                nextReport += reportSec * 1_000_000_000L;
+            }
+            LockSupport.parkNanos(500_000);
+        }
+
+        overall.add(latency.getIntervalHistogram());
+        Snapshot finish = new Snapshot(System.nanoTime(), sent, received, registry);
+        Snapshot from = measureStart != null ? measureStart : last;
+        double seconds = (finish.nanos - from.nanos) / 1e9;
+        System.out.println();
+        System.out.printf("Sustained over %.0f s: sent %.0f pings/s, accepted %.0f pings/s, dropped %d, "
+                        + "client messages %.0f/s%n",
+                seconds, (finish.sent - from.sent) / seconds, (finish.accepted - from.accepted) / seconds,
+                finish.dropped - from.dropped, (finish.clientMessages - from.clientMessages) / seconds);
+        System.out.printf("Ping-to-client latency (ms): p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f (%d samples, %d unmatched)%n",
+                ms(overall, 50), ms(overall, 90), ms(overall, 99), ms(overall, 99.9), overall.getMaxValue() / 1e6,
+                overall.getTotalCount(), unmatched.sum());
+        System.out.printf("Heap used %d MB of %d MB max, GC %d collections / %d ms%n",
+                finish.heapUsed >> 20, Runtime.getRuntime().maxMemory() >> 20,
+                finish.gcCount - from.gcCount, finish.gcMillis - from.gcMillis);
+    }
+
+    private static double ms(Histogram h, double percentile) {
+        return h.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    private final class Snapshot {
+        final long nanos;
+        final long sent;
+        final long accepted;
+        final long dropped;
+        final long clientMessages;
+        final long heapUsed;
+        final long gcCount;
+        final long gcMillis;
+
+        Snapshot(long nanos, long sent, Counter received, MeterRegistry registry) {
+            this.nanos = nanos;
+            this.sent = sent;
+            this.accepted = received == null ? 0 : (long) received.count();
+            this.dropped = (long) registry.find("eta.pings.dropped").counters().stream()
+                    .mapToDouble(Counter::count).sum();
+            this.clientMessages = LoadHarness.this.clientMessages.sum();
+            this.heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            long count = 0, millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            this.gcCount = count;
+            this.gcMillis = millis;
+        }
+
+        void print(Snapshot previous, Histogram interval, double elapsed) {
+            double seconds = (nanos - previous.nanos) / 1e9;
+            System.out.printf("%8.0f %10.0f %10.0f %10d %10.0f %10.2f %10.2f %8d%n",
+                    elapsed,
+                    (sent - previous.sent) / seconds,
+                    (accepted - previous.accepted) / seconds,
+                    dropped - previous.dropped,
+                    (clientMessages - previous.clientMessages) / seconds,
+                    ms(interval, 50), ms(interval, 99),
+                    heapUsed >> 20);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.ivez.etaengine.bench.load;
+
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.model.RouteData;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// One simulated bus driving round its route at constant speed with GPS noise.
+// Pings carry a simulated clock that advances stepSeconds per ping, independent of
+// the real send rate, so the engine sees plausible speeds at any load level.
+// Remembers when each of its recent pings was sent so subscribers can compute
+// ping-to-client latency from the echoed timestamp.
+class SyntheticBus {
+
+    private static final double METERS_PER_DEG_LAT = 110540.0;
+    private static final double METERS_PER_DEG_LON = 111320.0;
+    private static final int HISTORY = 64;                 // power of two
+
+    final String busId;
+    private final double[] lats;
+    private final double[] lons;
+    private final double[] cumulative;
+    private final double length;
+    private final double speed;                           // m/s
+    private final long stepSeconds;
+    private final double noiseMeters;
+    private final double lonScale;
+    private final Random random;
+
+    private double offset;
+    private long simTime;
+
+    private final AtomicLongArray sentTimestamps = new AtomicLongArray(HISTORY);
+    private final AtomicLongArray sentNanos = new AtomicLongArray(HISTORY);
+
+    SyntheticBus(String busId, RouteData route, long startTime, long stepSeconds, double noiseMeters, long seed) {
+        this.busId = busId;
+        this.lats = route.getLats();
+        this.lons = route.getLons();
+        this.cumulative = route.getCumulativeDistances();
+        this.length = route.getLength();
+        this.stepSeconds = stepSeconds;
+        this.noiseMeters = noiseMeters;
+        this.lonScale = METERS_PER_DEG_LON * Math.cos(Math.toRadians(lats[0]));
+        this.random = new Random(seed);
+        this.speed = 5 + random.nextDouble() * 4;          // 18-32 km/h, like the Python simulator
+        this.offset = random.nextDouble() * length;        // spread the fleet along the loop
+        this.simTime = startTime;
+    }
+
+    BusPing next() {
+        offset = (offset + speed * stepSeconds) % length;
+        simTime += stepSeconds;
+
+        int i = Arrays.binarySearch(cumulative, offset);
+        int segment = i >= 0 ? Math.min(i, lats.length - 2) : -i - 2;
+        double segmentLength = cumulative[segment + 1] - cumulative[segment];
+        double t = segmentLength == 0 ? 0 : (offset - cumulative[segment]) / segmentLength;
+
+        double lat = lats[segment] + t * (lats[segment + 1] - lats[segment])
+                + random.nextGaussian() * noiseMeters / METERS_PER_DEG_LAT;
+        double lon = lons[segment] + t * (lons[segment + 1] - lons[segment])
+                + random.nextGaussian() * noiseMeters / lonScale;
+        return new BusPing(busId, lat, lon, simTime, random.nextInt(40));
+    }
+
+    // Call before sending: the reply can arrive before send() returns
+    void markSent(long timestamp, long nanos) {
+        int slot = (int) (timestamp & (HISTORY - 1));
+        sentTimestamps.set(slot, -1);                      // invalidate while the pair is torn
+        sentNanos.set(slot, nanos);
+        sentTimestamps.set(slot, timestamp);
+    }
+
+    // Send time of the ping with this timestamp, or -1 if it has already left the history
+    long sentAt(long timestamp) {
+        int slot = (int) (timestamp & (HISTORY - 1));
+        if (sentTimestamps.get(slot) != timestamp) return -1;
+        long nanos = sentNanos.get(slot);
+        return sentTimestamps.get(slot) == timestamp ? nanos : -1;
+    }
+}
@@ -0,0 +1,75 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.bench.Fixtures;
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.model.Stop;
+import com.ivez.etaengine.util.GeoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// BusStateTracker.detectArrivals (stops bucketed by matched segment) against the previous
+// scan of every stop on the route. Every stop is marked arrived so neither side writes.
+// Lives in the service package because detectArrivals is package-private.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArrivalDetectionBenchmark {
+
+    private static final int PINGS = 4096;
+
+    @Param({Fixtures.HYD, Fixtures.SYNTHETIC_10K})
+    public String route;
+
+    private RouteData data;
+    private BusStateTracker tracker;
+    private BusState state;
+    private BusPing[] pings;
+    private int[] segments;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        data = Fixtures.route(route);
+        double[][] fixes = Fixtures.pingsAlong(data, PINGS, 10, 1);
+        pings = new BusPing[PINGS];
+        segments = new int[PINGS];
+        for (int i = 0; i < PINGS; i++) {
+            pings[i] = new BusPing(Fixtures.BUS_ID, fixes[0][i], fixes[1][i], 1_700_000_000L + i, 0);
+            segments[i] = data.getSegmentGrid().nearestSegment(fixes[0][i], fixes[1][i]);
+        }
+        state = new BusState(Fixtures.BUS_ID, 0, 0, 0, 0, 0, ConcurrentHashMap.newKeySet(),
+                new ConcurrentHashMap<>(), 0);
+        for (Stop stop : data.getStops()) state.getArrivedStops().add(stop.getStopId());
+        tracker = new BusStateTracker(null, null, null, null);
+    }
+
+    @Benchmark
+    public BusState bucketed() {
+        int i = next++ & (PINGS - 1);
+        tracker.detectArrivals(pings[i], state, data, segments[i]);
+        return state;
+    }
+
+    @Benchmark
+    public int allStops() {
+        int i = next++ & (PINGS - 1);
+        int n = data.getStops().size();
+        int near = 0;
+        for (int s = 0; s < n; s++) {
+            double dist = GeoUtils.haversine(pings[i].getLat(), pings[i].getLon(),
+                    data.getStopLats()[s], data.getStopLons()[s]);
+            if (state.getArrivedStops().contains(data.getStops().get(s).getStopId())) continue;
+            if (dist <= 50.0 && !state.getArrivalTimes().containsKey(data.getStops().get(s).getStopId())) {
+                near++;
+            }
+        }
+        return near;
+    }
+}
@@ -0,0 +1,107 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.bench.Fixtures;
+import com.ivez.etaengine.entity.EtaPrediction;
+import com.ivez.etaengine.entity.StopArrival;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.model.Stop;
+import com.ivez.etaengine.repository.WriteBehindWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// One unthrottled EtaPredictor pass (all stops of the route) with persistence and
+// WebSocket broadcast replaced by counting stubs, so only the prediction work (including
+// the in-memory horizon history) is measured. With history=true the route also has a
+// travel-time table for every weekday and time of day, blended into each ETA.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EtaPredictorBenchmark {
+
+    private static final int STATES = 256;
+
+    @Param({Fixtures.HYD, Fixtures.SYNTHETIC_10K})
+    public String route;
+
+    @Param({"false", "true"})
+    public boolean history;
+
+    private EtaPredictor predictor;
+    private BusState[] states;
+    private int next;
+
+    private long rowsSaved;
+    private Map<String, Long> lastPublished;
+
+    @Setup
+    public void setUp() {
+        RouteData data = Fixtures.route(route);
+        states = Fixtures.statesAlong(data, STATES, 8.0);
+
+        Routes routes = new Routes();
+        routes.addRoute(Fixtures.BUS_ID, data);
+        UpdatePublisher publisher = new UpdatePublisher(null, null, null) {
+            @Override
+            public void publishEta(String busId, RouteData r, Map<String, Long> etaPerStop) {
+                lastPublished = etaPerStop;
+            }
+        };
+        WriteBehindWriter writer = new WriteBehindWriter(null, null) {
+            @Override
+            public void save(EtaPrediction prediction) {
+                rowsSaved++;
+            }
+
+            @Override
+            public void save(StopArrival arrival) {
+                rowsSaved++;
+            }
+        };
+        PredictionHistory horizon = new PredictionHistory(writer);
+        ReflectionTestUtils.setField(horizon, "historySize", 128);
+        TravelTimes travelTimes = travelTimes(routes, data);
+        predictor = new EtaPredictor(routes, publisher, writer, horizon, new PipelineMetrics(new SimpleMeterRegistry()),
+                travelTimes);
+        ReflectionTestUtils.setField(predictor, "historyWeight", 0.5);           // travel-times.weight
+    }
+
+    // One lap every half hour for a week, 20 s per leg
+    private TravelTimes travelTimes(Routes routes, RouteData data) {
+        TravelTimes travelTimes = new TravelTimes(null, routes);
+        ReflectionTestUtils.setField(travelTimes, "bucketMinutes", 30);
+        ReflectionTestUtils.setField(travelTimes, "minSamples", 1);
+        ReflectionTestUtils.setField(travelTimes, "maxSamples", 50);
+        ReflectionTestUtils.setField(travelTimes, "maxLegSeconds", 1800);
+        if (!history) return travelTimes;
+        List<StopArrival> arrivals = new ArrayList<>();
+        LocalDateTime lapStart = LocalDateTime.of(2025, 3, 17, 0, 0);
+        for (int lap = 0; lap < 7 * 48; lap++, lapStart = lapStart.plusMinutes(30)) {
+            LocalDateTime time = lapStart;
+            for (Stop stop : data.getStops()) {
+                arrivals.add(new StopArrival((long) arrivals.size(), Fixtures.BUS_ID, stop.getStopId(),
+                        stop.getName(), time, time.toLocalDate(), time));
+                time = time.plusSeconds(20);
+            }
+        }
+        travelTimes.ingest(arrivals);
+        travelTimes.publish();
+        return travelTimes;
+    }
+
+    @Benchmark
+    public Map<String, Long> predict() {
+        predictor.predict(states[next++ & (STATES - 1)], System.currentTimeMillis());
+        return lastPublished;
+    }
+}
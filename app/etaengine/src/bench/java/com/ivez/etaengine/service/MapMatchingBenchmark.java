@@ -0,0 +1,74 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.bench.Fixtures;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.util.SegmentGrid;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+// BusStateTracker.findClosestSegment on a moving bus (windowed search around the
+// previous segment), on cold starts (grid only) and against a linear scan baseline.
+// Lives in the service package because findClosestSegment is package-private.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapMatchingBenchmark {
+
+    private static final int PINGS = 4096;
+
+    @Param({Fixtures.HYD, Fixtures.SYNTHETIC_10K})
+    public String route;
+
+    private RouteData data;
+    private BusStateTracker tracker;
+    private double[] lats;
+    private double[] lons;
+    private int next;
+    private int previousSegment = -1;
+
+    @Setup
+    public void setUp() {
+        data = Fixtures.route(route);
+        double[][] pings = Fixtures.pingsAlong(data, PINGS, 10, 1);
+        lats = pings[0];
+        lons = pings[1];
+
+        tracker = new BusStateTracker(null, null, null, null);
+        ReflectionTestUtils.setField(tracker, "windowSegments", 10);     // matching.window-segments
+        ReflectionTestUtils.setField(tracker, "windowMaxMeters", 30.0);  // matching.window-max-meters
+    }
+
+    @Benchmark
+    public int tracking() {
+        int i = next++ & (PINGS - 1);
+        previousSegment = tracker.findClosestSegment(lats[i], lons[i], data, previousSegment);
+        return previousSegment;
+    }
+
+    @Benchmark
+    public int coldStart() {
+        int i = next++ & (PINGS - 1);
+        return tracker.findClosestSegment(lats[i], lons[i], data, -1);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int i = next++ & (PINGS - 1);
+        SegmentGrid grid = data.getSegmentGrid();
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int s = 0; s < grid.getSegmentCount(); s++) {
+            double d = grid.distanceToSegment(lats[i], lons[i], s);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = s;
+            }
+        }
+        return best;
+    }
+}
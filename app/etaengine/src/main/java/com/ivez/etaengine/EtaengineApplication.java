@@ -1,6 +1,8 @@
 package com.ivez.etaengine;
 
-import com.ivez.etaengine.service.GPSListener;
+import com.ivez.etaengine.ingest.IngestSources;
+import com.ivez.etaengine.journal.JournalReplayer;
+import com.ivez.etaengine.service.StateSnapshotter;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
@@ -9,10 +11,15 @@ import javax.annotation.PostConstruct;
 @SpringBootApplication
 public class EtaengineApplication {
 
-	private final GPSListener gpsListener;
+	private final IngestSources ingestSources;
+	private final JournalReplayer journalReplayer;
+	private final StateSnapshotter stateSnapshotter;
 
-	public EtaengineApplication(GPSListener gpsListener) {
-		this.gpsListener = gpsListener;
+	public EtaengineApplication(IngestSources ingestSources, JournalReplayer journalReplayer,
+								StateSnapshotter stateSnapshotter) {
+		this.ingestSources = ingestSources;
+		this.journalReplayer = journalReplayer;
+		this.stateSnapshotter = stateSnapshotter;
 	}
 
 	public static void main(String[] args) {
@@ -21,6 +28,11 @@ public class EtaengineApplication {
 
 	@PostConstruct
 	public void init() {
-		gpsListener.connect();
+		// Replay mode feeds the pipeline from a ping journal instead of the live sources,
+		// starting cold so its results don't depend on (or overwrite) the live snapshot
+		if (!journalReplayer.isReplayMode()) {
+			stateSnapshotter.start();
+			ingestSources.start();
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,34 @@
+package com.ivez.etaengine.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// JSON wire format of ClusterMessage, shared by all transports
+public final class ClusterCodec {
+
+    private final ObjectWriter writer;
+    private final ObjectReader reader;
+
+    public ClusterCodec() {
+        ObjectMapper mapper = new ObjectMapper();
+        this.writer = mapper.writerFor(ClusterMessage.class);
+        this.reader = mapper.readerFor(ClusterMessage.class);
+    }
+
+    public String encode(ClusterMessage message) {
+        try {
+            return writer.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public ClusterMessage decode(String text) throws IOException {
+        return reader.readValue(text);
+    }
+}
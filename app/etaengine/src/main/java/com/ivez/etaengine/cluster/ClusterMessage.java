@@ -0,0 +1,40 @@
+package com.ivez.etaengine.cluster;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.EtaPrediction;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Messages exchanged between etaengine nodes
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = ClusterMessage.Ping.class, name = "ping"),
+        @JsonSubTypes.Type(value = ClusterMessage.Eta.class, name = "eta"),
+        @JsonSubTypes.Type(value = ClusterMessage.Position.class, name = "pos"),
+        @JsonSubTypes.Type(value = ClusterMessage.Handoff.class, name = "handoff")
+})
+public sealed interface ClusterMessage {
+
+    /** A ping received by a node that does not own its bus; hops counts re-forwards. */
+    record Ping(String busId, double lat, double lon, long timestamp, int occupancy,
+                long receivedAtMillis, int hops) implements ClusterMessage {}
+
+    /** ETA update published by the bus's owner, for the other nodes' WebSocket clients. */
+    record Eta(String busId, Map<String, Long> etaPerStop) implements ClusterMessage {}
+
+    /** Position update published by the bus's owner, for the other nodes' WebSocket clients. */
+    record Position(String busId, double lat, double lon, long timestamp, Set<String> arrivedStops,
+                    Map<String, Long> arrivalTimes, int occupancy, int trip) implements ClusterMessage {}
+
+    /** Everything the previous owner knew about a bus, sent to its new owner. */
+    record Handoff(BusState state, FilterBank filters, List<EtaPrediction> predictions)
+            implements ClusterMessage {}
+
+    /** The bus's Kalman filters, one entry per stop ordinal; null if it has none yet. */
+    record FilterBank(double initialCovariance, double processNoise, double measurementNoise,
+                      double[] estimates, double[] covariances, boolean[] initialized) {}
+}
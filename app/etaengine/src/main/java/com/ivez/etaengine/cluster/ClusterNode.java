@@ -0,0 +1,322 @@
+package com.ivez.etaengine.cluster;
+
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.service.BusStateTracker;
+import com.ivez.etaengine.service.EtaPredictor;
+import com.ivez.etaengine.service.PingPipeline;
+import com.ivez.etaengine.service.PipelineMetrics;
+import com.ivez.etaengine.service.Routes;
+import com.ivez.etaengine.service.UpdatePublisher;
+import com.ivez.etaengine.util.KalmanFilterBank;
+import com.ivez.etaengine.util.RateLimitedLog;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Cluster mode: each bus is owned by one node, chosen by consistent hashing on busId over
+// the reachable members. Pings received for another node's bus are forwarded to it, the
+// owner's ETA and position updates are relayed to every node's WebSocket clients, and when
+// membership changes each node hands the state of the buses it no longer owns (tracker
+// state, Kalman filters, latest ETAs) to their new owner. Handoffs and relays run on the
+// bus's ingest worker, in order with its pings; a received handoff that finds the worker's
+// queue full is retried by the periodic sweep. With cluster.enabled=false, or while no
+// peer is reachable, every bus is local and nothing is sent.
+@Service
+public class ClusterNode implements ClusterTransport.Listener {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterNode.class);
+    private static final RateLimitedLog forwardFailures = new RateLimitedLog(log, 10_000);
+
+    // A forwarded ping is re-forwarded at most this often while members disagree on the ring
+    private static final int MAX_HOPS = 2;
+    private static final long SWEEP_INTERVAL_SEC = 10;
+    private static final long LEAVE_TIMEOUT_SEC = 5;
+
+    private final ClusterTransport transport;
+    private final BusStateTracker tracker;
+    private final Routes routes;
+    private final ObjectProvider<EtaPredictor> predictor;       // these depend on this node
+    private final ObjectProvider<PingPipeline> pipeline;
+    private final ObjectProvider<UpdatePublisher> publisher;
+
+    private final Counter pingsForwarded;
+    private final Counter pingsReceived;
+    private final Counter pingsUndeliverable;
+    private final Counter handoffsSent;
+    private final Counter handoffsReceived;
+    private final Counter relaysDropped;
+    private final AtomicInteger memberCount = new AtomicInteger(1);
+    // Received handoffs not yet queued on their bus's worker, latest per bus
+    private final Map<String, ClusterMessage.Handoff> pendingAdoptions = new ConcurrentHashMap<>();
+
+    @Value("${cluster.enabled}")
+    private boolean enabled;
+    @Value("${cluster.node-id}")
+    private String nodeId;
+    @Value("${cluster.virtual-nodes}")
+    private int virtualNodes;
+    @Value("${cluster.handoff-delay-ms}")
+    private long handoffDelayMs;       // lets pings already queued before a ring change drain
+
+    private volatile HashRing ring;
+    private volatile boolean clustered;  // more than one reachable member
+    private ScheduledExecutorService scheduler;
+
+    public ClusterNode(ClusterTransport transport, BusStateTracker tracker, Routes routes,
+                       ObjectProvider<EtaPredictor> predictor, ObjectProvider<PingPipeline> pipeline,
+                       ObjectProvider<UpdatePublisher> publisher, PipelineMetrics metrics) {
+        this.transport = transport;
+        this.tracker = tracker;
+        this.routes = routes;
+        this.predictor = predictor;
+        this.pipeline = pipeline;
+        this.publisher = publisher;
+        this.pingsForwarded = metrics.counter("eta.cluster.pings", "outcome", "forwarded");
+        this.pingsReceived = metrics.counter("eta.cluster.pings", "outcome", "received");
+        this.pingsUndeliverable = metrics.counter("eta.cluster.pings", "outcome", "undeliverable");
+        this.handoffsSent = metrics.counter("eta.cluster.handoffs", "direction", "sent");
+        this.handoffsReceived = metrics.counter("eta.cluster.handoffs", "direction", "received");
+        this.relaysDropped = metrics.counter("eta.cluster.relays.dropped");
+        metrics.gauge("eta.cluster.members", memberCount, AtomicInteger::get);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) return;
+        ring = new HashRing(Set.of(nodeId), virtualNodes);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-handoff");
+            t.setDaemon(true);
+            return t;
+        });
+        // Also catches buses whose handoff failed or that saw a late ping after moving
+        scheduler.scheduleWithFixedDelay(this::sweep,
+                SWEEP_INTERVAL_SEC, SWEEP_INTERVAL_SEC, TimeUnit.SECONDS);
+        transport.start(nodeId, this);
+        log.info("Cluster node {} started", nodeId);
+    }
+
+    // Graceful leave, before the ingest workers are stopped: hand every bus to its owner
+    // among the remaining members, then disconnect
+    @EventListener(ContextClosedEvent.class)
+    public void leave() throws InterruptedException {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        Set<String> others = new HashSet<>(ring.members());
+        others.remove(nodeId);
+        if (!others.isEmpty()) {
+            ring = new HashRing(others, virtualNodes);
+            List<String> moved = movedBuses();
+            CountDownLatch done = new CountDownLatch(moved.size());
+            handOff(moved, done);
+            if (!done.await(LEAVE_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                log.warn("Cluster node {} left before all handoffs completed", nodeId);
+            }
+        }
+        transport.stop();
+        scheduler = null;
+    }
+
+    /** True if this node owns the bus (always, outside cluster mode). */
+    public boolean isLocal(String busId) {
+        return !clustered || ring.owner(busId).equals(nodeId);
+    }
+
+    /** Sends a ping to its owner; false if the owner is unreachable (the ping is dropped). */
+    public boolean forward(BusPing ping, int hops) {
+        String owner = ring.owner(ping.getBusId());
+        boolean sent = transport.send(owner, new ClusterMessage.Ping(ping.getBusId(), ping.getLat(), ping.getLon(),
+                ping.getTimestamp(), ping.getOccupancy(), ping.getReceivedAtMillis(), hops));
+        if (sent) {
+            pingsForwarded.increment();
+        } else {
+            pingsUndeliverable.increment();
+            forwardFailures.warn("Cannot forward ping for {} to {}", ping.getBusId(), owner);
+        }
+        return sent;
+    }
+
+    public void relayEta(String busId, Map<String, Long> etaPerStop) {
+        if (clustered) transport.broadcast(new ClusterMessage.Eta(busId, etaPerStop));
+    }
+
+    public void relayPosition(BusState state, int occupancy) {
+        if (!clustered) return;
+        transport.broadcast(new ClusterMessage.Position(state.getBusId(), state.getLat(), state.getLon(),
+                state.getLastUpdated(), Set.copyOf(state.getArrivedStops()), Map.copyOf(state.getArrivalTimes()),
+                occupancy, state.getTrip()));
+    }
+
+    @Override
+    public void onMembershipChanged(Set<String> members) {
+        Set<String> live = new HashSet<>(members);
+        live.add(nodeId);
+        ring = new HashRing(live, virtualNodes);
+        clustered = live.size() > 1;
+        memberCount.set(live.size());
+        log.info("Cluster members: {}", new TreeSet<>(live));
+        ScheduledExecutorService s = scheduler;
+        if (s != null && !s.isShutdown()) {
+            s.schedule(this::handOffMoved, handoffDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void onMessage(String fromNodeId, ClusterMessage message) {
+        try {
+            if (message instanceof ClusterMessage.Ping p) {
+                receivePing(p);
+            } else if (message instanceof ClusterMessage.Eta e) {
+                RouteData route = routes.getRoute(e.busId());
+                if (route != null) relay(e.busId(), () -> publisher.getObject().deliverEta(e.busId(), route, e.etaPerStop()));
+            } else if (message instanceof ClusterMessage.Position p) {
+                RouteData route = routes.getRoute(p.busId());
+                if (route != null) relay(p.busId(), () -> publisher.getObject().deliverPosition(positionState(p), route, p.occupancy()));
+            } else if (message instanceof ClusterMessage.Handoff h) {
+                String busId = h.state().getBusId();
+                // Never block the transport thread on a full queue
+                pendingAdoptions.remove(busId);
+                if (!pipeline.getObject().tryExecute(busId, () -> adopt(h))) pendingAdoptions.put(busId, h);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to handle cluster message from {}: {}", fromNodeId, e.toString());
+        }
+    }
+
+    private void receivePing(ClusterMessage.Ping p) {
+        BusPing ping = new BusPing(p.busId(), p.lat(), p.lon(), p.timestamp(), p.occupancy());
+        ping.setReceivedAtMillis(p.receivedAtMillis());       // keeps the ETA clock of the receiving edge
+        if (isLocal(p.busId())) {
+            pingsReceived.increment();
+            pipeline.getObject().submit(ping);
+        } else if (p.hops() < MAX_HOPS) {
+            forward(ping, p.hops() + 1);
+        } else {
+            pingsUndeliverable.increment();
+        }
+    }
+
+    private void relay(String busId, Runnable delivery) {
+        if (!pipeline.getObject().tryExecute(busId, delivery)) relaysDropped.increment();
+    }
+
+    private static BusState positionState(ClusterMessage.Position p) {
+        BusState state = new BusState();
+        state.setBusId(p.busId());
+        state.setLat(p.lat());
+        state.setLon(p.lon());
+        state.setLastUpdated(p.timestamp());
+        state.setArrivedStops(p.arrivedStops());
+        state.setArrivalTimes(p.arrivalTimes());
+        state.setTrip(p.trip());
+        return state;
+    }
+
+    // Tracked buses this node no longer owns
+    private List<String> movedBuses() {
+        List<String> moved = new ArrayList<>();
+        if (!clustered) return moved;
+        for (String busId : tracker.getAllStates().keySet()) {
+            if (!ring.owner(busId).equals(nodeId)) moved.add(busId);
+        }
+        return moved;
+    }
+
+    private void sweep() {
+        retryAdoptions();
+        handOffMoved();
+    }
+
+    private void retryAdoptions() {
+        for (ClusterMessage.Handoff h : pendingAdoptions.values()) {
+            String busId = h.state().getBusId();
+            if (pipeline.getObject().tryExecute(busId, () -> adopt(h))) pendingAdoptions.remove(busId, h);
+        }
+    }
+
+    private void handOffMoved() {
+        try {
+            handOff(movedBuses(), null);
+        } catch (RuntimeException e) {
+            log.warn("Cluster handoff failed: {}", e.toString());
+        }
+    }
+
+    // Queues each handoff on the bus's worker, behind the pings already queued for it
+    private void handOff(List<String> busIds, CountDownLatch done) {
+        try {
+            for (String busId : busIds) {
+                pipeline.getObject().execute(busId, () -> {
+                    try {
+                        handOff(busId);
+                    } finally {
+                        if (done != null) done.countDown();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handOff(String busId) {
+        String owner = ring.owner(busId);
+        BusState state = tracker.getState(busId);
+        if (owner.equals(nodeId) || state == null) return;      // moved back, or already gone
+
+        EtaPredictor predictor = this.predictor.getObject();
+        KalmanFilterBank bank = predictor.filtersOf(busId);
+        ClusterMessage.FilterBank filters = bank == null ? null : new ClusterMessage.FilterBank(
+                bank.getInitialCovariance(), bank.getProcessNoise(), bank.getMeasurementNoise(),
+                bank.getEstimates(), bank.getCovariances(), bank.getInitialized());
+        if (transport.send(owner, new ClusterMessage.Handoff(state, filters, predictor.getPredictions(busId)))) {
+            tracker.forget(busId);
+            predictor.forget(busId);
+            handoffsSent.increment();
+            log.debug("Handed off {} to {}", busId, owner);
+        }
+    }
+
+    private void adopt(ClusterMessage.Handoff h) {
+        BusState state = h.state();
+        String busId = state.getBusId();
+        if (routes.getRoute(busId) == null) return;
+        BusState local = tracker.getState(busId);
+        // Pings forwarded here before the state arrived may already have started a fresher one
+        if (local == null || local.getLastUpdated() < state.getLastUpdated()) {
+            Set<String> arrived = ConcurrentHashMap.newKeySet();
+            arrived.addAll(state.getArrivedStops());
+            state.setArrivedStops(arrived);
+            state.setArrivalTimes(new ConcurrentHashMap<>(state.getArrivalTimes()));
+            tracker.restore(state);
+        }
+        ClusterMessage.FilterBank f = h.filters();
+        KalmanFilterBank filters = f == null ? null : KalmanFilterBank.restore(f.initialCovariance(),
+                f.processNoise(), f.measurementNoise(), f.estimates(), f.covariances(), f.initialized());
+        predictor.getObject().adopt(busId, filters, h.predictions() == null ? List.of() : h.predictions());
+        handoffsReceived.increment();
+        log.debug("Adopted {}", busId);
+    }
+}
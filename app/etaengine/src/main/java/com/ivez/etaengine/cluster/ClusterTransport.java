@@ -0,0 +1,27 @@
+package com.ivez.etaengine.cluster;
+
+import java.util.Set;
+
+// Moves ClusterMessages between nodes and reports which nodes are reachable.
+// Messages from one sender are delivered in the order they were sent.
+public interface ClusterTransport {
+
+    /** Joins the cluster as nodeId; inbound messages and membership changes go to the listener. */
+    void start(String nodeId, Listener listener);
+
+    void stop();
+
+    /** Sends to one member; false if it is not currently reachable. */
+    boolean send(String nodeId, ClusterMessage message);
+
+    /** Sends to every other reachable member. */
+    void broadcast(ClusterMessage message);
+
+    interface Listener {
+
+        void onMessage(String fromNodeId, ClusterMessage message);
+
+        /** The reachable members, including this node. */
+        void onMembershipChanged(Set<String> members);
+    }
+}
@@ -0,0 +1,66 @@
+package com.ivez.etaengine.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Consistent hashing of busIds onto nodes, with virtual nodes to even out the split.
+// Immutable: a membership change builds a new ring, which moves only ~1/N of the buses.
+public final class HashRing {
+
+    private final Set<String> members;
+    private final long[] points;
+    private final String[] owners;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) throw new IllegalArgumentException("A ring needs at least one node");
+        this.members = Set.copyOf(nodes);
+        // Sorted so that every node builds the same ring, point collisions included
+        List<String> sorted = new ArrayList<>(members);
+        Collections.sort(sorted);
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : sorted) {
+            for (int v = 0; v < virtualNodes; v++) {
+                ring.putIfAbsent(hash(node + "#" + v), node);
+            }
+        }
+        points = new long[ring.size()];
+        owners = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> e : ring.entrySet()) {
+            points[i] = e.getKey();
+            owners[i++] = e.getValue();
+        }
+    }
+
+    public Set<String> members() {
+        return members;
+    }
+
+    /** The node owning the key: the first ring point at or after its hash, wrapping around. */
+    public String owner(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) i = -i - 1;
+        return owners[i == points.length ? 0 : i];
+    }
+
+    // FNV-1a over the UTF-16 chars, finished with the murmur3 64-bit mix for a uniform spread
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,44 @@
+package com.ivez.etaengine.cluster;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// In-process "network" connecting LoopbackTransports, for running several nodes in one
+// JVM (tests, local experiments). Every joined node sees every other one.
+public class LoopbackNetwork {
+
+    private static final LoopbackNetwork SHARED = new LoopbackNetwork();
+
+    private final Map<String, LoopbackTransport> nodes = new ConcurrentHashMap<>();
+
+    /** The network used by cluster.transport=loopback, shared by every context in the JVM. */
+    public static LoopbackNetwork shared() {
+        return SHARED;
+    }
+
+    synchronized void join(String nodeId, LoopbackTransport transport) {
+        if (nodes.putIfAbsent(nodeId, transport) != null) {
+            throw new IllegalStateException("Node " + nodeId + " already joined");
+        }
+        announce();
+    }
+
+    synchronized void leave(String nodeId) {
+        if (nodes.remove(nodeId) != null) announce();
+    }
+
+    boolean send(String fromNodeId, String toNodeId, String encoded) {
+        LoopbackTransport to = nodes.get(toNodeId);
+        return to != null && to.deliver(fromNodeId, encoded);
+    }
+
+    Set<String> members() {
+        return Set.copyOf(nodes.keySet());
+    }
+
+    private void announce() {
+        Set<String> members = members();
+        for (LoopbackTransport node : nodes.values()) node.deliverMembership(members);
+    }
+}
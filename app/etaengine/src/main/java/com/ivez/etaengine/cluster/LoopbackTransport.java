@@ -0,0 +1,83 @@
+package com.ivez.etaengine.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// ClusterTransport over a LoopbackNetwork. Messages still go through the wire codec and
+// are delivered on one thread per receiving node, so ordering and serialization behave
+// like the WebSocket transport.
+public class LoopbackTransport implements ClusterTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(LoopbackTransport.class);
+
+    private final LoopbackNetwork network;
+    private final ClusterCodec codec = new ClusterCodec();
+
+    private String nodeId;
+    private Listener listener;
+    private ExecutorService inbox;
+
+    public LoopbackTransport(LoopbackNetwork network) {
+        this.network = network;
+    }
+
+    @Override
+    public void start(String nodeId, Listener listener) {
+        this.nodeId = nodeId;
+        this.listener = listener;
+        this.inbox = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cluster-inbox-" + nodeId);
+            t.setDaemon(true);
+            return t;
+        });
+        network.join(nodeId, this);
+    }
+
+    @Override
+    public void stop() {
+        network.leave(nodeId);
+        inbox.shutdown();
+    }
+
+    @Override
+    public boolean send(String toNodeId, ClusterMessage message) {
+        return network.send(nodeId, toNodeId, codec.encode(message));
+    }
+
+    @Override
+    public void broadcast(ClusterMessage message) {
+        String encoded = codec.encode(message);
+        for (String member : network.members()) {
+            if (!member.equals(nodeId)) network.send(nodeId, member, encoded);
+        }
+    }
+
+    boolean deliver(String fromNodeId, String encoded) {
+        return enqueue(() -> {
+            try {
+                listener.onMessage(fromNodeId, codec.decode(encoded));
+            } catch (IOException e) {
+                log.warn("Undecodable cluster message from {}: {}", fromNodeId, e.getMessage());
+            }
+        });
+    }
+
+    void deliverMembership(Set<String> members) {
+        enqueue(() -> listener.onMembershipChanged(members));
+    }
+
+    private boolean enqueue(Runnable task) {
+        try {
+            inbox.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;                                   // stopped
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.ivez.etaengine.cluster;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
+import org.java_websocket.server.WebSocketServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// ClusterTransport between processes over WebSockets. Every node listens on its cluster
+// port, on the host of its own cluster.members entry, and keeps one outbound connection to
+// each configured peer, used for sending only. Inbound connections must name a configured
+// peer in their X-Cluster-Node header. A peer counts as a member while that outbound
+// connection is open; dropped connections are retried every reconnect interval.
+public class WebSocketClusterTransport implements ClusterTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(WebSocketClusterTransport.class);
+
+    static final String NODE_HEADER = "X-Cluster-Node";
+    private static final int CONNECTION_LOST_TIMEOUT_SEC = 10;
+
+    private final Map<String, URI> peers;
+    private final int port;
+    private final long reconnectMs;
+    private final ClusterCodec codec = new ClusterCodec();
+
+    private final Map<String, Peer> connections = new ConcurrentHashMap<>();
+    private final Set<String> reachable = new HashSet<>();
+    private String nodeId;
+    private Listener listener;
+    private Server server;
+    private ScheduledExecutorService reconnector;
+
+    /** peers: node id to ws:// URI of every member; this node's own entry gives the listen host. */
+    public WebSocketClusterTransport(Map<String, URI> peers, int port, long reconnectMs) {
+        this.peers = Map.copyOf(peers);
+        this.port = port;
+        this.reconnectMs = reconnectMs;
+    }
+
+    @Override
+    public void start(String nodeId, Listener listener) {
+        URI self = peers.get(nodeId);
+        if (self == null) throw new IllegalStateException("cluster.members has no entry for " + nodeId);
+        this.nodeId = nodeId;
+        this.listener = listener;
+        server = new Server(new InetSocketAddress(self.getHost(), port));
+        server.setReuseAddr(true);
+        server.start();
+        reconnector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-connect");
+            t.setDaemon(true);
+            return t;
+        });
+        reconnector.scheduleWithFixedDelay(this::connectPeers, 0, reconnectMs, TimeUnit.MILLISECONDS);
+        log.info("Cluster transport listening on {}:{}, peers {}", self.getHost(), port, peers.keySet());
+    }
+
+    @Override
+    public void stop() {
+        reconnector.shutdownNow();
+        connections.values().forEach(WebSocketClient::close);
+        try {
+            server.stop(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean send(String toNodeId, ClusterMessage message) {
+        Peer peer = connections.get(toNodeId);
+        return peer != null && peer.trySend(codec.encode(message));
+    }
+
+    @Override
+    public void broadcast(ClusterMessage message) {
+        String encoded = null;
+        for (Peer peer : connections.values()) {
+            if (!peer.isOpen()) continue;
+            if (encoded == null) encoded = codec.encode(message);
+            peer.trySend(encoded);
+        }
+    }
+
+    private void connectPeers() {
+        for (Map.Entry<String, URI> e : peers.entrySet()) {
+            if (e.getKey().equals(nodeId)) continue;
+            Peer peer = connections.get(e.getKey());
+            if (peer == null || peer.getReadyState() == ReadyState.CLOSED) {
+                peer = new Peer(e.getKey(), e.getValue());
+                connections.put(e.getKey(), peer);
+                peer.connect();
+            }
+        }
+    }
+
+    private void setReachable(String peerId, boolean up) {
+        Set<String> members;
+        synchronized (reachable) {
+            if (!(up ? reachable.add(peerId) : reachable.remove(peerId))) return;
+            members = new HashSet<>(reachable);
+        }
+        members.add(nodeId);
+        log.info("Cluster peer {} {}", peerId, up ? "connected" : "disconnected");
+        listener.onMembershipChanged(Set.copyOf(members));
+    }
+
+    private final class Peer extends WebSocketClient {
+        private final String peerId;
+
+        Peer(String peerId, URI uri) {
+            super(uri, Map.of(NODE_HEADER, nodeId));
+            this.peerId = peerId;
+            setConnectionLostTimeout(CONNECTION_LOST_TIMEOUT_SEC);
+        }
+
+        boolean trySend(String encoded) {
+            try {
+                send(encoded);
+                return true;
+            } catch (WebsocketNotConnectedException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            setReachable(peerId, true);
+        }
+
+        @Override
+        public void onMessage(String message) {
+            // Outbound connections only send
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            setReachable(peerId, false);
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            log.debug("Cluster connection to {} failed: {}", peerId, ex.getMessage());
+        }
+    }
+
+    private final class Server extends WebSocketServer {
+
+        Server(InetSocketAddress address) {
+            super(address);
+        }
+
+        @Override
+        public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket conn, Draft draft,
+                                                                           ClientHandshake request) throws InvalidDataException {
+            String from = request.getFieldValue(NODE_HEADER);
+            if (from.equals(nodeId) || !peers.containsKey(from)) {
+                log.warn("Rejected cluster connection from {} claiming node '{}'", conn.getRemoteSocketAddress(), from);
+                throw new InvalidDataException(CloseFrame.POLICY_VALIDATION, "Unknown cluster node");
+            }
+            return super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            conn.setAttachment(handshake.getFieldValue(NODE_HEADER));
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+            String from = conn.getAttachment();
+            try {
+                listener.onMessage(from, codec.decode(message));
+            } catch (IOException e) {
+                log.warn("Undecodable cluster message from {}: {}", from, e.getMessage());
+            }
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+            log.warn("Cluster server error{}: {}", conn == null ? "" : " from " + conn.getAttachment(), ex.getMessage());
+        }
+
+        @Override
+        public void onStart() {
+        }
+    }
+}
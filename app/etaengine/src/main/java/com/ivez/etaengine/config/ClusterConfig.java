@@ -0,0 +1,43 @@
+package com.ivez.etaengine.config;
+
+import com.ivez.etaengine.cluster.ClusterTransport;
+import com.ivez.etaengine.cluster.LoopbackNetwork;
+import com.ivez.etaengine.cluster.LoopbackTransport;
+import com.ivez.etaengine.cluster.WebSocketClusterTransport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Configuration
+public class ClusterConfig {
+
+    // websocket between processes; loopback joins every context in this JVM (local testing).
+    // Nothing is started unless cluster.enabled=true.
+    @Bean
+    public ClusterTransport clusterTransport(@Value("${cluster.transport}") String transport,
+                                             @Value("${cluster.members}") String members,
+                                             @Value("${cluster.port}") int port,
+                                             @Value("${cluster.reconnect-ms}") long reconnectMs) {
+        return switch (transport) {
+            case "websocket" -> new WebSocketClusterTransport(parseMembers(members), port, reconnectMs);
+            case "loopback" -> new LoopbackTransport(LoopbackNetwork.shared());
+            default -> throw new IllegalArgumentException("Unknown cluster.transport: " + transport);
+        };
+    }
+
+    // "node-1=ws://host-a:9701,node-2=ws://host-b:9701"
+    static Map<String, URI> parseMembers(String spec) {
+        Map<String, URI> members = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) continue;
+            int eq = entry.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Invalid cluster.members entry: " + entry);
+            members.put(entry.substring(0, eq).trim(), URI.create(entry.substring(eq + 1).trim()));
+        }
+        return members;
+    }
+}
@@ -3,6 +3,8 @@ package com.ivez.etaengine.config;
 import com.ivez.etaengine.model.Stop;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -13,6 +15,8 @@ import java.util.List;
 @Configuration
 public class RouteConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(RouteConfig.class);
+
     @Bean
     public List<Stop> stops() throws Exception {
         InputStream is = getClass().getResourceAsStream("/routes/route_kiit_campus_loop.geojson"); // Adjust if necessary
@@ -49,7 +53,7 @@ public class RouteConfig {
             ));
         }
 
-        System.out.println("✅ Loaded " + stops.size() + " stops from route.json");
+        log.info("Loaded {} stops from route.json", stops.size());
         return stops;
     }
 }
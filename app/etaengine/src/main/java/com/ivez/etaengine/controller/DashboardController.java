@@ -1,5 +1,6 @@
 package com.ivez.etaengine.controller;
 
+import com.ivez.etaengine.dto.StopAccuracyResponse;
 import com.ivez.etaengine.dto.StopEtaResponse;
 import com.ivez.etaengine.service.BusStateTracker;
 import com.ivez.etaengine.service.Dashboard;
@@ -30,6 +31,16 @@ public class DashboardController {
         return dashboard.getDashboardData(busId, date);
     }
 
+    // Daily per-stop accuracy rollups, available after the raw history has expired
+    @GetMapping("/bus/{busId}/accuracy")
+    public List<StopAccuracyResponse> getDailyAccuracy(
+            @PathVariable String busId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+
+        return dashboard.getDailyAccuracy(busId, from, to);
+    }
+
     @GetMapping(path = "/buses")
     public List<String> getBuses(){
         return stateTracker.getAllStates().keySet().stream().toList();
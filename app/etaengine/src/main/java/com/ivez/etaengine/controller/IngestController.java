@@ -0,0 +1,41 @@
+package com.ivez.etaengine.controller;
+
+import com.ivez.etaengine.dto.IngestResponse;
+import com.ivez.etaengine.ingest.HttpIngestSource;
+import com.ivez.etaengine.model.BusPing;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/ingest")
+public class IngestController {
+
+    private final HttpIngestSource source;
+
+    public IngestController(HttpIngestSource source) {
+        this.source = source;
+    }
+
+    // Body: JSON array of pings, same fields as the simulator feed
+    @PostMapping("/pings")
+    public ResponseEntity<IngestResponse> postPings(@RequestBody List<BusPing> pings) {
+        if (!source.isRunning()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        if (pings.size() > source.getMaxBatch()) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        int accepted = source.submit(pings);
+        return ResponseEntity.accepted().body(new IngestResponse(accepted, pings.size() - accepted));
+    }
+
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public ResponseEntity<Void> unreadable(HttpMessageNotReadableException e) {
+        source.rejectBody(e.getMostSpecificCause().getMessage());
+        return ResponseEntity.badRequest().build();
+    }
+}
@@ -0,0 +1,59 @@
+package com.ivez.etaengine.controller;
+
+import com.ivez.etaengine.dto.RouteAssignment;
+import com.ivez.etaengine.service.RouteReloader;
+import com.ivez.etaengine.service.Routes;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Bus-to-route assignments. Changes apply to this node only and are not persisted:
+// routes.assignments and the route files are the durable source.
+@RestController
+@RequestMapping("/api/routes")
+@CrossOrigin(origins = "*")
+public class RouteController {
+
+    private final Routes routes;
+    private final RouteReloader reloader;
+
+    public RouteController(Routes routes, RouteReloader reloader) {
+        this.routes = routes;
+        this.reloader = reloader;
+    }
+
+    @GetMapping
+    public Set<String> getRoutes() {
+        return new TreeSet<>(routes.getAllRouteIds());
+    }
+
+    @GetMapping("/assignments")
+    public List<RouteAssignment> getAssignments() {
+        return routes.getAssignments().entrySet().stream()
+                .map(e -> new RouteAssignment(e.getKey(), e.getValue()))
+                .toList();
+    }
+
+    // Body: {"routeId": "..."}; 404 if the route is not loaded
+    @PutMapping("/assignments/{busId}")
+    public ResponseEntity<RouteAssignment> assign(@PathVariable String busId, @RequestBody RouteAssignment body)
+            throws InterruptedException {
+        if (body.getRouteId() == null) return ResponseEntity.badRequest().build();
+        reloader.assign(busId, body.getRouteId());
+        return ResponseEntity.ok(new RouteAssignment(busId, body.getRouteId()));
+    }
+
+    @DeleteMapping("/assignments/{busId}")
+    public ResponseEntity<Void> unassign(@PathVariable String busId) throws InterruptedException {
+        reloader.unassign(busId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Void> unknownRoute(IllegalArgumentException e) {
+        return ResponseEntity.notFound().build();
+    }
+}
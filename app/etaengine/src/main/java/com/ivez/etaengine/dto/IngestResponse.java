@@ -0,0 +1,14 @@
+package com.ivez.etaengine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestResponse {
+
+    private int accepted;
+    private int rejected;         // invalid, stale or dropped on a full queue
+}
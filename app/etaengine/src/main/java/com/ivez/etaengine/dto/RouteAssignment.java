@@ -0,0 +1,14 @@
+package com.ivez.etaengine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RouteAssignment {
+
+    private String busId;         // taken from the path on PUT
+    private String routeId;
+}
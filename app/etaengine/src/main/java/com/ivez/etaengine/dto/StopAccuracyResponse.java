@@ -0,0 +1,26 @@
+package com.ivez.etaengine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StopAccuracyResponse {
+
+    private String busId;
+    private String stopId;
+    private String stopName;
+    private LocalDate date;
+    private int arrivals;
+    private int eta5Samples;
+    private Double eta5MaeSeconds;
+    private int eta3Samples;
+    private Double eta3MaeSeconds;
+    private int eta2Samples;
+    private Double eta2MaeSeconds;
+
+}
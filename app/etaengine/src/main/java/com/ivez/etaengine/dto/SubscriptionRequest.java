@@ -0,0 +1,19 @@
+package com.ivez.etaengine.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Client → server message on /ws/eta, e.g. {"action":"subscribe","stopIds":["stop_kc_1"],"protocol":"delta"}
+@Data
+@NoArgsConstructor
+public class SubscriptionRequest {
+    private String action;                 // "subscribe" | "unsubscribe" | "resync"
+    private String protocol;               // optional: "delta" to receive v2 keyframe/delta frames
+    private String encoding;               // optional: "json" (default) | "cbor"
+    private List<String> busIds = new ArrayList<>();
+    private List<String> routeIds = new ArrayList<>();
+    private List<String> stopIds = new ArrayList<>();
+}
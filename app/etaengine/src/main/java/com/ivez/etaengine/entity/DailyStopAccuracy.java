@@ -0,0 +1,51 @@
+package com.ivez.etaengine.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+// Nightly rollup of prediction_accuracy: per bus, stop and day, how many arrivals there
+// were and the mean absolute error (seconds) of the ETAs current at each horizon
+@Entity
+@Table(name = "daily_stop_accuracy", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_daily_stop_accuracy_bus_date_stop", columnNames = {"bus_id", "date", "stop_id"})
+}, indexes = {
+        @Index(name = "idx_daily_stop_accuracy_date", columnList = "date")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DailyStopAccuracy {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "bus_id", nullable = false)
+    private String busId;
+    @Column(name = "stop_id", nullable = false)
+    private String stopId;
+    @Column(name = "stop_name")
+    private String stopName;
+    @Column(name = "date", nullable = false)
+    private LocalDate date;
+
+    @Column(name = "arrivals", nullable = false)
+    private int arrivals;
+
+    @Column(name = "eta5_samples", nullable = false)
+    private int eta5Samples;
+    @Column(name = "eta5_mae_seconds")
+    private Double eta5MaeSeconds;
+    @Column(name = "eta3_samples", nullable = false)
+    private int eta3Samples;
+    @Column(name = "eta3_mae_seconds")
+    private Double eta3MaeSeconds;
+    @Column(name = "eta2_samples", nullable = false)
+    private int eta2Samples;
+    @Column(name = "eta2_mae_seconds")
+    private Double eta2MaeSeconds;
+}
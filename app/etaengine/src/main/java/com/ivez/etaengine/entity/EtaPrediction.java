@@ -9,7 +9,10 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "eta_predictions")
+// The dashboard reads one bus-day at a time, per stop in creation order
+@Table(name = "eta_predictions", indexes = {
+        @Index(name = "idx_eta_predictions_bus_date_stop_created", columnList = "bus_id, date, stop_id, created_at")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -0,0 +1,52 @@
+package com.ivez.etaengine.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// One row per stop arrival: the actual arrival and the ETAs that were current
+// 5, 3 and 2 minutes before it (null when no prediction was made in time)
+@Entity
+@Table(name = "prediction_accuracy", indexes = {
+        @Index(name = "idx_prediction_accuracy_bus_date_arrival", columnList = "bus_id, date, arrival_time")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PredictionAccuracy {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "bus_id", nullable = false)
+    private String busId;
+    @Column(name = "stop_id", nullable = false)
+    private String stopId;
+    @Column(name = "stop_name")
+    private String stopName;
+    @Column(name = "arrival_time", nullable = false)
+    private LocalDateTime arrivalTime;
+
+    @Column(name = "eta_5min_before")
+    private LocalDateTime eta5minBefore;
+    @Column(name = "eta_3min_before")
+    private LocalDateTime eta3minBefore;
+    @Column(name = "eta_2min_before")
+    private LocalDateTime eta2minBefore;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    @Column(name = "date", nullable = false)
+    private LocalDate date;
+
+    @PrePersist
+    protected void onCreate() {
+        this.createdAt = LocalDateTime.now();
+        this.date = this.arrivalTime.toLocalDate();
+    }
+}
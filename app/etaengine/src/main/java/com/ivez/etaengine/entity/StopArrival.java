@@ -10,7 +10,9 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "stop_arrivals")
+@Table(name = "stop_arrivals", indexes = {
+        @Index(name = "idx_stop_arrivals_bus_date_arrival", columnList = "bus_id, date, arrival_time")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
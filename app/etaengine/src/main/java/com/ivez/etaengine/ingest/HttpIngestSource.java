@@ -0,0 +1,73 @@
+package com.ivez.etaengine.ingest;
+
+import com.ivez.etaengine.model.BusPing;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Batches of JSON pings uploaded over HTTP (POST /api/ingest/pings), for trackers and
+// gateways that report periodically instead of streaming. Requests are refused unless
+// "http" is one of the ingest.sources.
+@Component
+public class HttpIngestSource implements IngestSource {
+
+    public static final String NAME = "http";
+
+    private final PingIngest ingest;
+    private final PingIngest.Counters counters;
+
+    @Value("${ingest.http.max-batch}")
+    private int maxBatch;
+
+    private volatile boolean running;
+
+    public HttpIngestSource(PingIngest ingest) {
+        this.ingest = ingest;
+        this.counters = ingest.counters(NAME);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /** Submits one uploaded batch; returns how many pings were accepted. */
+    public int submit(List<BusPing> pings) {
+        long receivedNanos = System.nanoTime();
+        long receivedAt = System.currentTimeMillis();
+        int accepted = 0;
+        for (BusPing ping : pings) {
+            if (ping == null) {
+                ingest.decodeFailed(counters, "null array element");
+                continue;
+            }
+            ping.setReceivedNanos(receivedNanos);
+            ping.setReceivedAtMillis(receivedAt);
+            if (ingest.accept(ping, counters)) accepted++;
+        }
+        return accepted;
+    }
+
+    public void rejectBody(String detail) {
+        ingest.decodeFailed(counters, detail);
+    }
+}
@@ -0,0 +1,13 @@
+package com.ivez.etaengine.ingest;
+
+// One way pings reach the engine. A source decodes its own wire format and hands each
+// ping to PingIngest; IngestSources starts the ones named in ingest.sources.
+public interface IngestSource {
+
+    /** Name used in ingest.sources and as the source tag on the ingest meters. */
+    String name();
+
+    void start();
+
+    void stop();
+}
@@ -0,0 +1,52 @@
+package com.ivez.etaengine.ingest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Starts the ingest sources named in ingest.sources and stops them on shutdown.
+// Not started at all in journal replay mode.
+@Component
+public class IngestSources {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestSources.class);
+
+    private final Map<String, IngestSource> available = new LinkedHashMap<>();
+    private final List<IngestSource> started = new ArrayList<>();
+
+    @Value("${ingest.sources}")
+    private List<String> enabled;
+
+    public IngestSources(List<IngestSource> sources) {
+        for (IngestSource source : sources) available.put(source.name(), source);
+    }
+
+    public synchronized void start() {
+        for (String name : enabled) {
+            if (name.isBlank()) continue;
+            IngestSource source = available.get(name.trim());
+            if (source == null) {
+                throw new IllegalStateException("Unknown ingest source '" + name.trim()
+                        + "', expected one of " + available.keySet());
+            }
+            source.start();
+            started.add(source);
+        }
+        log.info("Ingest sources started: {}", started.stream().map(IngestSource::name).toList());
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        Collections.reverse(started);
+        for (IngestSource source : started) source.stop();
+        started.clear();
+    }
+}
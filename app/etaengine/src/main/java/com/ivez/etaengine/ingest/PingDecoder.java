@@ -0,0 +1,156 @@
+package com.ivez.etaengine.ingest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.service.PingPool;
+import com.ivez.etaengine.service.Routes;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Streaming decoder for JSON ping frames: a single ping object or an array of them.
+// Values are read straight off a JsonParser into pooled BusPing records (no data binding),
+// and busId is matched against the known route ids from the parser's own char buffer, so
+// a ping for a known bus allocates nothing beyond the per-frame parser, which batched
+// frames share across all their pings. Unknown fields are skipped and counted. On a
+// malformed frame the pings before the error have already been handed to the sink and
+// the rest of the frame is dropped.
+@Component
+public class PingDecoder {
+
+    // The fast double parser reads lat/lon from the token buffer instead of via a String
+    private static final JsonFactory JSON = JsonFactory.builder()
+            .enable(StreamReadFeature.USE_FAST_DOUBLE_PARSER)
+            .build();
+
+    private final Routes routes;
+    private final PingPool pool;
+    private volatile BusIdTable busIds = BusIdTable.of(List.of());
+
+    public PingDecoder(Routes routes, PingPool pool) {
+        this.routes = routes;
+        this.pool = pool;
+    }
+
+    /** Decodes a text frame, handing each ping to sink, which takes ownership of it. */
+    public void decode(String frame, PingIngest.Counters source, Consumer<BusPing> sink) throws IOException {
+        try (JsonParser p = JSON.createParser(frame)) {
+            decode(p, source, sink);
+        }
+    }
+
+    public void decode(byte[] frame, int offset, int length, PingIngest.Counters source, Consumer<BusPing> sink)
+            throws IOException {
+        try (JsonParser p = JSON.createParser(frame, offset, length)) {
+            decode(p, source, sink);
+        }
+    }
+
+    private void decode(JsonParser p, PingIngest.Counters source, Consumer<BusPing> sink) throws IOException {
+        JsonToken token = p.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+            while ((token = p.nextToken()) == JsonToken.START_OBJECT) {
+                readPing(p, source, sink);
+            }
+            if (token != JsonToken.END_ARRAY) throw new JsonParseException(p, "expected a ping object");
+        } else if (token == JsonToken.START_OBJECT) {
+            readPing(p, source, sink);
+        } else {
+            throw new JsonParseException(p, "expected a ping object or array");
+        }
+        if (p.nextToken() != null) throw new JsonParseException(p, "trailing content after pings");
+    }
+
+    private void readPing(JsonParser p, PingIngest.Counters source, Consumer<BusPing> sink) throws IOException {
+        BusPing ping = pool.acquire();
+        try {
+            String field;
+            while ((field = p.nextFieldName()) != null) {
+                JsonToken value = p.nextToken();
+                switch (field) {
+                    case "busId" -> ping.setBusId(value == JsonToken.VALUE_STRING ? busId(p) : p.getValueAsString());
+                    case "lat" -> ping.setLat(p.getValueAsDouble());
+                    case "lon" -> ping.setLon(p.getValueAsDouble());
+                    case "timestamp" -> ping.setTimestamp(p.getValueAsLong());
+                    case "occupancy" -> ping.setOccupancy(p.getValueAsInt());
+                    default -> {
+                        source.unknownField();
+                        p.skipChildren();
+                    }
+                }
+            }
+            if (p.currentToken() != JsonToken.END_OBJECT) throw new JsonParseException(p, "expected a field name");
+        } catch (IOException | RuntimeException e) {
+            pool.release(ping);
+            throw e;
+        }
+        sink.accept(ping);
+    }
+
+    // The canonical id for a known bus; the table is rebuilt when a route appears
+    private String busId(JsonParser p) throws IOException {
+        char[] chars = p.getTextCharacters();
+        int offset = p.getTextOffset();
+        int length = p.getTextLength();
+        String known = busIds.lookup(chars, offset, length);
+        if (known != null) return known;
+
+        String id = new String(chars, offset, length);
+        if (routes.getRoute(id) == null) return id;               // unknown bus, dropped later
+        BusIdTable table = BusIdTable.of(routes.getAllBusIds());
+        busIds = table;
+        known = table.lookup(chars, offset, length);
+        return known != null ? known : id;
+    }
+
+    // Open-addressing set of bus ids, probed with the same hash String.hashCode computes
+    private static final class BusIdTable {
+        private final String[] slots;
+        private final int mask;
+
+        private BusIdTable(int capacity) {
+            slots = new String[capacity];
+            mask = capacity - 1;
+        }
+
+        static BusIdTable of(Collection<String> ids) {
+            int capacity = Integer.highestOneBit(Math.max(4, ids.size() * 2) - 1) << 1;
+            BusIdTable table = new BusIdTable(capacity);
+            for (String id : ids) {
+                int i = spread(id.hashCode()) & table.mask;
+                while (table.slots[i] != null) i = (i + 1) & table.mask;
+                table.slots[i] = id;
+            }
+            return table;
+        }
+
+        String lookup(char[] chars, int offset, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) hash = 31 * hash + chars[offset + i];
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+                String id = slots[i];
+                if (id == null) return null;
+                if (matches(id, chars, offset, length)) return id;
+            }
+        }
+
+        private static boolean matches(String id, char[] chars, int offset, int length) {
+            if (id.length() != length) return false;
+            for (int i = 0; i < length; i++) {
+                if (id.charAt(i) != chars[offset + i]) return false;
+            }
+            return true;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
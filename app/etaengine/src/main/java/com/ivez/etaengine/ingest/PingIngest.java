@@ -0,0 +1,139 @@
+package com.ivez.etaengine.ingest;
+
+import com.ivez.etaengine.journal.PingJournal;
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.service.PingPipeline;
+import com.ivez.etaengine.service.PingPool;
+import com.ivez.etaengine.service.PipelineMetrics;
+import com.ivez.etaengine.util.RateLimitedLog;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+// Common path behind every ingest source: stamps receipt, rejects busIds longer than
+// BusPing.MAX_BUS_ID_BYTES, drops invalid or stale pings, submits the rest to the
+// pipeline (which forwards pings owned by another cluster node) and journals the raw
+// ping with whether it was dropped, so a replay drops the same pings.
+// Each source counts its pings in eta.ingest.pings{source,outcome}, its decode/transport
+// failures in eta.ingest.errors{source,kind} and ignored fields in
+// eta.ingest.unknown_fields{source}.
+@Component
+public class PingIngest {
+
+    private static final Logger log = LoggerFactory.getLogger(PingIngest.class);
+    private static final RateLimitedLog decodeErrors = new RateLimitedLog(log, 10_000);
+    // Journaled after submit, when the pipeline may already have recycled the ping
+    private static final ThreadLocal<BusPing> journalCopy = ThreadLocal.withInitial(BusPing::new);
+
+    private final PingPipeline pipeline;
+    private final PipelineMetrics metrics;
+    private final PingJournal journal;
+    private final PingPool pool;
+
+    @Value("${ingest.max-age-sec}")
+    private long maxAgeSec;
+
+    public PingIngest(PingPipeline pipeline, PipelineMetrics metrics, PingJournal journal, PingPool pool) {
+        this.pipeline = pipeline;
+        this.metrics = metrics;
+        this.journal = journal;
+        this.pool = pool;
+    }
+
+    public Counters counters(String source) {
+        return new Counters(metrics, source);
+    }
+
+    /**
+     * Returns true if the ping was queued for processing (here or on its owner node).
+     * Either way the caller must not touch the ping afterwards: it may be recycled.
+     */
+    public boolean accept(BusPing ping, Counters source) {
+        if (ping.getReceivedNanos() == 0) ping.setReceivedNanos(System.nanoTime());
+        if (ping.getReceivedAtMillis() == 0) ping.setReceivedAtMillis(System.currentTimeMillis());
+        if (!busIdFits(ping.getBusId())) {
+            // Malformed like an undecodable frame, so not journaled either
+            metrics.pingDropped(PipelineMetrics.DropReason.INVALID);
+            source.rejected.increment();
+            pool.release(ping);
+            return false;
+        }
+        BusPing raw = journal.isEnabled() ? copyForJournal(ping) : null;
+
+        boolean accepted = isAdmissible(ping) && pipeline.submit(ping);
+        if (raw != null) journal.append(raw, !accepted);
+        if (accepted) {
+            source.accepted.increment();
+        } else {
+            source.rejected.increment();
+            pool.release(ping);
+        }
+        return accepted;
+    }
+
+    private static BusPing copyForJournal(BusPing ping) {
+        BusPing copy = journalCopy.get();
+        copy.setBusId(ping.getBusId());
+        copy.setLat(ping.getLat());
+        copy.setLon(ping.getLon());
+        copy.setTimestamp(ping.getTimestamp());
+        copy.setOccupancy(ping.getOccupancy());
+        copy.setReceivedAtMillis(ping.getReceivedAtMillis());
+        return copy;
+    }
+
+    // Null busIds are dropped by isAdmissible (and not journaled, the record needs one)
+    private static boolean busIdFits(String busId) {
+        if (busId == null || busId.length() * 3 <= BusPing.MAX_BUS_ID_BYTES) return true;   // UTF-8: <= 3 bytes per char
+        return busId.getBytes(StandardCharsets.UTF_8).length <= BusPing.MAX_BUS_ID_BYTES;
+    }
+
+    private boolean isAdmissible(BusPing ping) {
+        if (ping.getBusId() == null || ping.getLat() == 0) {
+            metrics.pingDropped(PipelineMetrics.DropReason.INVALID);
+            return false;
+        }
+        if (ping.getReceivedAtMillis() / 1000 - ping.getTimestamp() > maxAgeSec) {
+            metrics.pingDropped(PipelineMetrics.DropReason.STALE_AGE);
+            return false;
+        }
+        return true;
+    }
+
+    /** A frame, datagram or request body from the source could not be decoded. */
+    public void decodeFailed(Counters source, String detail) {
+        source.decodeErrors.increment();
+        metrics.pingDropped(PipelineMetrics.DropReason.DECODE_ERROR);
+        decodeErrors.warn("Failed to decode {} ping: {}", source.name, detail);
+    }
+
+    public static final class Counters {
+        private final String name;
+        private final Counter accepted;
+        private final Counter rejected;
+        private final Counter decodeErrors;
+        private final Counter transportErrors;
+        private final Counter unknownFields;
+
+        private Counters(PipelineMetrics metrics, String name) {
+            this.name = name;
+            this.accepted = metrics.counter("eta.ingest.pings", "source", name, "outcome", "accepted");
+            this.rejected = metrics.counter("eta.ingest.pings", "source", name, "outcome", "rejected");
+            this.decodeErrors = metrics.counter("eta.ingest.errors", "source", name, "kind", "decode");
+            this.transportErrors = metrics.counter("eta.ingest.errors", "source", name, "kind", "transport");
+            this.unknownFields = metrics.counter("eta.ingest.unknown_fields", "source", name);
+        }
+
+        public void transportError() {
+            transportErrors.increment();
+        }
+
+        public void unknownField() {
+            unknownFields.increment();
+        }
+    }
+}
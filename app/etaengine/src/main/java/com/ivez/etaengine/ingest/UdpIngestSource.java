@@ -0,0 +1,130 @@
+package com.ivez.etaengine.ingest;
+
+import com.ivez.etaengine.model.BusPing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+
+// Non-blocking UDP listener for trackers sending UdpPingFormat datagrams. A single
+// selector thread drains the socket into one reused direct buffer and decodes each
+// datagram in place; a malformed datagram is counted and dropped as a whole.
+@Component
+public class UdpIngestSource implements IngestSource {
+
+    private static final Logger log = LoggerFactory.getLogger(UdpIngestSource.class);
+
+    public static final String NAME = "udp";
+
+    private final PingIngest ingest;
+    private final PingIngest.Counters counters;
+
+    @Value("${ingest.udp.port}")
+    private int port;                 // 0 = any free port
+    @Value("${ingest.udp.receive-buffer-kb}")
+    private int receiveBufferKb;
+
+    private Selector selector;
+    private DatagramChannel channel;
+    private Thread thread;
+    private volatile boolean running;
+
+    public UdpIngestSource(PingIngest ingest) {
+        this.ingest = ingest;
+        this.counters = ingest.counters(NAME);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public synchronized void start() {
+        try {
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferKb * 1024);
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot listen for UDP pings on port " + port, e);
+        }
+        running = true;
+        thread = new Thread(this::receiveLoop, "ingest-udp");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Listening for UDP pings on {}", localAddress());
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (thread == null) return;
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    SocketAddress localAddress() {
+        try {
+            return channel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(UdpPingFormat.MAX_DATAGRAM);
+        List<BusPing> pings = new ArrayList<>(UdpPingFormat.MAX_PINGS);
+        try {
+            while (running) {
+                selector.select();
+                selector.selectedKeys().clear();
+                SocketAddress from;
+                while (running && (from = channel.receive(buf.clear())) != null) {
+                    long receivedNanos = System.nanoTime();
+                    long receivedAt = System.currentTimeMillis();
+                    pings.clear();
+                    try {
+                        UdpPingFormat.decode(buf.flip(), pings);
+                    } catch (IllegalArgumentException e) {
+                        ingest.decodeFailed(counters, e.getMessage() + " from " + from);
+                        continue;
+                    }
+                    for (BusPing ping : pings) {
+                        ping.setReceivedNanos(receivedNanos);
+                        ping.setReceivedAtMillis(receivedAt);
+                        ingest.accept(ping, counters);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            counters.transportError();
+            log.error("UDP ping listener failed", e);
+        } finally {
+            try {
+                channel.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
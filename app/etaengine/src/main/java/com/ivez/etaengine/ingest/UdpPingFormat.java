@@ -0,0 +1,90 @@
+package com.ivez.etaengine.ingest;
+
+import com.ivez.etaengine.model.BusPing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Compact binary ping datagram for UDP trackers, big endian. A datagram carries a
+// 2-byte header and one or more pings:
+//
+//   0  byte   version (1)
+//   1  byte   count (1-255)
+//
+// then per ping, with n the busId length:
+//
+//   0    byte    n (1-64)
+//   1    byte[n] busId (UTF-8)
+//   n+1  int     lat (1e-7 degrees)
+//   n+5  int     lon (1e-7 degrees)
+//   n+9  int     timestamp (epoch seconds, unsigned)
+//   n+13 short   occupancy (unsigned)
+public final class UdpPingFormat {
+
+    public static final int VERSION = 1;
+    public static final int MAX_DATAGRAM = 65_507;
+    public static final int MAX_BUS_ID_BYTES = BusPing.MAX_BUS_ID_BYTES;
+    public static final int MAX_PINGS = 255;
+
+    private static final int HEADER_SIZE = 2;
+    private static final int FIXED_SIZE = 15;         // length byte + lat + lon + timestamp + occupancy
+    private static final double SCALE = 1e7;
+
+    private UdpPingFormat() {}
+
+    public static ByteBuffer encode(List<BusPing> pings) {
+        if (pings.isEmpty() || pings.size() > MAX_PINGS) {
+            throw new IllegalArgumentException("A datagram carries 1-" + MAX_PINGS + " pings");
+        }
+        byte[][] busIds = new byte[pings.size()][];
+        int size = HEADER_SIZE;
+        for (int i = 0; i < busIds.length; i++) {
+            busIds[i] = pings.get(i).getBusId().getBytes(StandardCharsets.UTF_8);
+            if (busIds[i].length == 0 || busIds[i].length > MAX_BUS_ID_BYTES) {
+                throw new IllegalArgumentException("busId must be 1-" + MAX_BUS_ID_BYTES + " bytes");
+            }
+            size += FIXED_SIZE + busIds[i].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put((byte) VERSION).put((byte) pings.size());
+        for (int i = 0; i < busIds.length; i++) {
+            BusPing ping = pings.get(i);
+            buf.put((byte) busIds[i].length).put(busIds[i]);
+            buf.putInt((int) Math.round(ping.getLat() * SCALE));
+            buf.putInt((int) Math.round(ping.getLon() * SCALE));
+            buf.putInt((int) ping.getTimestamp());
+            buf.putShort((short) ping.getOccupancy());
+        }
+        return buf.flip();
+    }
+
+    /**
+     * Decodes every ping in the datagram into out. Throws IllegalArgumentException if it is
+     * malformed, in which case out may already hold its first pings and should be discarded.
+     */
+    public static void decode(ByteBuffer buf, List<BusPing> out) {
+        if (buf.remaining() < HEADER_SIZE) throw new IllegalArgumentException("datagram too short");
+        int version = buf.get() & 0xFF;
+        if (version != VERSION) throw new IllegalArgumentException("unsupported version " + version);
+        int count = buf.get() & 0xFF;
+        if (count == 0) throw new IllegalArgumentException("no pings");
+
+        for (int i = 0; i < count; i++) {
+            if (!buf.hasRemaining()) throw new IllegalArgumentException("truncated at ping " + i);
+            int length = buf.get() & 0xFF;
+            if (length == 0 || length > MAX_BUS_ID_BYTES) {
+                throw new IllegalArgumentException("bad busId length " + length);
+            }
+            if (buf.remaining() < length + FIXED_SIZE - 1) throw new IllegalArgumentException("truncated at ping " + i);
+            byte[] busId = new byte[length];
+            buf.get(busId);
+            double lat = buf.getInt() / SCALE;
+            double lon = buf.getInt() / SCALE;
+            long timestamp = Integer.toUnsignedLong(buf.getInt());
+            int occupancy = buf.getShort() & 0xFFFF;
+            out.add(new BusPing(new String(busId, StandardCharsets.UTF_8), lat, lon, timestamp, occupancy));
+        }
+        if (buf.hasRemaining()) throw new IllegalArgumentException(buf.remaining() + " trailing bytes");
+    }
+}
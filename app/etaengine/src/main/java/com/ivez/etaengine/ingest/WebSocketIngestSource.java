@@ -0,0 +1,164 @@
+package com.ivez.etaengine.ingest;
+
+import com.ivez.etaengine.model.BusPing;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Client for a WebSocket ping feed (the GPS simulator by default). Each text or binary
+// frame is one JSON ping or an array of them, decoded by PingDecoder. A refused or lost
+// connection is retried with jittered exponential backoff, which resets once a connection
+// opens.
+@Component
+public class WebSocketIngestSource implements IngestSource {
+
+    private static final Logger log = LoggerFactory.getLogger(WebSocketIngestSource.class);
+
+    public static final String NAME = "websocket";
+
+    private final PingIngest ingest;
+    private final PingDecoder decoder;
+    private final PingIngest.Counters counters;
+    private final Consumer<BusPing> submit;
+
+    @Value("${ingest.websocket.url}")
+    private String url;
+    @Value("${ingest.websocket.backoff-initial-ms}")
+    private long backoffInitialMs;
+    @Value("${ingest.websocket.backoff-max-ms}")
+    private long backoffMaxMs;
+
+    private ScheduledExecutorService reconnector;
+    private volatile Feed feed;
+    private volatile boolean running;
+    private volatile long backoffMs;
+
+    public WebSocketIngestSource(PingIngest ingest, PingDecoder decoder) {
+        this.ingest = ingest;
+        this.decoder = decoder;
+        this.counters = ingest.counters(NAME);
+        this.submit = ping -> ingest.accept(ping, counters);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public synchronized void start() {
+        running = true;
+        backoffMs = backoffInitialMs;
+        reconnector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ingest-ws-connect");
+            t.setDaemon(true);
+            return t;
+        });
+        reconnector.execute(this::connect);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        reconnector.shutdownNow();
+        Feed f = feed;
+        if (f != null) f.close();
+    }
+
+    private void connect() {
+        if (!running) return;
+        Feed f = new Feed(URI.create(url));
+        feed = f;
+        f.connect();                        // async; a failed attempt ends in onClose
+    }
+
+    private void scheduleReconnect(boolean wasOpen) {
+        if (!running) return;
+        long delay = backoffMs;
+        backoffMs = Math.min(delay * 2, backoffMaxMs);
+        long jittered = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        if (wasOpen) {
+            log.warn("Ping feed {} closed, reconnecting in {} ms", url, jittered);
+        } else {
+            log.debug("Ping feed {} unavailable, retrying in {} ms", url, jittered);
+        }
+        try {
+            reconnector.schedule(this::connect, jittered, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped meanwhile
+        }
+    }
+
+    private void onFrame(String message) {
+        try {
+            decoder.decode(message, counters, submit);
+        } catch (IOException e) {
+            ingest.decodeFailed(counters, e.getMessage());
+        }
+    }
+
+    private void onFrame(ByteBuffer message) {
+        try {
+            if (message.hasArray()) {
+                decoder.decode(message.array(), message.arrayOffset() + message.position(), message.remaining(),
+                        counters, submit);
+            } else {
+                byte[] copy = new byte[message.remaining()];
+                message.get(copy);
+                decoder.decode(copy, 0, copy.length, counters, submit);
+            }
+        } catch (IOException e) {
+            ingest.decodeFailed(counters, e.getMessage());
+        }
+    }
+
+    private final class Feed extends WebSocketClient {
+        private volatile boolean opened;
+
+        Feed(URI uri) {
+            super(uri);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake hs) {
+            opened = true;
+            backoffMs = backoffInitialMs;
+            log.info("Connected to ping feed {}", url);
+        }
+
+        @Override
+        public void onMessage(String message) {
+            onFrame(message);
+        }
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            onFrame(message);
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            scheduleReconnect(opened);
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            counters.transportError();
+            log.debug("Ping feed {} error: {}", url, ex.getMessage());
+        }
+    }
+}
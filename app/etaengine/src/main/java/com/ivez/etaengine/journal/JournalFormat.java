@@ -0,0 +1,112 @@
+package com.ivez.etaengine.journal;
+
+import com.ivez.etaengine.model.BusPing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+// On-disk layout of the ping journal. A segment is a 128-byte header followed by
+// fixed-width 128-byte records, little endian:
+//
+//   0  long   receivedAt   wall clock (epoch millis) when the engine received the ping; 0 = end of data
+//   8  long   timestamp    ping timestamp (epoch seconds)
+//  16  double lat
+//  24  double lon
+//  32  int    occupancy
+//  36  int    crc32        over bytes 0-35 and 40-127, detects a torn last record
+//  40  byte   busId length
+//  41  byte[64] busId (UTF-8), as long as any ingest source accepts
+// 105  byte   flags        1 = dropped live (invalid, stale or queue full), not replayed
+// 106  reserved, zero
+public final class JournalFormat {
+
+    public static final int RECORD_SIZE = 128;
+    public static final int HEADER_SIZE = RECORD_SIZE;
+    public static final int MAX_BUS_ID_BYTES = BusPing.MAX_BUS_ID_BYTES;
+
+    static final int MAGIC = 0x4A505053;     // "SPPJ"
+    static final int VERSION = 1;
+    static final byte FLAG_DROPPED = 1;
+
+    private static final String PREFIX = "pings-";
+    private static final String SUFFIX = ".journal";
+
+    private JournalFormat() {}
+
+    static String segmentName(long index) {
+        return String.format("%s%08d%s", PREFIX, index, SUFFIX);
+    }
+
+    // Segment index from a file name, or -1 if it is not a journal segment
+    static long segmentIndex(String fileName) {
+        if (!fileName.startsWith(PREFIX) || !fileName.endsWith(SUFFIX)) return -1;
+        try {
+            return Long.parseLong(fileName.substring(PREFIX.length(), fileName.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static void writeHeader(ByteBuffer buf, long createdAt) {
+        buf.putInt(0, MAGIC);
+        buf.putInt(4, VERSION);
+        buf.putInt(8, RECORD_SIZE);
+        buf.putLong(12, createdAt);
+    }
+
+    static boolean isValidHeader(ByteBuffer buf) {
+        return buf.limit() >= HEADER_SIZE
+                && buf.getInt(0) == MAGIC
+                && buf.getInt(4) == VERSION
+                && buf.getInt(8) == RECORD_SIZE;
+    }
+
+    /** Encodes the ping at {@code offset}; false if its busId does not fit the record. */
+    static boolean write(ByteBuffer buf, int offset, BusPing ping, boolean dropped) {
+        byte[] busId = ping.getBusId().getBytes(StandardCharsets.UTF_8);
+        if (busId.length > MAX_BUS_ID_BYTES) return false;
+
+        long receivedAt = ping.getReceivedAtMillis() != 0 ? ping.getReceivedAtMillis() : System.currentTimeMillis();
+        buf.putLong(offset + 8, ping.getTimestamp());
+        buf.putDouble(offset + 16, ping.getLat());
+        buf.putDouble(offset + 24, ping.getLon());
+        buf.putInt(offset + 32, ping.getOccupancy());
+        buf.put(offset + 40, (byte) busId.length);
+        for (int i = 0; i < MAX_BUS_ID_BYTES; i++) {
+            buf.put(offset + 41 + i, i < busId.length ? busId[i] : 0);
+        }
+        buf.put(offset + 105, dropped ? FLAG_DROPPED : 0);
+        buf.putLong(offset, receivedAt);
+        buf.putInt(offset + 36, crc(buf, offset));     // written last: a record is valid once its CRC matches
+        return true;
+    }
+
+    /** Decodes the record at {@code offset}, or null at the end of data or on a torn record. */
+    static BusPing read(ByteBuffer buf, int offset) {
+        long receivedAt = buf.getLong(offset);
+        if (receivedAt == 0 || buf.getInt(offset + 36) != crc(buf, offset)) return null;
+        int length = buf.get(offset + 40);
+        if (length <= 0 || length > MAX_BUS_ID_BYTES) return null;
+
+        byte[] busId = new byte[length];
+        for (int i = 0; i < length; i++) busId[i] = buf.get(offset + 41 + i);
+        BusPing ping = new BusPing(new String(busId, StandardCharsets.UTF_8),
+                buf.getDouble(offset + 16), buf.getDouble(offset + 24),
+                buf.getLong(offset + 8), buf.getInt(offset + 32));
+        ping.setReceivedAtMillis(receivedAt);
+        return ping;
+    }
+
+    // Only meaningful for a record that read() decoded
+    static boolean isDropped(ByteBuffer buf, int offset) {
+        return (buf.get(offset + 105) & FLAG_DROPPED) != 0;
+    }
+
+    private static int crc(ByteBuffer buf, int offset) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.slice(offset, 36));
+        crc.update(buf.slice(offset + 40, RECORD_SIZE - 40));
+        return (int) crc.getValue();
+    }
+}
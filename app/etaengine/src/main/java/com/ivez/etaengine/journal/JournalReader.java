@@ -0,0 +1,95 @@
+package com.ivez.etaengine.journal;
+
+import com.ivez.etaengine.model.BusPing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Reads the pings of a journal directory back in append order, segment by segment,
+// skipping those ingest dropped live. A segment ends at its first empty or torn
+// record (e.g. after a crash mid-write).
+public class JournalReader implements Iterator<BusPing>, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalReader.class);
+
+    private final List<Path> files;
+    private int nextFile;
+    private MappedByteBuffer segment;
+    private int position;
+    private BusPing next;
+    private long dropped;
+
+    public JournalReader(Path dir) throws IOException {
+        this.files = PingJournal.segments(dir);
+    }
+
+    public int getSegmentCount() {
+        return files.size();
+    }
+
+    /** Records skipped so far because ingest dropped the ping live. */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            if (segment != null && position + JournalFormat.RECORD_SIZE <= segment.limit()) {
+                next = JournalFormat.read(segment, position);
+                if (next == null) {
+                    segment = null;                        // end of this segment's data
+                } else if (JournalFormat.isDropped(segment, position)) {
+                    next = null;
+                    dropped++;
+                }
+                position += JournalFormat.RECORD_SIZE;
+            } else if (nextFile < files.size()) {
+                open(files.get(nextFile++));
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public BusPing next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        BusPing ping = next;
+        next = null;
+        return ping;
+    }
+
+    @Override
+    public void close() {
+        segment = null;
+        nextFile = files.size();
+    }
+
+    private void open(Path file) {
+        segment = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (!JournalFormat.isValidHeader(buf)) {
+                log.warn("Skipping {}: not a ping journal segment", file);
+                return;
+            }
+            segment = buf;
+            position = JournalFormat.HEADER_SIZE;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read journal segment " + file, e);
+        }
+    }
+}
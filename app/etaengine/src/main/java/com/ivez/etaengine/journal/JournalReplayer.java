@@ -0,0 +1,85 @@
+package com.ivez.etaengine.journal;
+
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.service.PingPipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Replay mode: when journal.replay.from is set the engine does not connect to the
+// live GPS feed and instead pushes the recorded pings back through the ingest
+// pipeline, at the original pace (speed 1), N times faster, or as fast as the
+// workers keep up (speed 0). Each ping keeps its original receive time, which
+// drives the ETA clock, and pings ingest dropped live are skipped, so a replay
+// reproduces the predictions made live.
+@Service
+public class JournalReplayer {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalReplayer.class);
+
+    private final PingPipeline pipeline;
+
+    @Value("${journal.replay.from:}")
+    private String replayFrom;
+    @Value("${journal.replay.speed}")
+    private double speed;
+
+    public JournalReplayer(PingPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public boolean isReplayMode() {
+        return replayFrom != null && !replayFrom.isBlank();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startReplay() {
+        if (!isReplayMode()) return;
+        Thread t = new Thread(() -> {
+            try {
+                replay(Paths.get(replayFrom), speed);
+            } catch (Exception e) {
+                log.error("Journal replay from {} failed", replayFrom, e);
+            }
+        }, "journal-replay");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Replays the pings ingest accepted live and returns how many were submitted.
+     * Blocks for the duration of the replay; pings are never dropped for backpressure.
+     */
+    public long replay(Path dir, double speed) throws IOException, InterruptedException {
+        long count = 0;
+        long firstRecordedAt = 0;
+        long startNanos = System.nanoTime();
+        try (JournalReader reader = new JournalReader(dir)) {
+            log.info("Replaying {} journal segment(s) from {} at {}", reader.getSegmentCount(), dir,
+                    speed > 0 ? speed + "x" : "max speed");
+            while (reader.hasNext()) {
+                BusPing ping = reader.next();
+                if (speed > 0) {
+                    if (count == 0) firstRecordedAt = ping.getReceivedAtMillis();
+                    long dueNanos = (long) ((ping.getReceivedAtMillis() - firstRecordedAt) * 1_000_000 / speed);
+                    long waitNanos = startNanos + dueNanos - System.nanoTime();
+                    if (waitNanos > 0) Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+                }
+                pipeline.replay(ping);
+                count++;
+            }
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            log.info("Replayed {} pings in {} s ({} pings/s), skipped {} dropped live", count,
+                    String.format("%.1f", seconds), String.format("%.0f", count / Math.max(seconds, 1e-9)),
+                    reader.getDroppedCount());
+        }
+        return count;
+    }
+}
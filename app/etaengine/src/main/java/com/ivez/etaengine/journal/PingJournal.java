@@ -0,0 +1,171 @@
+package com.ivez.etaengine.journal;
+
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.service.PipelineMetrics;
+import com.ivez.etaengine.util.RateLimitedLog;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Append-only journal of every raw ping and whether ingest dropped it, for incident
+// reproduction and offline replay (see JournalReplayer). Records are fixed-width
+// (JournalFormat) and written into a memory-mapped segment, so an append is a few puts
+// into the page cache. Segments roll at a fixed size; the OS writes pages back on its own
+// and a background task forces the active segment to disk every fsync interval.
+@Component
+public class PingJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(PingJournal.class);
+    private static final RateLimitedLog skippedLog = new RateLimitedLog(log, 60_000);
+
+    @Value("${journal.enabled}")
+    private boolean enabled;
+    @Value("${journal.directory}")
+    private String directory;
+    @Value("${journal.segment-size-mb}")
+    private int segmentSizeMb;
+    @Value("${journal.fsync-interval-ms}")
+    private long fsyncIntervalMs;       // 0 = leave write-back to the OS
+    @Value("${journal.max-segments}")
+    private int maxSegments;            // oldest segments beyond this are deleted, 0 = keep all
+
+    private final Counter appended;
+    private final Counter skipped;
+
+    private Path dir;
+    private FileChannel channel;
+    private volatile MappedByteBuffer segment;
+    private int position;
+    private volatile boolean dirty;
+    private ScheduledExecutorService syncer;
+
+    public PingJournal(PipelineMetrics metrics) {
+        this.appended = metrics.counter("eta.journal.records");
+        this.skipped = metrics.counter("eta.journal.skipped");
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        dir = Paths.get(directory);
+        if (fsyncIntervalMs > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        log.info("Journaling pings to {}", dir.toAbsolutePath());
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (syncer != null) syncer.shutdown();
+        closeSegment();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Appends one raw ping and its ingest outcome. Never throws: journaling must not stall ingest. */
+    public synchronized void append(BusPing ping, boolean dropped) {
+        if (!enabled || ping.getBusId() == null) return;
+        try {
+            if (segment == null || position + JournalFormat.RECORD_SIZE > segment.capacity()) {
+                roll();
+            }
+            if (!JournalFormat.write(segment, position, ping, dropped)) {
+                skipped.increment();
+                skippedLog.warn("Not journaling ping, busId longer than {} bytes: {}",
+                        JournalFormat.MAX_BUS_ID_BYTES, ping.getBusId());
+                return;
+            }
+            position += JournalFormat.RECORD_SIZE;
+            dirty = true;
+            appended.increment();
+        } catch (IOException | RuntimeException e) {
+            skipped.increment();
+            skippedLog.warn("Journal append failed: {}", e.toString());
+            closeSegment();            // retry with a fresh segment on the next ping
+        }
+    }
+
+    private void roll() throws IOException {
+        closeSegment();
+        Files.createDirectories(dir);
+        List<Path> existing = segments(dir);
+        long index = existing.isEmpty() ? 1
+                : JournalFormat.segmentIndex(existing.get(existing.size() - 1).getFileName().toString()) + 1;
+
+        Path file = dir.resolve(JournalFormat.segmentName(index));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = (long) segmentSizeMb << 20;
+        size -= size % JournalFormat.RECORD_SIZE;
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        JournalFormat.writeHeader(buf, System.currentTimeMillis());
+        position = JournalFormat.HEADER_SIZE;
+        segment = buf;
+        log.debug("Opened journal segment {}", file);
+
+        if (maxSegments > 0) {
+            existing.add(file);
+            for (int i = 0; i < existing.size() - maxSegments; i++) {
+                Files.deleteIfExists(existing.get(i));
+            }
+        }
+    }
+
+    private void closeSegment() {
+        MappedByteBuffer buf = segment;
+        segment = null;
+        if (buf != null) buf.force();
+        dirty = false;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignore) {}
+            channel = null;
+        }
+    }
+
+    private void sync() {
+        MappedByteBuffer buf = segment;
+        if (buf != null && dirty) {
+            dirty = false;
+            buf.force();
+        }
+    }
+
+    // Journal segment files in append order
+    static List<Path> segments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> JournalFormat.segmentIndex(f.getFileName().toString()) >= 0)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
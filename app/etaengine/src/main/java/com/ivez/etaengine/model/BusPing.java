@@ -1,5 +1,6 @@
 package com.ivez.etaengine.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -9,10 +10,23 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class BusPing {
+
+    // Longest busId (UTF-8) accepted from any source; the UDP format and journal records hold this much
+    public static final int MAX_BUS_ID_BYTES = 64;
+
     private String busId;
     private double lat;
     private double lon;
     private long timestamp;
     //private double speed; // ✅ Added field to fix deserialization error
     private int occupancy;
+
+    @JsonIgnore
+    private long receivedNanos; // System.nanoTime() when the engine received it, for latency metrics
+    @JsonIgnore
+    private long receivedAtMillis; // wall clock at receipt; the ETA clock, kept across journal replay
+
+    public BusPing(String busId, double lat, double lon, long timestamp, int occupancy) {
+        this(busId, lat, lon, timestamp, occupancy, 0, 0);
+    }
 }
@@ -5,7 +5,6 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -19,7 +18,8 @@ public class BusState {
     private double lon;
     private double speed; // in m/s
     private int segmentIndex;
-    private Set<String> arrivedStops = new HashSet<>();
+    private double routeOffset; // meters along the route from the first vertex
+    private Set<String> arrivedStops = ConcurrentHashMap.newKeySet();
 
     /* 🆕 actual-arrival timestamps per stopId */
     private Map<String, Long> arrivalTimes = new ConcurrentHashMap<>();
@@ -27,4 +27,12 @@ public class BusState {
 
     @JsonProperty("timestamp")
     private long lastUpdated;
+
+    // Laps completed since tracking started; arrivals restart with each trip
+    private int trip;
+
+    public BusState(String busId, double lat, double lon, double speed, int segmentIndex, double routeOffset,
+                    Set<String> arrivedStops, Map<String, Long> arrivalTimes, long lastUpdated) {
+        this(busId, lat, lon, speed, segmentIndex, routeOffset, arrivedStops, arrivalTimes, lastUpdated, 0);
+    }
 }
\ No newline at end of file
@@ -1,13 +0,0 @@
-package com.ivez.etaengine.model;
-
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.NoArgsConstructor;
-
-@Data
-@NoArgsConstructor
-@AllArgsConstructor
-public class Coordinate {
-    private double lon;
-    private double lat;
-}
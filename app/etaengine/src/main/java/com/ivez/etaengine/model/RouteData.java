@@ -1,5 +1,7 @@
 package com.ivez.etaengine.model;
 
+import com.ivez.etaengine.util.GeoUtils;
+import com.ivez.etaengine.util.SegmentGrid;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -10,8 +12,39 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 public class RouteData {
-    private String busId;
     private String routeId;
-    private List<Coordinate> coordinates; // the LineString
+    private double[] lats;                // the LineString, packed per vertex
+    private double[] lons;
     private List<Stop> stops;
+    private double[] stopLats;            // stop positions packed in stop order
+    private double[] stopLons;
+    private double[] stopRadii;           // arrival radius per stop, meters
+    // Stops within arrival reach of segment s, in stop order:
+    // segmentStops[segmentStopStart[s]] .. segmentStops[segmentStopStart[s + 1] - 1]
+    private int[] segmentStopStart;
+    private int[] segmentStops;
+    private double[] cumulativeDistances; // meters from the first vertex, one per vertex
+    private SegmentGrid segmentGrid;      // spatial index for map matching
+
+    // Along-route offset (meters) of a point already matched to the given segment
+    public double offsetOf(int segment, double lat, double lon) {
+        return offsetAt(segment, GeoUtils.segmentFraction(lat, lon,
+                lats[segment], lons[segment], lats[segment + 1], lons[segment + 1]));
+    }
+
+    // Along-route offset (meters) of a point lying at fraction t of the given segment
+    public double offsetAt(int segment, double t) {
+        double start = cumulativeDistances[segment];
+        return start + t * (cumulativeDistances[segment + 1] - start);
+    }
+
+    public double getLength() {
+        return cumulativeDistances[cumulativeDistances.length - 1];
+    }
+
+    // Meters to travel forward from one offset to another, wrapping around the loop
+    public double distanceAlong(double fromOffset, double toOffset) {
+        double d = toOffset - fromOffset;
+        return d >= 0 ? d : getLength() - fromOffset + toOffset;
+    }
 }
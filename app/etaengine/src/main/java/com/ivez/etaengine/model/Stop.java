@@ -8,13 +8,15 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 @NoArgsConstructor
 public class Stop {
+    public static final double DEFAULT_ARRIVAL_RADIUS = 50; // meters, routes.arrival-radius-meters
+
     private String stopId;
     private String name;
     private double lon;
     private double lat;
     private int segmentIndex;
-
-
+    private double routeOffset; // meters along the route from the first vertex
+    private double arrivalRadius = DEFAULT_ARRIVAL_RADIUS; // a bus this close has arrived
 
     public Stop(String stopId, String name, double lon, double lat) {
         this.stopId = stopId;
@@ -0,0 +1,15 @@
+package com.ivez.etaengine.repository;
+
+import com.ivez.etaengine.entity.DailyStopAccuracy;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface DailyStopAccuracyRepository extends JpaRepository<DailyStopAccuracy, Long> {
+
+    List<DailyStopAccuracy> findByBusIdAndDateBetweenOrderByDateAscStopIdAsc(String busId, LocalDate from, LocalDate to);
+
+}
@@ -17,4 +17,7 @@ public interface EtaPredictionRepository extends JpaRepository<EtaPrediction, Lo
 
     List<EtaPrediction> findByBusIdAndDate(String busId, LocalDate date);
 
+    // Range scan over idx_eta_predictions_bus_date_stop_created, already in index order
+    List<EtaPrediction> findByBusIdAndDateOrderByStopIdAscCreatedAtAsc(String busId, LocalDate date);
+
 }
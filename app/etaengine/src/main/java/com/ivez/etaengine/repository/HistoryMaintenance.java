@@ -0,0 +1,225 @@
+package com.ivez.etaengine.repository;
+
+import com.ivez.etaengine.service.PipelineMetrics;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Keeps the history tables bounded. On MySQL each table is RANGE COLUMNS partitioned by
+// day (converted on the first run, with partitions created a few days ahead) and expired
+// days are removed by dropping whole partitions; elsewhere they are deleted in batches.
+// Finished days of prediction_accuracy are rolled up into daily_stop_accuracy before any
+// detail expires. Runs once at startup and then on history.maintenance-cron.
+@Repository
+public class HistoryMaintenance {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryMaintenance.class);
+
+    private static final String MAX_PARTITION = "pmax";
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMMdd");
+
+    private static final String ROLLUP_SQL =
+            "INSERT INTO daily_stop_accuracy (bus_id, stop_id, stop_name, date, arrivals,"
+            + " eta5_samples, eta5_mae_seconds, eta3_samples, eta3_mae_seconds, eta2_samples, eta2_mae_seconds)"
+            + " SELECT bus_id, stop_id, MAX(stop_name), date, COUNT(*),"
+            + " COUNT(eta_5min_before), AVG(ABS(TIMESTAMPDIFF(SECOND, eta_5min_before, arrival_time))),"
+            + " COUNT(eta_3min_before), AVG(ABS(TIMESTAMPDIFF(SECOND, eta_3min_before, arrival_time))),"
+            + " COUNT(eta_2min_before), AVG(ABS(TIMESTAMPDIFF(SECOND, eta_2min_before, arrival_time)))"
+            + " FROM prediction_accuracy WHERE date = ? GROUP BY bus_id, stop_id, date";
+
+    private final JdbcTemplate jdbc;
+    private final Counter partitionsDropped;
+    private final Counter rowsDeleted;
+    private final Counter daysRolledUp;
+
+    @Value("${history.maintenance-cron}")
+    private String cron;
+    @Value("${history.partitioning}")
+    private boolean partitioning;
+    @Value("${history.partitions-ahead-days}")
+    private int partitionsAheadDays;
+    @Value("${history.raw-retention-days}")
+    private int rawRetentionDays;
+    @Value("${history.accuracy-retention-days}")
+    private int accuracyRetentionDays;
+    @Value("${history.delete-batch-size}")
+    private int deleteBatchSize;
+
+    private ScheduledExecutorService scheduler;
+
+    private record Partition(String name, LocalDate upperBound) {}     // upperBound null for MAXVALUE
+
+    public HistoryMaintenance(JdbcTemplate jdbc, PipelineMetrics metrics) {
+        this.jdbc = jdbc;
+        this.partitionsDropped = metrics.counter("eta.history.partitions.dropped");
+        this.rowsDeleted = metrics.counter("eta.history.rows.deleted");
+        this.daysRolledUp = metrics.counter("eta.history.days.rolled_up");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "history-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.execute(this::maintainQuietly);
+        scheduleNext();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private void scheduleNext() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = CronExpression.parse(cron).next(now);
+        if (next == null) return;
+        scheduler.schedule(() -> {
+            maintainQuietly();
+            scheduleNext();
+        }, Duration.between(now, next).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void maintainQuietly() {
+        long start = System.nanoTime();
+        try {
+            maintain(LocalDate.now());
+            log.info("History maintenance finished in {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.error("History maintenance failed", e);
+        }
+    }
+
+    /** One pass as of the given day: create partitions, roll up finished days, then apply retention. */
+    public synchronized void maintain(LocalDate today) {
+        Map<String, Integer> retentionDays = new LinkedHashMap<>();
+        retentionDays.put("eta_predictions", rawRetentionDays);
+        retentionDays.put("stop_arrivals", rawRetentionDays);
+        retentionDays.put("prediction_accuracy", accuracyRetentionDays);
+
+        boolean partitioned = partitioning && isMySql();
+        if (partitioned) {
+            for (String table : retentionDays.keySet()) ensurePartitions(table, today);
+        }
+
+        rollUp(today);
+
+        for (Map.Entry<String, Integer> e : retentionDays.entrySet()) {
+            if (e.getValue() <= 0) continue;                    // keep forever
+            LocalDate cutoff = today.minusDays(e.getValue());
+            if (partitioned) {
+                dropPartitionsBefore(e.getKey(), cutoff);
+            } else {
+                deleteBefore(e.getKey(), cutoff);
+            }
+        }
+    }
+
+    private boolean isMySql() {
+        String product = jdbc.execute((ConnectionCallback<String>) c -> c.getMetaData().getDatabaseProductName());
+        return product != null && product.toLowerCase().contains("mysql");
+    }
+
+    private void rollUp(LocalDate today) {
+        List<LocalDate> days = jdbc.queryForList("SELECT DISTINCT date FROM prediction_accuracy WHERE date < ?"
+                + " AND date NOT IN (SELECT DISTINCT date FROM daily_stop_accuracy) ORDER BY date", LocalDate.class, today);
+        for (LocalDate day : days) {
+            int rows = jdbc.update(ROLLUP_SQL, day);
+            daysRolledUp.increment();
+            log.info("Rolled up prediction accuracy for {} ({} bus/stop rows)", day, rows);
+        }
+    }
+
+    private List<Partition> partitions(String table) {
+        return jdbc.query("SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS"
+                        + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL"
+                        + " ORDER BY PARTITION_ORDINAL_POSITION",
+                (rs, i) -> new Partition(rs.getString(1), parseBound(rs.getString(2))), table);
+    }
+
+    private static LocalDate parseBound(String description) {
+        return "MAXVALUE".equalsIgnoreCase(description) ? null : LocalDate.parse(description.replace("'", ""));
+    }
+
+    // One partition per day up to partitions-ahead-days from today, plus an empty catch-all
+    private void ensurePartitions(String table, LocalDate today) {
+        LocalDate until = today.plusDays(partitionsAheadDays + 1L);
+        List<Partition> existing = partitions(table);
+        if (existing.isEmpty()) {
+            // The partition column must be part of every unique key, so the PK becomes (id, date)
+            log.warn("Partitioning {} by day; this rebuilds the table once", table);
+            jdbc.execute("ALTER TABLE " + table + " DROP PRIMARY KEY, ADD PRIMARY KEY (id, date)");
+            jdbc.execute("ALTER TABLE " + table + " PARTITION BY RANGE COLUMNS(date) ("
+                    + "PARTITION pold VALUES LESS THAN ('" + today + "'), "
+                    + dayPartitions(today, until) + ", " + maxPartition() + ")");
+            return;
+        }
+        LocalDate from = existing.stream().map(Partition::upperBound).filter(Objects::nonNull)
+                .max(Comparator.naturalOrder()).orElse(today);
+        if (from.isBefore(until)) {
+            jdbc.execute("ALTER TABLE " + table + " REORGANIZE PARTITION " + MAX_PARTITION + " INTO ("
+                    + dayPartitions(from, until) + ", " + maxPartition() + ")");
+        }
+    }
+
+    private static String dayPartitions(LocalDate from, LocalDate until) {
+        List<String> parts = new ArrayList<>();
+        for (LocalDate day = from; day.isBefore(until); day = day.plusDays(1)) {
+            parts.add("PARTITION " + PARTITION_NAME.format(day) + " VALUES LESS THAN ('" + day.plusDays(1) + "')");
+        }
+        return String.join(", ", parts);
+    }
+
+    private static String maxPartition() {
+        return "PARTITION " + MAX_PARTITION + " VALUES LESS THAN (MAXVALUE)";
+    }
+
+    private void dropPartitionsBefore(String table, LocalDate cutoff) {
+        List<String> expired = partitions(table).stream()
+                .filter(p -> p.upperBound() != null && !p.upperBound().isAfter(cutoff))
+                .map(Partition::name)
+                .toList();
+        if (expired.isEmpty()) return;
+        jdbc.execute("ALTER TABLE " + table + " DROP PARTITION " + String.join(", ", expired));
+        partitionsDropped.increment(expired.size());
+        log.info("Dropped {} expired partition(s) of {}: {}", expired.size(), table, expired);
+    }
+
+    // Fallback for databases without partition management; batches keep each lock short
+    private void deleteBefore(String table, LocalDate cutoff) {
+        long total = 0;
+        int deleted;
+        do {
+            deleted = jdbc.update("DELETE FROM " + table + " WHERE date < ? LIMIT " + deleteBatchSize, cutoff);
+            total += deleted;
+        } while (deleted == deleteBatchSize);
+        if (total > 0) {
+            rowsDeleted.increment(total);
+            log.info("Deleted {} rows of {} older than {}", total, table, cutoff);
+        }
+    }
+}
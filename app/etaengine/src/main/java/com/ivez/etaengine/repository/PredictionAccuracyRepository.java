@@ -0,0 +1,15 @@
+package com.ivez.etaengine.repository;
+
+import com.ivez.etaengine.entity.PredictionAccuracy;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface PredictionAccuracyRepository extends JpaRepository<PredictionAccuracy, Long> {
+
+    List<PredictionAccuracy> findByBusIdAndDateOrderByArrivalTimeAsc(String busId, LocalDate date);
+
+}
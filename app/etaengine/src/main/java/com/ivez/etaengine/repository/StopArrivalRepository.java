@@ -1,6 +1,7 @@
 package com.ivez.etaengine.repository;
 
 import com.ivez.etaengine.entity.StopArrival;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -14,6 +15,11 @@ public interface StopArrivalRepository extends JpaRepository<StopArrival, Long>
 
     List<StopArrival> findByBusIdAndDate(String busId, LocalDate date);
 
+    List<StopArrival> findByBusIdAndDateOrderByArrivalTimeAsc(String busId, LocalDate date);
+
     StopArrival findByBusIdAndStopIdAndDate(String busId, String stopId, LocalDate date);
 
+    // Incremental scan for TravelTimes, in write order
+    List<StopArrival> findByDateGreaterThanEqualAndIdGreaterThanOrderByIdAsc(LocalDate from, Long id, Limit limit);
+
 }
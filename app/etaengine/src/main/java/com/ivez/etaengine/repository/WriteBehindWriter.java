@@ -0,0 +1,233 @@
+package com.ivez.etaengine.repository;
+
+import com.ivez.etaengine.entity.EtaPrediction;
+import com.ivez.etaengine.entity.PredictionAccuracy;
+import com.ivez.etaengine.entity.StopArrival;
+import com.ivez.etaengine.service.PipelineMetrics;
+import com.ivez.etaengine.util.RateLimitedLog;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Write-behind persistence for the ingest hot path. Rows are buffered in bounded
+// queues and flushed as multi-row INSERTs once a batch fills up or the oldest
+// buffered row reaches the max age. Enqueueing never touches the database.
+// In replay mode rows are discarded unless journal.replay.persist is set, so a
+// regression run does not duplicate the live history it was recorded from.
+@Repository
+public class WriteBehindWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindWriter.class);
+    private static final RateLimitedLog bufferFull = new RateLimitedLog(log, 10_000);
+
+    private final JdbcTemplate jdbc;
+    private final PipelineMetrics metrics;
+
+    @Value("${persistence.buffer-capacity}")
+    private int bufferCapacity;
+    @Value("${persistence.batch-size}")
+    private int batchSize;
+    @Value("${persistence.max-buffer-age-ms}")
+    private long maxBufferAgeMs;
+    @Value("${persistence.flush-on-shutdown}")
+    private boolean flushOnShutdown;
+    @Value("${journal.replay.from:}")
+    private String replayFrom;
+    @Value("${journal.replay.persist}")
+    private boolean replayPersist;
+
+    private boolean discard;
+
+    private Table<EtaPrediction> predictions;
+    private Table<StopArrival> arrivals;
+    private Table<PredictionAccuracy> accuracy;
+    private ScheduledExecutorService flusher;
+
+    public WriteBehindWriter(JdbcTemplate jdbc, PipelineMetrics metrics) {
+        this.jdbc = jdbc;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void start() {
+        discard = replayFrom != null && !replayFrom.isBlank() && !replayPersist;
+        if (discard) log.info("Replay mode: predictions, arrivals and accuracy rows are not persisted");
+        predictions = new Table<>("eta_predictions",
+                "bus_id, stop_id, stop_name, predicted_arrival_time, created_at, date", 6,
+                (ps, i, p) -> {
+                    ps.setString(i, p.getBusId());
+                    ps.setString(i + 1, p.getStopId());
+                    ps.setString(i + 2, p.getStopName());
+                    ps.setObject(i + 3, p.getPredictedArrivalTime());
+                    ps.setObject(i + 4, p.getCreatedAt());
+                    ps.setObject(i + 5, p.getDate());
+                });
+        arrivals = new Table<>("stop_arrivals",
+                "bus_id, stop_id, stop_name, arrival_time, created_at, date", 6,
+                (ps, i, a) -> {
+                    ps.setString(i, a.getBusId());
+                    ps.setString(i + 1, a.getStopId());
+                    ps.setString(i + 2, a.getStopName());
+                    ps.setObject(i + 3, a.getArrivalTime());
+                    ps.setObject(i + 4, a.getCreatedAt());
+                    ps.setObject(i + 5, a.getDate());
+                });
+        accuracy = new Table<>("prediction_accuracy",
+                "bus_id, stop_id, stop_name, arrival_time, eta_5min_before, eta_3min_before, eta_2min_before, created_at, date", 9,
+                (ps, i, a) -> {
+                    ps.setString(i, a.getBusId());
+                    ps.setString(i + 1, a.getStopId());
+                    ps.setString(i + 2, a.getStopName());
+                    ps.setObject(i + 3, a.getArrivalTime());
+                    ps.setObject(i + 4, a.getEta5minBefore());
+                    ps.setObject(i + 5, a.getEta3minBefore());
+                    ps.setObject(i + 6, a.getEta2minBefore());
+                    ps.setObject(i + 7, a.getCreatedAt());
+                    ps.setObject(i + 8, a.getDate());
+                });
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+        long tick = Math.max(10, maxBufferAgeMs / 4);
+        flusher.scheduleWithFixedDelay(this::flushAged, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        if (flushOnShutdown) {
+            predictions.flushAll();
+            arrivals.flushAll();
+            accuracy.flushAll();
+        } else {
+            log.warn("Discarding {} buffered rows on shutdown",
+                    predictions.queue.size() + arrivals.queue.size() + accuracy.queue.size());
+        }
+    }
+
+    public void save(EtaPrediction prediction) {
+        if (discard) return;
+        predictions.enqueue(prediction);
+    }
+
+    public void save(StopArrival arrival) {
+        if (discard) return;
+        arrivals.enqueue(arrival);
+    }
+
+    public void save(PredictionAccuracy row) {
+        if (discard) return;
+        accuracy.enqueue(row);
+    }
+
+    private void flushAged() {
+        try {
+            predictions.flushIfAged();
+            arrivals.flushIfAged();
+            accuracy.flushIfAged();
+        } catch (Exception e) {
+            log.error("Write-behind flush failed: {}", e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowBinder<T> {
+        void bind(PreparedStatement ps, int firstParam, T row) throws SQLException;
+    }
+
+    private final class Table<T> {
+        private final String insertPrefix;
+        private final String rowPlaceholders;
+        private final int columns;
+        private final RowBinder<T> binder;
+        private final BlockingQueue<T> queue;
+        private final AtomicLong oldestEnqueuedAt = new AtomicLong(0);
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        private final Counter dropped;
+        private final Counter failed;
+
+        Table(String table, String columnList, int columns, RowBinder<T> binder) {
+            this.insertPrefix = "INSERT INTO " + table + " (" + columnList + ") VALUES ";
+            this.rowPlaceholders = "(" + "?, ".repeat(columns - 1) + "?)";
+            this.columns = columns;
+            this.binder = binder;
+            this.queue = new ArrayBlockingQueue<>(bufferCapacity);
+            this.dropped = metrics.counter("eta.persistence.rows.dropped", "table", table);
+            this.failed = metrics.counter("eta.persistence.rows.failed", "table", table);
+            metrics.gauge("eta.persistence.buffer.size", queue, q -> q.size(), "table", table);
+        }
+
+        void enqueue(T row) {
+            if (!queue.offer(row)) {
+                dropped.increment();
+                bufferFull.warn("Write-behind buffer full, dropped {} rows so far", (long) dropped.count());
+                return;
+            }
+            oldestEnqueuedAt.compareAndSet(0, System.currentTimeMillis());
+            if (queue.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+                flusher.execute(() -> {
+                    flushScheduled.set(false);
+                    flushAll();
+                });
+            }
+        }
+
+        void flushIfAged() {
+            long oldest = oldestEnqueuedAt.get();
+            if (oldest != 0 && System.currentTimeMillis() - oldest >= maxBufferAgeMs) {
+                flushAll();
+            }
+        }
+
+        void flushAll() {
+            oldestEnqueuedAt.set(0);
+            List<T> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                long start = System.nanoTime();
+                try {
+                    insert(batch);
+                } catch (Exception e) {
+                    failed.increment(batch.size());
+                    log.error("Failed to flush {} rows: {}", batch.size(), e.getMessage());
+                }
+                metrics.recordStage(PipelineMetrics.Stage.PERSISTENCE, start);
+                batch.clear();
+            }
+        }
+
+        private void insert(List<T> batch) {
+            StringBuilder sql = new StringBuilder(insertPrefix.length() + batch.size() * (rowPlaceholders.length() + 2));
+            sql.append(insertPrefix);
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) sql.append(", ");
+                sql.append(rowPlaceholders);
+            }
+            jdbc.update(sql.toString(), ps -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    binder.bind(ps, i * columns + 1, batch.get(i));
+                }
+            });
+        }
+    }
+}
@@ -2,8 +2,13 @@ package com.ivez.etaengine.service;
 
 import com.ivez.etaengine.entity.StopArrival;
 import com.ivez.etaengine.model.*;
-import com.ivez.etaengine.repository.StopArrivalRepository;
-import org.springframework.beans.factory.annotation.Autowired;
+import com.ivez.etaengine.repository.WriteBehindWriter;
+import com.ivez.etaengine.util.RateLimitedLog;
+import com.ivez.etaengine.util.SegmentGrid;
+import io.micrometer.core.instrument.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -13,6 +18,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static com.ivez.etaengine.util.GeoUtils.haversine;
@@ -21,70 +27,55 @@ import static com.ivez.etaengine.util.GeoUtils.haversine;
 @Service
 public class BusStateTracker {
 
+    private static final Logger log = LoggerFactory.getLogger(BusStateTracker.class);
+    private static final RateLimitedLog unknownRoute = new RateLimitedLog(log, 10_000);
+
     // Stores the latest state of each bus using busId as the key
     private final Map<String, BusState> stateMap = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> lastSeenGauges = new ConcurrentHashMap<>();
     private final long minGapMillis = 3;
 
+    @Value("${matching.window-segments}")
+    private int windowSegments;
+    @Value("${matching.window-max-meters}")
+    private double windowMaxMeters;
+
     private final Routes routes;
-    private final StopArrivalRepository arrivalRepository;
+    private final WriteBehindWriter writer;
+    private final PredictionHistory history;
+    private final PipelineMetrics metrics;
 
     public BusStateTracker(Routes routes,
-                           StopArrivalRepository arrivalRepository) {
+                           WriteBehindWriter writer,
+                           PredictionHistory history,
+                           PipelineMetrics metrics) {
         this.routes = routes;
-        this.arrivalRepository = arrivalRepository;
+        this.writer = writer;
+        this.history = history;
+        this.metrics = metrics;
     }
 
     public void updateBusState(BusPing ping) {
         // Get previous state (if any)
         BusState previous = stateMap.get(ping.getBusId());
-        System.out.println("Bus State : " + previous);
 
         RouteData route = routes.getRoute(ping.getBusId());
 
         if (route == null) {
-            System.err.println("Unknown route for busId: " + ping.getBusId());
+            unknownRoute.warn("Unknown route for busId: {}", ping.getBusId());
             return;
         }
 
         double speed = 0;
-        int segment = findClosestSegment(ping.getLat(), ping.getLon(), route.getCoordinates());
+        long matchStart = System.nanoTime();
+        int segment = findClosestSegment(ping.getLat(), ping.getLon(), route,
+                previous == null ? -1 : previous.getSegmentIndex());
+        double routeOffset = route.offsetOf(segment, ping.getLat(), ping.getLon());
+        metrics.recordStage(PipelineMetrics.Stage.MAP_MATCHING, matchStart);
 
         if (previous != null) {
+            detectArrivals(ping, previous, route, segment);
 
-            for (Stop stop : route.getStops()) {
-                if (previous.getArrivedStops().contains(stop.getStopId()))
-                    continue;
-
-                double dist = haversine(
-                        ping.getLat(), ping.getLon(),
-                        stop.getLat(), stop.getLon());
-
-                if (dist <= 50.0 && !previous.getArrivalTimes().containsKey(stop.getStopId())) {
-                    System.out.println("Bus " + ping.getBusId() + " arrived at stop " + stop.getName());
-
-                    previous.getArrivedStops().add(stop.getStopId());
-
-
-
-                    StopArrival arrival = new StopArrival();
-                    arrival.setBusId(ping.getBusId());
-                    arrival.setStopId(stop.getStopId());
-                    arrival.setStopName(stop.getName());
-                    // Convert ping timestamp (seconds) to LocalDateTime
-                    LocalDateTime arrivalTime = Instant.ofEpochMilli(ping.getTimestamp() * 1000)
-                            .atZone(ZoneId.systemDefault())
-                            .toLocalDateTime();
-                    arrival.setArrivalTime(arrivalTime);
-                    arrival.setCreatedAt(LocalDateTime.now());
-                    arrival.setDate(arrivalTime.toLocalDate());
-                    arrivalRepository.save(arrival);
-                    System.out.println("Stop event stored in DB");
-                    /* store timestamp in **milliseconds** */
-                    previous.getArrivalTimes().put(stop.getStopId(), ping.getTimestamp() * 1000);
-                }
-            }
-
-            System.out.println("Time diff : " + (ping.getTimestamp() - previous.getLastUpdated()));
             if (ping.getTimestamp() - previous.getLastUpdated() < minGapMillis)
                 return;
             // Calculate time difference in seconds
@@ -95,7 +86,7 @@ public class BusStateTracker {
                 double distance = haversine(
                         previous.getLat(), previous.getLon(),
                         ping.getLat(), ping.getLon());
-                System.out.println("Distance :" + distance + " Time : " + timeDiff);
+                log.trace("Bus {} moved {} m in {} s", ping.getBusId(), distance, timeDiff);
                 // Speed = distance / time (m/s)
                 speed = distance / timeDiff;
             }
@@ -108,11 +99,15 @@ public class BusStateTracker {
                 ping.getLon(),
                 speed,
                 segment,
-                previous == null ? new HashSet<String>() : previous.getArrivedStops(),
+                routeOffset,
+                previous == null ? ConcurrentHashMap.<String>newKeySet() : previous.getArrivedStops(),
                 previous == null ? new ConcurrentHashMap<String, Long>() : previous.getArrivalTimes(),
-                ping.getTimestamp());
+                ping.getTimestamp(),
+                previous == null ? 0 : previous.getTrip());
 
-        stateMap.put(ping.getBusId(), newState);
+        if (stateMap.put(ping.getBusId(), newState) == null) {
+            trackLastSeen(ping.getBusId());
+        }
     }
 
     // Get a single bus's state
@@ -125,41 +120,94 @@ public class BusStateTracker {
         return stateMap;
     }
 
-    private int findClosestSegment(double lat, double lon, List<Coordinate> coords) {
-        int bestIndex = -1;
-        double bestDistance = Double.MAX_VALUE;
-
-        for (int i = 0; i < coords.size() - 1; i++) {
-            Coordinate a = coords.get(i);
-            Coordinate b = coords.get(i + 1);
-
-            double dist = pointToSegmentDistance(lat, lon, a.getLat(), a.getLon(), b.getLat(), b.getLon());
-            if (dist < bestDistance) {
-                bestDistance = dist;
-                bestIndex = i;
-            }
+    // Warm restart or cluster handoff: reinstate a state saved elsewhere
+    public void restore(BusState state) {
+        if (stateMap.put(state.getBusId(), state) == null) {
+            trackLastSeen(state.getBusId());
         }
+    }
 
-        return bestIndex;
+    // Route reload: re-match the last position onto the new geometry and drop arrivals at
+    // stops the route no longer has. Run on the bus's ingest worker.
+    public void migrate(String busId, RouteData route) {
+        BusState state = stateMap.get(busId);
+        if (state == null) return;
+        int segment = route.getSegmentGrid().nearestSegment(state.getLat(), state.getLon());
+        state.setSegmentIndex(segment);
+        state.setRouteOffset(route.offsetOf(segment, state.getLat(), state.getLon()));
+        Set<String> stopIds = new HashSet<>();
+        for (Stop stop : route.getStops()) stopIds.add(stop.getStopId());
+        state.getArrivedStops().retainAll(stopIds);
+        state.getArrivalTimes().keySet().retainAll(stopIds);
     }
 
-    private double pointToSegmentDistance(double px, double py,
-            double ax, double ay,
-            double bx, double by) {
-        double dx = bx - ax;
-        double dy = by - ay;
+    // Cluster handoff or removed route: the bus is no longer tracked here
+    public void forget(String busId) {
+        stateMap.remove(busId);
+        Gauge gauge = lastSeenGauges.remove(busId);
+        if (gauge != null) metrics.untrackBus(gauge);
+    }
 
-        if (dx == 0 && dy == 0) {
-            return haversine(px, py, ax, ay);
-        }
+    private void trackLastSeen(String busId) {
+        lastSeenGauges.put(busId, metrics.trackBus(busId, () -> {
+            BusState state = stateMap.get(busId);
+            return state == null ? null : state.getLastUpdated();
+        }));
+    }
 
-        double t = ((px - ax) * dx + (py - ay) * dy) / (dx * dx + dy * dy);
-        t = Math.max(0, Math.min(1, t));
+    // Only the stops bucketed under the matched segment can be within their arrival radius,
+    // so the cost does not grow with the number of stops on the route
+    void detectArrivals(BusPing ping, BusState previous, RouteData route, int segment) {
+        int[] bucket = route.getSegmentStops();
+        int end = route.getSegmentStopStart()[segment + 1];
+        for (int k = route.getSegmentStopStart()[segment]; k < end; k++) {
+            int i = bucket[k];
+            double dist = haversine(ping.getLat(), ping.getLon(), route.getStopLats()[i], route.getStopLons()[i]);
+            if (dist > route.getStopRadii()[i]) continue;
+            Stop stop = route.getStops().get(i);
+            if (i == 0 && lapCompleted(previous, route)) {
+                log.info("Bus {} completed trip {}", ping.getBusId(), previous.getTrip());
+                previous.getArrivedStops().clear();
+                previous.getArrivalTimes().clear();
+                previous.setTrip(previous.getTrip() + 1);
+            }
+            if (!previous.getArrivedStops().add(stop.getStopId())) continue;   // already arrived this trip
+
+            log.info("Bus {} arrived at stop {}", ping.getBusId(), stop.getName());
+
+            StopArrival arrival = new StopArrival();
+            arrival.setBusId(ping.getBusId());
+            arrival.setStopId(stop.getStopId());
+            arrival.setStopName(stop.getName());
+            // Convert ping timestamp (seconds) to LocalDateTime
+            LocalDateTime arrivalTime = Instant.ofEpochMilli(ping.getTimestamp() * 1000)
+                    .atZone(ZoneId.systemDefault())
+                    .toLocalDateTime();
+            arrival.setArrivalTime(arrivalTime);
+            arrival.setCreatedAt(LocalDateTime.now());
+            arrival.setDate(arrivalTime.toLocalDate());
+            writer.save(arrival);
+            history.onArrival(ping.getBusId(), i, stop.getStopId(), stop.getName(), ping.getTimestamp() * 1000);
+            /* store timestamp in **milliseconds** */
+            previous.getArrivalTimes().put(stop.getStopId(), ping.getTimestamp() * 1000);
+        }
+    }
 
-        double projX = ax + t * dx;
-        double projY = ay + t * dy;
+    // Back at the first stop after reaching the second half of the route: a new trip starts.
+    // Any stop there counts, so a missed detection at the last stop does not stall the reset.
+    private static boolean lapCompleted(BusState state, RouteData route) {
+        List<Stop> stops = route.getStops();
+        for (int i = Math.max(1, stops.size() / 2); i < stops.size(); i++) {
+            if (state.getArrivedStops().contains(stops.get(i).getStopId())) return true;
+        }
+        return false;
+    }
 
-        return haversine(px, py, projX, projY);
+    // Windowed match around the previous segment first, whole-route index as fallback
+    int findClosestSegment(double lat, double lon, RouteData route, int previousSegment) {
+        SegmentGrid grid = route.getSegmentGrid();
+        int segment = grid.nearestSegmentNear(lat, lon, previousSegment, windowSegments, windowMaxMeters);
+        return segment >= 0 ? segment : grid.nearestSegment(lat, lon);
     }
 
     public boolean isNewer(BusPing ping) {
@@ -1,53 +1,126 @@
 package com.ivez.etaengine.service;
 
+import com.ivez.etaengine.dto.StopAccuracyResponse;
 import com.ivez.etaengine.dto.StopEtaResponse;
+import com.ivez.etaengine.entity.DailyStopAccuracy;
 import com.ivez.etaengine.entity.EtaPrediction;
+import com.ivez.etaengine.entity.PredictionAccuracy;
 import com.ivez.etaengine.entity.StopArrival;
+import com.ivez.etaengine.repository.DailyStopAccuracyRepository;
 import com.ivez.etaengine.repository.EtaPredictionRepository;
+import com.ivez.etaengine.repository.PredictionAccuracyRepository;
 import com.ivez.etaengine.repository.StopArrivalRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
+// Builds the per-stop accuracy view for one bus and day. Days recorded with horizon
+// checkpoints are read straight from prediction_accuracy; older days (or days with only
+// a full trace) fall back to two range queries over the arrivals and the raw predictions,
+// the latter already grouped by stop and ordered by creation time. Days before today no
+// longer change, so their results are kept in a bounded LRU cache. Per-day accuracy
+// rollups (kept after the detail expires) are served from daily_stop_accuracy.
 @Service
 public class Dashboard {
 
+    private static final int[] HORIZONS_MINUTES = PredictionHistory.HORIZONS_MINUTES;
+
     private final StopArrivalRepository arrivalRepository;
     private final EtaPredictionRepository predictionRepository;
+    private final PredictionAccuracyRepository accuracyRepository;
+    private final DailyStopAccuracyRepository rollupRepository;
+
+    @Value("${dashboard.past-day-cache-size}")
+    private int pastDayCacheSize;
+
+    private final Map<DayKey, List<StopEtaResponse>> pastDays = Collections.synchronizedMap(
+            new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<DayKey, List<StopEtaResponse>> eldest) {
+                    return size() > pastDayCacheSize;
+                }
+            });
 
-    public Dashboard(StopArrivalRepository arrivalRepository, EtaPredictionRepository predictionRepository){
+    private record DayKey(String busId, LocalDate date) {}
+
+    public Dashboard(StopArrivalRepository arrivalRepository, EtaPredictionRepository predictionRepository,
+                     PredictionAccuracyRepository accuracyRepository, DailyStopAccuracyRepository rollupRepository){
         this.arrivalRepository = arrivalRepository;
         this.predictionRepository = predictionRepository;
+        this.accuracyRepository = accuracyRepository;
+        this.rollupRepository = rollupRepository;
+    }
+
+    public List<StopAccuracyResponse> getDailyAccuracy(String busId, LocalDate from, LocalDate to) {
+        List<StopAccuracyResponse> responseList = new ArrayList<>();
+        for (DailyStopAccuracy d : rollupRepository.findByBusIdAndDateBetweenOrderByDateAscStopIdAsc(busId, from, to)) {
+            responseList.add(new StopAccuracyResponse(d.getBusId(), d.getStopId(), d.getStopName(), d.getDate(),
+                    d.getArrivals(), d.getEta5Samples(), d.getEta5MaeSeconds(), d.getEta3Samples(),
+                    d.getEta3MaeSeconds(), d.getEta2Samples(), d.getEta2MaeSeconds()));
+        }
+        return responseList;
     }
 
     public List<StopEtaResponse> getDashboardData(String busId, LocalDate date)
     {
-        List<StopArrival> arrivals = arrivalRepository.findByBusIdAndDate(busId, date);
+        if (!date.isBefore(LocalDate.now())) {
+            return load(busId, date);
+        }
+        DayKey key = new DayKey(busId, date);
+        List<StopEtaResponse> cached = pastDays.get(key);
+        if (cached == null) {
+            // Queried outside the lock; two concurrent misses just compute the same result
+            cached = Collections.unmodifiableList(load(busId, date));
+            if (pastDayCacheSize > 0) pastDays.put(key, cached);
+        }
+        return cached;
+    }
 
-        List<StopEtaResponse> responseList = new ArrayList<>();
-        for(StopArrival arrival : arrivals){
-            List<EtaPrediction> predictions = predictionRepository.findByBusIdAndStopIdAndDate(busId,
-                    arrival.getStopId(), date);
-            // Filter predictions made before the actual arrival
-            List<EtaPrediction> beforeArrival = predictions.stream()
-                    .filter(p -> p.getCreatedAt().isBefore(arrival.getArrivalTime()))
-                    .collect(Collectors.toList());
+    private List<StopEtaResponse> load(String busId, LocalDate date) {
+        List<PredictionAccuracy> checkpoints = accuracyRepository.findByBusIdAndDateOrderByArrivalTimeAsc(busId, date);
+        if (!checkpoints.isEmpty()) {
+            List<StopEtaResponse> responseList = new ArrayList<>(checkpoints.size());
+            for (PredictionAccuracy a : checkpoints) {
+                responseList.add(new StopEtaResponse(busId, a.getStopId(), a.getStopName(), a.getArrivalTime(),
+                        a.getEta5minBefore(), a.getEta3minBefore(), a.getEta2minBefore()));
+            }
+            return responseList;
+        }
+        return loadFromTrace(busId, date);
+    }
+
+    private List<StopEtaResponse> loadFromTrace(String busId, LocalDate date) {
+        List<StopArrival> arrivals = arrivalRepository.findByBusIdAndDateOrderByArrivalTimeAsc(busId, date);
+        if (arrivals.isEmpty()) return new ArrayList<>();
 
+        Map<String, List<EtaPrediction>> byStop = new HashMap<>();
+        for (EtaPrediction p : predictionRepository.findByBusIdAndDateOrderByStopIdAscCreatedAtAsc(busId, date)) {
+            byStop.computeIfAbsent(p.getStopId(), k -> new ArrayList<>()).add(p);
+        }
+
+        List<StopEtaResponse> responseList = new ArrayList<>(arrivals.size());
+        for(StopArrival arrival : arrivals){
             LocalDateTime actual = arrival.getArrivalTime();
+            LocalDateTime[] etas = closestEtas(byStop.getOrDefault(arrival.getStopId(), List.of()), actual);
+
             StopEtaResponse response = new StopEtaResponse();
             response.setBusId(busId);
             response.setStopId(arrival.getStopId());
             response.setStopName(arrival.getStopName());
             response.setActualArrival(actual);
-            response.setEta5minBefore(closestEta(beforeArrival, actual, 5));
-            response.setEta3minBefore(closestEta(beforeArrival, actual, 3));
-            response.setEta2minBefore(closestEta(beforeArrival, actual, 2));
+            response.setEta5minBefore(etas[0]);
+            response.setEta3minBefore(etas[1]);
+            response.setEta2minBefore(etas[2]);
 
             responseList.add(response);
         }
@@ -55,12 +128,27 @@ public class Dashboard {
         return responseList;
     }
 
-    private LocalDateTime closestEta(List<EtaPrediction> predictions, LocalDateTime arrivalTime, int minutesBefore) {
-        return predictions.stream()
-                .min(Comparator.comparing(p -> Math.abs(
-                        Duration.between(p.getCreatedAt(), arrivalTime).toMinutes() - minutesBefore)))
-                .map(EtaPrediction::getPredictedArrivalTime)
-                .orElse(null);
+    /**
+     * Single pass over a stop's predictions (ascending createdAt). For each horizon picks
+     * the earliest prediction made before the arrival whose whole-minute lead time is
+     * closest to that horizon.
+     */
+    static LocalDateTime[] closestEtas(List<EtaPrediction> predictions, LocalDateTime arrivalTime) {
+        LocalDateTime[] etas = new LocalDateTime[HORIZONS_MINUTES.length];
+        long[] bestDistance = new long[HORIZONS_MINUTES.length];
+        Arrays.fill(bestDistance, Long.MAX_VALUE);
+        for (EtaPrediction p : predictions) {
+            if (!p.getCreatedAt().isBefore(arrivalTime)) break;     // the rest were made after arrival
+            long leadMinutes = Duration.between(p.getCreatedAt(), arrivalTime).toMinutes();
+            for (int h = 0; h < HORIZONS_MINUTES.length; h++) {
+                long distance = Math.abs(leadMinutes - HORIZONS_MINUTES[h]);
+                if (distance < bestDistance[h]) {
+                    bestDistance[h] = distance;
+                    etas[h] = p.getPredictedArrivalTime();
+                }
+            }
+        }
+        return etas;
     }
 
 }
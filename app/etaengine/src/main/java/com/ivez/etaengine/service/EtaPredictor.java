@@ -1,16 +1,13 @@
 package com.ivez.etaengine.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ivez.etaengine.model.*;
-import com.ivez.etaengine.repository.EtaPredictionRepository;
-import com.ivez.etaengine.repository.StopArrivalRepository;
-import com.ivez.etaengine.util.GeoUtils;
-import com.ivez.etaengine.util.KalmanFilter;
-import com.ivez.etaengine.ws.EtaWebSocketHandler;
+import com.ivez.etaengine.repository.WriteBehindWriter;
+import com.ivez.etaengine.util.KalmanFilterBank;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.sql.SQLOutput;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -19,19 +16,29 @@ import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static com.ivez.etaengine.util.GeoUtils.haversine;
-
 @Service
 public class EtaPredictor {
 
+    private static final Logger log = LoggerFactory.getLogger(EtaPredictor.class);
+
     private final Map<String, List<EtaPrediction>> predictionMap = new ConcurrentHashMap<>();
-    private final Map<String, KalmanFilter> filters = new HashMap<>();
+    private final Map<String, BusFilters> filters = new ConcurrentHashMap<>();
     //private final List<Stop> stops;
     private final Routes routes;
-    private final EtaWebSocketHandler etaWebSocketHandler;
-    private final EtaPredictionRepository predictionRepository;
+    private final UpdatePublisher publisher;
+    private final WriteBehindWriter writer;
+    private final PredictionHistory history;
+    private final PipelineMetrics metrics;
+    private final TravelTimes travelTimes;
     //private final StopArrivalRepository arrivalRepository;
 
+    // Debugging only: also persist every recompute to eta_predictions
+    @Value("${predictions.full-trace}")
+    private boolean fullTrace;
+    // Share of the historical travel time in each filter measurement while the bus moves
+    @Value("${travel-times.weight}")
+    private double historyWeight;
+
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss")
             .withZone(ZoneId.systemDefault());
 
@@ -39,41 +46,76 @@ public class EtaPredictor {
     private static final double MIN_SPEED = 0.5; // m/s
     private static final double MAX_SPEED = 20; // m/s
     private static final int MIN_ETA_UPDATE = 5000; // 5 secs
+    private static final int UNKNOWN_TRIP = -1;
     //private static final int MAX_ETA_JUMP_SEC = 3000; // 5 minutes
 
-    public EtaPredictor(Routes routes, EtaWebSocketHandler etaWebSocketHandler,
-                        EtaPredictionRepository predictionRepository) {
+    public EtaPredictor(Routes routes, UpdatePublisher publisher, WriteBehindWriter writer,
+                        PredictionHistory history, PipelineMetrics metrics, TravelTimes travelTimes) {
         this.routes = routes;
-        this.etaWebSocketHandler = etaWebSocketHandler;
-        this.predictionRepository = predictionRepository;
+        this.publisher = publisher;
+        this.writer = writer;
+        this.history = history;
+        this.metrics = metrics;
+        this.travelTimes = travelTimes;
         //this.arrivalRepository = arrivalRepository;
     }
 
-    public void updateEta(BusState busState) throws JsonProcessingException {
-
-        long now = System.currentTimeMillis();
+    // now = receive time of the ping being processed, so replayed journals predict as they did live
+    public void updateEta(BusState busState, long now) {
         List<EtaPrediction> prevPrediction = predictionMap.get(busState.getBusId());
-        if(prevPrediction != null)
-            System.out.println("Time Diff : " + (now - prevPrediction.get(0).getLastUpdated()));
         if(prevPrediction != null && now - prevPrediction.get(0).getLastUpdated() < MIN_ETA_UPDATE) {
-            System.out.println("Prediction Skipped!!");
+            log.trace("Prediction skipped for {}, last update {} ms ago",
+                    busState.getBusId(), now - prevPrediction.get(0).getLastUpdated());
             return;
         }
 
+        long start = System.nanoTime();
+        try {
+            predict(busState, now);
+        } finally {
+            metrics.recordStage(PipelineMetrics.Stage.ETA, start);
+        }
+    }
+
+    // One unthrottled prediction pass over every stop of the bus's route
+    void predict(BusState busState, long now) {
+
         RouteData route = routes.getRoute(busState.getBusId());
-        List<Coordinate> path = route.getCoordinates();
+        if (route == null) return;                               // removed by a reload, state goes next
         List<Stop> stops = route.getStops();
-        int currentSegment = busState.getSegmentIndex();
-        //System.out.println("Current Segment: " + currentSegment);
+        double busOffset = busState.getRouteOffset();
 
         double currLat = busState.getLat();
         double currLon = busState.getLon();
         double speed = Math.min(busState.getSpeed(), MAX_SPEED);
 
-        if (speed < MIN_SPEED) {
-            System.out.printf("⚠️ Low speed (%.2f m/s) — retaining previous ETA for %s%n", speed, busState.getBusId());
+        // Historical travel times keep ETAs moving while the bus dwells or crawls
+        double[] historical = new double[stops.size()];
+        boolean hasHistory = travelTimes.secondsToStops(route, busOffset, now, historical);
+        boolean moving = speed >= MIN_SPEED;
+        if (!moving && !hasHistory) {
+            log.debug("Low speed ({} m/s), retaining previous ETA for {}", speed, busState.getBusId());
             return;
         }
+        List<EtaPrediction> previous = predictionMap.get(busState.getBusId());
+
+        // Measurements for the whole route (NaN = none), then one step of the bus's filter bank
+        double[] measurements = new double[stops.size()];
+        for (int i = 0; i < stops.size(); i++) {
+            if (busState.getArrivedStops().contains(stops.get(i).getStopId())) {
+                measurements[i] = Double.NaN;
+                continue;
+            }
+            // Loops around if the stop is behind the bus (circular route)
+            double distance = route.distanceAlong(busOffset, stops.get(i).getRouteOffset());
+            double liveSeconds = moving ? distance / speed : Double.NaN;
+            double historySeconds = hasHistory ? historical[i] : Double.NaN;
+            measurements[i] = Double.isNaN(historySeconds) ? liveSeconds
+                    : Double.isNaN(liveSeconds) ? historySeconds
+                    : historyWeight * historySeconds + (1 - historyWeight) * liveSeconds;
+        }
+        double[] smoothed = historical;                          // reused, no longer needed
+        filterBank(busState, stops.size()).update(measurements, smoothed);
 
         List<EtaPrediction> newPredictions = new ArrayList<>();
         List<String> etaLogs = new ArrayList<>();
@@ -87,37 +129,25 @@ public class EtaPredictor {
                 continue;
             }
 
-            int stopSegment = stop.getSegmentIndex();
-            System.out.println("Stop segment : " + stopSegment);
-            double distance;
-
-            if (stopSegment >= currentSegment) {
-                distance = computeDistance(path, currentSegment, stopSegment);
-            } else {
-                // Loop around (if circular route)
-                distance = computeDistance(path, currentSegment, path.size() - 1)
-                        + computeDistance(path, 0, stopSegment);
+            if (Double.isNaN(measurements[i])) {
+                // Dwelling with no history for this stop: keep what was last predicted
+                if (previous != null && previous.size() == stops.size()
+                        && previous.get(i).getStopId().equals(stop.getStopId())) {
+                    newPredictions.add(new EtaPrediction(busState.getBusId(), stop.getStopId(),
+                            previous.get(i).getEtaTimestamp(), now));
+                }
+                continue;
             }
-            double rawEtaSeconds = distance / speed;
-
-            String filterKey = busState.getBusId() + "_stop" + (i+1);
-            KalmanFilter filter = filters.computeIfAbsent(filterKey,
-                    key -> new KalmanFilter(rawEtaSeconds, 1, 0.5, 5));
-
-            double prevEstimate = filter.getEstimate();
-            double smoothedEta = filter.update(rawEtaSeconds);
-
-//            if (Math.abs(smoothedEta - prevEstimate) > MAX_ETA_JUMP_SEC) {
-//                smoothedEta = prevEstimate;
-//                System.out.println("🛑 ETA jump suppressed for " + filterKey);
-//            }
+            double smoothedEta = smoothed[i];
 
             long etaMillis = now + (long) (smoothedEta * 1000);
-            String etaStr = formatter.format(Instant.ofEpochMilli(etaMillis));
-            etaLogs.add(etaStr);
+            if (log.isDebugEnabled()) {
+                etaLogs.add(stop.getStopId() + "=" + formatter.format(Instant.ofEpochMilli(etaMillis)));
+            }
 
             newPredictions.add(new EtaPrediction(busState.getBusId(), stop.getStopId(), etaMillis, now));
-            System.out.printf("🕐 ETA → %-18s (%s): %s (filtered)%n", stop.getName(), stop.getStopId(), etaStr);
+            history.record(busState.getBusId(), stops.size(), i, now, etaMillis);
+            if (!fullTrace) continue;
 
             com.ivez.etaengine.entity.EtaPrediction prediction = new com.ivez.etaengine.entity.EtaPrediction();
             prediction.setBusId(busState.getBusId());
@@ -127,49 +157,99 @@ public class EtaPredictor {
                     .atZone(ZoneId.systemDefault())
                     .toLocalDateTime();
             prediction.setPredictedArrivalTime(predictedTime);
-            prediction.setCreatedAt(LocalDateTime.now());
+            prediction.setCreatedAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault()));
             prediction.setDate(predictedTime.toLocalDate());
-            predictionRepository.save(prediction);
+            writer.save(prediction);
         }
 
         if (!newPredictions.isEmpty()) {
             predictionMap.put(busState.getBusId(), newPredictions);
 
 
-            EtaUpdateDTO etaUpdate = new EtaUpdateDTO();
-            etaUpdate.setBusId(busState.getBusId());
             Map<String, Long> temp = new HashMap<>();
             for( EtaPrediction eta : newPredictions){
                 temp.put(eta.getStopId(),eta.getEtaTimestamp());
             }
-            etaUpdate.setEtaPerStop(temp);
-            ObjectMapper mapper = new ObjectMapper();
-            String json = mapper.writeValueAsString(etaUpdate);
-            System.out.println("EtaPredictor sending ETA JSON: " + json);
-            etaWebSocketHandler.broadcastEtaUpdate(json);
-
+            publisher.publishEta(busState.getBusId(), route, temp);
 
-            System.out.printf("📍 Bus: %s | Speed: %.2f m/s | ETAs: %s%n",
-                    busState.getBusId(), speed, String.join(" | ", etaLogs));
-            System.out.println("✅ Stored predictions for " + busState.getBusId());
+            log.debug("Bus {} | speed {} m/s | ETAs {}", busState.getBusId(), speed, etaLogs);
         } else {
-            System.out.println("⚠️ No valid predictions generated for " + busState.getBusId());
+            log.debug("No valid predictions generated for {}", busState.getBusId());
         }
     }
 
-    public List<EtaPrediction> getPredictions(String busId) {
-        List<EtaPrediction> preds = predictionMap.get(busId);
-        System.out.println("📦 Returning predictions for " + busId + ": " + (preds != null ? preds : "[]"));
-        return preds != null ? preds : Collections.emptyList();
+    // Filter banks and prediction maps, for StateSnapshotter. Banks restored here adopt the
+    // bus's current trip on first use instead of being reset.
+    Map<String, KalmanFilterBank> getFilters() {
+        Map<String, KalmanFilterBank> banks = new HashMap<>();
+        filters.forEach((busId, f) -> banks.put(busId, f.bank));
+        return banks;
     }
 
-    private double computeDistance(List<Coordinate> path, int from, int to) {
-        double sum = 0;
-        for (int i = from; i < to; i++) {
-            Coordinate a = path.get(i);
-            Coordinate b = path.get(i + 1);
-            sum += haversine(a.getLat(), a.getLon(), b.getLat(), b.getLon());
+    void restoreFilters(Map<String, KalmanFilterBank> banks) {
+        banks.forEach((busId, bank) -> filters.put(busId, new BusFilters(bank, UNKNOWN_TRIP)));
+    }
+
+    Map<String, List<EtaPrediction>> getPredictionMap() {
+        return predictionMap;
+    }
+
+    // The bus's bank, restarted when its route's stop count changes or it starts a new trip
+    private KalmanFilterBank filterBank(BusState busState, int stopCount) {
+        BusFilters f = filters.get(busState.getBusId());
+        if (f == null || f.bank.size() != stopCount) {
+            f = new BusFilters(new KalmanFilterBank(stopCount, 1, 0.5, 5), busState.getTrip());
+            filters.put(busState.getBusId(), f);
+        } else if (f.trip != busState.getTrip()) {
+            if (f.trip != UNKNOWN_TRIP) f.bank.reset();
+            f.trip = busState.getTrip();
+        }
+        return f.bank;
+    }
+
+    // Only touched by the bus's ingest worker, apart from snapshot reads of the bank
+    private static final class BusFilters {
+        final KalmanFilterBank bank;
+        int trip;
+
+        BusFilters(KalmanFilterBank bank, int trip) {
+            this.bank = bank;
+            this.trip = trip;
         }
-        return sum;
+    }
+
+    // Per-bus export / import / removal, for cluster handoff. Run on the bus's ingest worker.
+    public KalmanFilterBank filtersOf(String busId) {
+        BusFilters f = filters.get(busId);
+        return f == null ? null : f.bank.copy();
+    }
+
+    // Filters and ETAs this node already has for the bus are kept
+    public void adopt(String busId, KalmanFilterBank bank, List<EtaPrediction> predictions) {
+        if (bank != null) filters.putIfAbsent(busId, new BusFilters(bank, UNKNOWN_TRIP));
+        if (predictions != null && !predictions.isEmpty()) predictionMap.putIfAbsent(busId, predictions);
+    }
+
+    public void forget(String busId) {
+        filters.remove(busId);
+        predictionMap.remove(busId);
+        history.forget(busId);
+    }
+
+    // Route reload: filters are per stop position, so they restart if the stop list changed
+    public void migrate(String busId, RouteData route) {
+        List<EtaPrediction> current = predictionMap.get(busId);
+        if (current == null) return;
+        List<Stop> stops = route.getStops();
+        boolean sameStops = current.size() == stops.size();
+        for (int i = 0; sameStops && i < stops.size(); i++) {
+            sameStops = stops.get(i).getStopId().equals(current.get(i).getStopId());
+        }
+        if (!sameStops) forget(busId);
+    }
+
+    public List<EtaPrediction> getPredictions(String busId) {
+        List<EtaPrediction> preds = predictionMap.get(busId);
+        return preds != null ? preds : Collections.emptyList();
     }
 }
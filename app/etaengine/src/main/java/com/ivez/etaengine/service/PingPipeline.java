@@ -0,0 +1,197 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.cluster.ClusterNode;
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.util.RateLimitedLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Staged ingest: the socket thread only enqueues, pings are sharded by busId onto
+// single-writer workers so each bus is processed in order by exactly one thread.
+// Other per-bus work (cluster handoff and relays) is queued as tasks on the same worker.
+// In cluster mode, pings for buses owned by another node are forwarded instead.
+@Service
+public class PingPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(PingPipeline.class);
+    private static final RateLimitedLog queueFull = new RateLimitedLog(log, 10_000);
+    private static final RateLimitedLog failures = new RateLimitedLog(log, 10_000);
+
+    private final BusStateTracker     busStateTracker;
+    private final EtaPredictor        etaPredictor;
+    private final UpdatePublisher     publisher;
+    private final Routes              routes;
+    private final PipelineMetrics     metrics;
+    private final ClusterNode         cluster;
+    private final PingPool            pool;
+
+    @Value("${ingest.workers}")
+    private int workerCount;          // 0 = one worker per core
+    @Value("${ingest.queue-capacity}")
+    private int queueCapacity;        // per worker
+
+    private Worker[] workers;
+
+    public PingPipeline(
+            BusStateTracker tracker,
+            EtaPredictor predictor,
+            UpdatePublisher publisher,
+            Routes routes,
+            PipelineMetrics metrics,
+            ClusterNode cluster,
+            PingPool pool
+    ) {
+        this.busStateTracker = tracker;
+        this.etaPredictor    = predictor;
+        this.publisher       = publisher;
+        this.routes          = routes;
+        this.metrics         = metrics;
+        this.cluster         = cluster;
+        this.pool            = pool;
+    }
+
+    @PostConstruct
+    public void start() {
+        int n = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+        workers = new Worker[n];
+        for (int i = 0; i < n; i++) {
+            workers[i] = new Worker(i, queueCapacity);
+            workers[i].start();
+        }
+        for (Worker w : workers) {
+            metrics.gauge("eta.ingest.queue.depth", w.queue, q -> q.size(), "worker", w.getName());
+        }
+        log.info("Ingest pipeline started with {} workers (queue {})", n, queueCapacity);
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (Worker w : workers) w.interrupt();
+        for (Worker w : workers) {
+            try {
+                w.join(TimeUnit.SECONDS.toMillis(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands a decoded ping to the worker that owns its bus. Never blocks:
+     * if that worker is saturated the ping is dropped, a fresher one follows.
+     * Takes ownership of the ping (see PingPool) only when it returns true.
+     */
+    public boolean submit(BusPing ping) {
+        stamp(ping);
+        if (!cluster.isLocal(ping.getBusId())) {
+            if (!cluster.forward(ping, 0)) return false;
+            pool.release(ping);                                  // already encoded
+            return true;
+        }
+        Worker worker = workerFor(ping.getBusId());
+        if (!worker.queue.offer(ping)) {
+            metrics.pingDropped(PipelineMetrics.DropReason.QUEUE_FULL);
+            queueFull.warn("Ingest queue full on {}, dropping ping for {}", worker.getName(), ping.getBusId());
+            return false;
+        }
+        metrics.pingReceived();
+        return true;
+    }
+
+    /**
+     * Hands a journaled ping to its worker, waiting for queue space rather than
+     * dropping, so a replay at any speed processes exactly what was recorded.
+     */
+    public void replay(BusPing ping) throws InterruptedException {
+        stamp(ping);
+        workerFor(ping.getBusId()).queue.put(ping);
+        metrics.pingReceived();
+    }
+
+    /** Runs a task on the worker that owns busId, after the pings already queued for it. */
+    public void execute(String busId, Runnable task) throws InterruptedException {
+        workerFor(busId).queue.put(task);
+    }
+
+    /** Like execute, but gives up (returns false) instead of waiting if the worker is saturated. */
+    public boolean tryExecute(String busId, Runnable task) {
+        return workerFor(busId).queue.offer(task);
+    }
+
+    private Worker workerFor(String busId) {
+        return workers[Math.floorMod(busId.hashCode(), workers.length)];
+    }
+
+    private static void stamp(BusPing ping) {
+        if (ping.getReceivedNanos() == 0) ping.setReceivedNanos(System.nanoTime());
+        if (ping.getReceivedAtMillis() == 0) ping.setReceivedAtMillis(System.currentTimeMillis());
+    }
+
+    private void process(BusPing ping) throws Exception {
+        if (!busStateTracker.isNewer(ping)) {
+            metrics.pingDropped(PipelineMetrics.DropReason.OUT_OF_ORDER);
+            return;
+        }
+
+        /* 1️⃣ Update trackers & ETA ---------------------------------------- */
+        busStateTracker.updateBusState(ping);
+        BusState state = busStateTracker.getState(ping.getBusId());
+        if (state == null) {                                     // unknown route
+            metrics.pingDropped(PipelineMetrics.DropReason.UNKNOWN_ROUTE);
+            return;
+        }
+        etaPredictor.updateEta(state, ping.getReceivedAtMillis());   // Kalman, etc.
+
+        /* 2️⃣ Publish position view ------------------------------------- */
+        publisher.publishPosition(state, routes.getRoute(state.getBusId()), ping.getOccupancy());
+        metrics.recordPingLatency(ping.getReceivedNanos());
+    }
+
+    private final class Worker extends Thread {
+        private final BlockingQueue<Object> queue;           // BusPing or Runnable
+
+        Worker(int index, int capacity) {
+            super("ingest-worker-" + index);
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Object item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (item instanceof Runnable task) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        failures.warn("Worker task failed: {}", e.toString());
+                    }
+                    continue;
+                }
+                BusPing ping = (BusPing) item;
+                try {
+                    process(ping);
+                } catch (Exception e) {
+                    failures.warn("Failed to handle GPS ping for {}: {}", ping.getBusId(), e.toString());
+                } finally {
+                    pool.release(ping);
+                }
+            }
+        }
+    }
+}
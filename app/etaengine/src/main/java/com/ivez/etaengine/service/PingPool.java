@@ -0,0 +1,44 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.model.BusPing;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Recycles BusPing records between the ingest decoders and the pipeline workers, so the
+// steady-state decode path allocates no pings. Whoever holds a ping last releases it: the
+// worker once it has processed it, PingPipeline.submit once it has forwarded it, or the
+// submitter when submit returns false. Bounded; an empty pool simply allocates, and pings
+// released into a full pool are left to the GC.
+@Component
+public class PingPool {
+
+    @Value("${ingest.ping-pool-size}")
+    private int size;
+
+    private BlockingQueue<BusPing> free;
+
+    @PostConstruct
+    public void init() {
+        free = new ArrayBlockingQueue<>(Math.max(1, size));
+    }
+
+    public BusPing acquire() {
+        BusPing ping = free.poll();
+        return ping != null ? ping : new BusPing();
+    }
+
+    public void release(BusPing ping) {
+        ping.setBusId(null);
+        ping.setLat(0);
+        ping.setLon(0);
+        ping.setTimestamp(0);
+        ping.setOccupancy(0);
+        ping.setReceivedNanos(0);
+        ping.setReceivedAtMillis(0);
+        free.offer(ping);
+    }
+}
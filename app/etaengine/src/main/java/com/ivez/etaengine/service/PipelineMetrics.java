@@ -0,0 +1,94 @@
+package com.ivez.etaengine.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+// Every meter the ingest → ETA → broadcast pipeline reports, registered once up front
+// so hot paths only touch pre-resolved Timer/Counter instances. Exposed for Prometheus
+// at /actuator/prometheus.
+@Component
+public class PipelineMetrics {
+
+    public enum Stage { MAP_MATCHING, ETA, PERSISTENCE, FANOUT }
+
+    public enum DropReason { DECODE_ERROR, INVALID, STALE_AGE, OUT_OF_ORDER, QUEUE_FULL, UNKNOWN_ROUTE }
+
+    private final MeterRegistry registry;
+    private final Counter pingsReceived;
+    private final Timer pingToBroadcast;
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Map<DropReason, Counter> dropCounters = new EnumMap<>(DropReason.class);
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.pingsReceived = Counter.builder("eta.pings.received")
+                .description("GPS pings accepted for processing")
+                .register(registry);
+        this.pingToBroadcast = Timer.builder("eta.ping.latency")
+                .description("Time from ping receipt to its updates being queued for clients")
+                .publishPercentileHistogram()
+                .register(registry);
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder("eta.stage.duration")
+                    .tag("stage", stage.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        for (DropReason reason : DropReason.values()) {
+            dropCounters.put(reason, Counter.builder("eta.pings.dropped")
+                    .tag("reason", reason.name().toLowerCase())
+                    .register(registry));
+        }
+    }
+
+    public void pingReceived() {
+        pingsReceived.increment();
+    }
+
+    public void pingDropped(DropReason reason) {
+        dropCounters.get(reason).increment();
+    }
+
+    public void recordPingLatency(long receivedNanos) {
+        pingToBroadcast.record(System.nanoTime() - receivedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordStage(Stage stage, long startNanos) {
+        stageTimers.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Counter counter(String name, String... tags) {
+        return registry.counter(name, tags);
+    }
+
+    public <T> void gauge(String name, T target, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, target, value).tags(tags).register(registry);
+    }
+
+    // Seconds since the bus last reported, sampled at scrape time. Pass the result to
+    // untrackBus when the bus leaves this node, or its series is exported forever.
+    public Gauge trackBus(String busId, Supplier<Long> lastSeenEpochSec) {
+        return Gauge.builder("eta.bus.last_seen.age", lastSeenEpochSec,
+                        s -> {
+                            Long lastSeen = s.get();
+                            return lastSeen == null ? Double.NaN : System.currentTimeMillis() / 1000.0 - lastSeen;
+                        })
+                .tag("busId", busId)
+                .baseUnit("seconds")
+                .strongReference(true)          // the supplier lambda has no other owner
+                .register(registry);
+    }
+
+    public void untrackBus(Gauge gauge) {
+        registry.remove(gauge);
+    }
+}
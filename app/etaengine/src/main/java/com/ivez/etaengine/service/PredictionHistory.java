@@ -0,0 +1,127 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.entity.PredictionAccuracy;
+import com.ivez.etaengine.repository.WriteBehindWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Recent ETA predictions per (bus, stop), kept in fixed-size ring buffers instead of
+// being persisted on every recompute. Each bus holds one array of rings indexed by stop
+// ordinal, like its KalmanFilterBank, so recording is an array access per stop. When the
+// bus arrives at the stop the predictions closest to the dashboard horizons are resolved
+// into one PredictionAccuracy row and the ring is cleared for the next lap. Both calls
+// come from the bus's ingest worker.
+@Component
+public class PredictionHistory {
+
+    // Lead times (minutes before the actual arrival) checkpointed for the dashboard
+    public static final int[] HORIZONS_MINUTES = {5, 3, 2};
+
+    private final WriteBehindWriter writer;
+
+    @Value("${predictions.history-size}")
+    private int historySize;
+
+    private final Map<String, Ring[]> rings = new ConcurrentHashMap<>();
+
+    public PredictionHistory(WriteBehindWriter writer) {
+        this.writer = writer;
+    }
+
+    /** Records the ETA predicted for stop ordinal {@code stop} of a route with {@code stopCount} stops. */
+    public void record(String busId, int stopCount, int stop, long createdAtMillis, long etaMillis) {
+        Ring[] busRings = rings.get(busId);
+        if (busRings == null || busRings.length != stopCount) {   // new bus, or its route's stops changed
+            busRings = new Ring[stopCount];
+            rings.put(busId, busRings);
+        }
+        Ring ring = busRings[stop];
+        if (ring == null) ring = busRings[stop] = new Ring(historySize);
+        ring.add(createdAtMillis, etaMillis);
+    }
+
+    /** Resolves and persists the horizon ETAs for an arrival, then clears the stop's history. */
+    public void onArrival(String busId, int stop, String stopId, String stopName, long arrivalMillis) {
+        Ring[] busRings = rings.get(busId);
+        Ring ring = busRings == null || stop >= busRings.length ? null : busRings[stop];
+        long[] etas = ring == null ? new long[HORIZONS_MINUTES.length] : ring.closestEtas(arrivalMillis);
+        if (ring != null) ring.clear();
+
+        PredictionAccuracy row = new PredictionAccuracy();
+        row.setBusId(busId);
+        row.setStopId(stopId);
+        row.setStopName(stopName);
+        LocalDateTime arrivalTime = toLocal(arrivalMillis);
+        row.setArrivalTime(arrivalTime);
+        row.setEta5minBefore(etas[0] == 0 ? null : toLocal(etas[0]));
+        row.setEta3minBefore(etas[1] == 0 ? null : toLocal(etas[1]));
+        row.setEta2minBefore(etas[2] == 0 ? null : toLocal(etas[2]));
+        row.setCreatedAt(LocalDateTime.now());
+        row.setDate(arrivalTime.toLocalDate());
+        writer.save(row);
+    }
+
+    /** Drops the bus's history, e.g. when it is handed off to another cluster node. */
+    public void forget(String busId) {
+        rings.remove(busId);
+    }
+
+    private static LocalDateTime toLocal(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    // Parallel primitive arrays; the oldest entry is overwritten once full
+    static final class Ring {
+        private final long[] createdAt;
+        private final long[] eta;
+        private int head;
+        private int size;
+
+        Ring(int capacity) {
+            createdAt = new long[capacity];
+            eta = new long[capacity];
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+
+        void add(long createdAtMillis, long etaMillis) {
+            createdAt[head] = createdAtMillis;
+            eta[head] = etaMillis;
+            head = (head + 1) % createdAt.length;
+            if (size < createdAt.length) size++;
+        }
+
+        /**
+         * For each horizon, the ETA of the earliest prediction made before the arrival whose
+         * whole-minute lead time is closest to it (0 if none). Same rule as the dashboard.
+         */
+        long[] closestEtas(long arrivalMillis) {
+            long[] etas = new long[HORIZONS_MINUTES.length];
+            long[] bestDistance = new long[HORIZONS_MINUTES.length];
+            Arrays.fill(bestDistance, Long.MAX_VALUE);
+            int cap = createdAt.length;
+            for (int n = 0, i = (head - size + cap) % cap; n < size; n++, i = (i + 1) % cap) {
+                if (createdAt[i] >= arrivalMillis) break;
+                long leadMinutes = (arrivalMillis - createdAt[i]) / 60_000;
+                for (int h = 0; h < HORIZONS_MINUTES.length; h++) {
+                    long distance = Math.abs(leadMinutes - HORIZONS_MINUTES[h]);
+                    if (distance < bestDistance[h]) {
+                        bestDistance[h] = distance;
+                        etas[h] = eta[i];
+                    }
+                }
+            }
+            return etas;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.model.RouteData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Watches the routes directory and reloads changed GeoJSON files without a restart.
+// Events are debounced (editors write files in several steps), the files are parsed and
+// indexed on the watcher thread and swapped into Routes in one step. Each bus whose
+// route changed is then migrated on its ingest worker, in order with its pings: its
+// position is re-matched onto the new geometry, arrivals at stops that no longer exist
+// are dropped, and its Kalman filters restart if the stop list changed. A bus left
+// without a route has its state dropped. Bus-to-route assignment changes made through
+// the API are applied the same way.
+@Component
+public class RouteReloader {
+
+    private static final Logger log = LoggerFactory.getLogger(RouteReloader.class);
+
+    private final Routes routes;
+    private final BusStateTracker tracker;
+    private final EtaPredictor predictor;
+    private final PingPipeline pipeline;
+
+    @Value("${routes.watch}")
+    private boolean watch;
+    @Value("${routes.reload-debounce-ms}")
+    private long debounceMs;
+
+    private WatchService watcher;
+    private Thread thread;
+
+    public RouteReloader(Routes routes, BusStateTracker tracker, EtaPredictor predictor, PingPipeline pipeline) {
+        this.routes = routes;
+        this.tracker = tracker;
+        this.predictor = predictor;
+        this.pipeline = pipeline;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!watch) return;
+        Path dir = routes.getDirectory();
+        try {
+            watcher = dir.getFileSystem().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            log.warn("Cannot watch routes directory {}, routes will not reload: {}", dir, e.toString());
+            return;
+        }
+        thread = new Thread(this::watchLoop, "route-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching {} for route changes", dir.toAbsolutePath());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watcher != null) watcher.close();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                Set<String> changed = new HashSet<>();
+                WatchKey key = watcher.take();
+                // Keep collecting until the directory has been quiet for the debounce interval
+                while (key != null) {
+                    boolean overflow = collect(key, changed);
+                    if (!key.reset()) {
+                        log.warn("Routes directory {} is no longer accessible, routes will not reload",
+                                routes.getDirectory());
+                        return;
+                    }
+                    if (overflow) changed.addAll(allFiles());
+                    key = watcher.poll(debounceMs, TimeUnit.MILLISECONDS);
+                }
+                try {
+                    apply(routes.reload(changed));
+                } catch (RuntimeException e) {
+                    log.error("Route reload failed", e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    private static boolean collect(WatchKey key, Set<String> changed) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else {
+                changed.add(((Path) event.context()).getFileName().toString());
+            }
+        }
+        return overflow;
+    }
+
+    private Set<String> allFiles() {
+        Set<String> names = new HashSet<>(routes.getAllFiles());
+        try (Stream<Path> files = Files.list(routes.getDirectory())) {
+            files.forEach(f -> names.add(f.getFileName().toString()));
+        } catch (IOException e) {
+            log.warn("Cannot list routes directory: {}", e.toString());
+        }
+        return names;
+    }
+
+    /** Moves the bus onto a loaded route; IllegalArgumentException if the route is unknown. */
+    public void assign(String busId, String routeId) throws InterruptedException {
+        apply(routes.assign(busId, routeId));
+    }
+
+    /** Takes the bus off its route; its state is dropped. */
+    public void unassign(String busId) throws InterruptedException {
+        apply(routes.unassign(busId));
+    }
+
+    /** Migrates every bus whose route changed; called after the new routes are live. */
+    void apply(Map<String, RouteData> changed) throws InterruptedException {
+        if (changed.isEmpty()) return;
+        log.info("Route table updated (version {}), changed buses: {}", routes.getVersion(), changed.keySet());
+        for (Map.Entry<String, RouteData> e : changed.entrySet()) {
+            String busId = e.getKey();
+            RouteData route = e.getValue();
+            pipeline.execute(busId, () -> migrate(busId, route));
+        }
+    }
+
+    private void migrate(String busId, RouteData route) {
+        if (route == null) {
+            tracker.forget(busId);
+            predictor.forget(busId);
+            return;
+        }
+        tracker.migrate(busId, route);
+        predictor.migrate(busId, route);
+    }
+}
@@ -1,147 +1,395 @@
 package com.ivez.etaengine.service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.ivez.etaengine.model.Coordinate;
 import com.ivez.etaengine.model.RouteData;
 import com.ivez.etaengine.model.Stop;
+import com.ivez.etaengine.util.SegmentGrid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.ivez.etaengine.util.GeoUtils.haversine;
 
+// Route registry. Routes are stored once by routeId and buses point at them through an
+// assignment table, so any number of buses share one route's geometry, stops and
+// indexes. A route file may name the buses that run it by default (busId / busIds);
+// routes.assignments and the assignment API override that per bus.
+// The live table is an immutable snapshot behind an AtomicReference, so the ingest
+// workers read it without locks; loading or reloading files builds and indexes the new
+// routes first (off the hot path, see RouteReloader) and then swaps the snapshot.
+// A file that fails to parse or validate keeps its previous version.
 @Component
 public class Routes {
-    private final Map<String, RouteData> routeMap = new HashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(Routes.class);
+
+    private static final String SUFFIX = ".geojson";
+    // Override value that takes a bus off its file default
+    private static final String UNASSIGNED = "";
+
+    // One parsed route file: the route and the buses it assigns by default
+    public record RouteFile(RouteData route, List<String> busIds) {}
+
+    // routeId -> route, route file name -> its contents, busId -> routeId overrides,
+    // and busId -> route resolved from the other three (what the hot path reads)
+    private record Snapshot(long version, Map<String, RouteData> routes, Map<String, RouteFile> files,
+                            Map<String, String> overrides, Map<String, RouteData> buses) {}
+
+    private final AtomicReference<Snapshot> snapshot =
+            new AtomicReference<>(new Snapshot(0, Map.of(), Map.of(), Map.of(), Map.of()));
     @Value("${routes.directory}")
     private String routesDir;
+    @Value("${routes.grid-cell-meters}")
+    private double gridCellMeters;
+    @Value("${routes.arrival-radius-meters}")
+    private double arrivalRadiusMeters;
+    @Value("${routes.assignments}")
+    private String assignments;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    /** The route the bus is assigned to, or null. */
     public RouteData getRoute(String busId) {
-        return routeMap.get(busId);
+        return snapshot.get().buses().get(busId);
     }
 
+    public RouteData getRouteById(String routeId) {
+        return snapshot.get().routes().get(routeId);
+    }
+
+    /** Buses currently assigned to a loaded route. */
     public Set<String> getAllBusIds() {
-        return routeMap.keySet();
+        return snapshot.get().buses().keySet();
+    }
+
+    public Set<String> getAllRouteIds() {
+        return snapshot.get().routes().keySet();
+    }
+
+    /** busId -> routeId for every assigned bus. */
+    public Map<String, String> getAssignments() {
+        Map<String, String> result = new TreeMap<>();
+        snapshot.get().buses().forEach((busId, route) -> result.put(busId, route.getRouteId()));
+        return result;
+    }
+
+    /** Route file names currently loaded. */
+    public Set<String> getAllFiles() {
+        return snapshot.get().files().keySet();
+    }
+
+    /** Incremented on every swap of the route table. */
+    public long getVersion() {
+        return snapshot.get().version();
+    }
+
+    public Path getDirectory() {
+        return Paths.get(routesDir);
+    }
+
+    // Registers a route built in code and assigns the bus to it
+    synchronized void addRoute(String busId, RouteData route) {
+        Snapshot current = snapshot.get();
+        Map<String, RouteData> routes = new HashMap<>(current.routes());
+        routes.put(route.getRouteId(), route);
+        Map<String, String> overrides = new HashMap<>(current.overrides());
+        overrides.put(busId, route.getRouteId());
+        swap(current, routes, current.files(), overrides);
     }
 
     @PostConstruct
     public void loadRoutes() {
-        File folder = new File(routesDir); // Assuming "routes/" exists at the project root
-        File[] files = folder.listFiles((dir, name) -> name.endsWith(".geojson"));
+        snapshot.set(new Snapshot(0, Map.of(), Map.of(), parseAssignments(assignments), Map.of()));
+        File[] files = getDirectory().toFile().listFiles((dir, name) -> name.endsWith(SUFFIX));
 
         if (files == null) {
-            System.err.println("No route files found!");
+            log.error("No route files found in {}", routesDir);
             return;
         }
+        reload(Arrays.stream(files).map(File::getName).toList());
+    }
 
-        for (File file : files) {
-            try {
-                JsonNode root = objectMapper.readTree(file);
-                JsonNode feature = root.get("features").get(0); // assuming single feature
-                JsonNode props = feature.get("properties");
-                JsonNode geometry = feature.get("geometry");
-
-                String busId = props.get("busId").asText();
-                String routeId = props.get("routeId").asText();
-
-                // Parse stops
-                List<Stop> stops = new ArrayList<>();
-                for (JsonNode stopNode : props.get("stops")) {
-                    stops.add(new Stop(
-                            stopNode.get("stopId").asText(),
-                            stopNode.get("name").asText(),
-                            stopNode.get("lon").asDouble(),
-                            stopNode.get("lat").asDouble()
-                    ));
-                }
+    // "bus03:kiit_campus_loop, bus04:kiit_campus_loop"
+    static Map<String, String> parseAssignments(String spec) {
+        Map<String, String> result = new HashMap<>();
+        if (spec == null) return result;
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) continue;
+            int colon = entry.indexOf(':');
+            if (colon <= 0 || colon == entry.length() - 1) {
+                throw new IllegalArgumentException("routes.assignments: expected busId:routeId, got " + entry.trim());
+            }
+            result.put(entry.substring(0, colon).trim(), entry.substring(colon + 1).trim());
+        }
+        return result;
+    }
 
-                // Parse coordinates
-                List<Coordinate> coords = new ArrayList<>();
-                for (JsonNode coord : geometry.get("coordinates")) {
-                    coords.add(new Coordinate(coord.get(0).asDouble(), coord.get(1).asDouble()));
-                }
+    /**
+     * Re-reads the given route files (names within the routes directory; a missing file
+     * removes its route) and swaps in a new snapshot. Returns the busIds whose route
+     * changed, mapped to the new route or to null if the bus no longer has one.
+     */
+    public synchronized Map<String, RouteData> reload(Collection<String> fileNames) {
+        Snapshot current = snapshot.get();
+        Map<String, RouteData> routes = new HashMap<>(current.routes());
+        Map<String, RouteFile> files = new HashMap<>(current.files());
+        boolean touched = false;
 
-                for (Stop stop : stops) {
-                    int bestIndex = -1;
-                    double bestDistance = Double.MAX_VALUE;
-
-                    for (int i = 0; i < coords.size() - 1; i++) {
-                        Coordinate a = coords.get(i);
-                        Coordinate b = coords.get(i + 1);
-
-                        double dist = pointToSegmentDistance(
-                                stop.getLat(), stop.getLon(),
-                                a.getLat(), a.getLon(),
-                                b.getLat(), b.getLon()
-                        );
-                        //System.out.printf("Stop %s checking segment %d: dist = %.2f\n", stop.getName(), i, dist);
-                        if (dist < bestDistance) {
-                            bestDistance = dist;
-                            bestIndex = i;
-                        }
-                    }
-                    //System.out.printf("Stop %s matched with segment %d (dist %.2f meters)\n", stop.getName(), bestIndex, bestDistance);
-                    stop.setSegmentIndex(bestIndex);
+        for (String name : fileNames) {
+            if (!name.endsWith(SUFFIX)) continue;
+            File file = getDirectory().resolve(name).toFile();
+            RouteFile previous = files.get(name);
+            if (!file.isFile()) {
+                if (previous != null) {
+                    files.remove(name);
+                    routes.remove(previous.route().getRouteId());
+                    touched = true;
+                    log.info("Removed route: {}", previous.route().getRouteId());
                 }
+                continue;
+            }
+
+            RouteFile parsed;
+            try {
+                parsed = parseRouteFile(objectMapper.readTree(file), gridCellMeters, arrivalRadiusMeters);
+            } catch (IOException | RuntimeException e) {
+                log.error("Error loading file: {} ({}), keeping the previous version", name, e.getMessage());
+                continue;
+            }
+            String routeId = parsed.route().getRouteId();
+            String definedBy = files.entrySet().stream()
+                    .filter(f -> f.getValue().route().getRouteId().equals(routeId) && !f.getKey().equals(name))
+                    .map(Map.Entry::getKey).findFirst().orElse(null);
+            if (definedBy != null) {
+                log.error("Ignoring {}: route {} is already defined by {}", name, routeId, definedBy);
+                continue;
+            }
+            if (previous != null) routes.remove(previous.route().getRouteId());
+            routes.put(routeId, parsed.route());
+            files.put(name, parsed);
+            touched = true;
+            log.info("Loaded route: {} (default buses {})", routeId, parsed.busIds());
+        }
 
-                RouteData route = new RouteData(routeId, busId, coords, stops);
-                routeMap.put(busId, route);
-                System.out.println("Loaded route for bus: " + busId);
+        return touched ? swap(current, routes, files, current.overrides()) : Map.of();
+    }
+
+    /**
+     * Assigns the bus to a loaded route, overriding its file default. Returns the change
+     * as {@link #reload} does; throws IllegalArgumentException for an unknown route.
+     */
+    public synchronized Map<String, RouteData> assign(String busId, String routeId) {
+        Snapshot current = snapshot.get();
+        if (!current.routes().containsKey(routeId)) throw new IllegalArgumentException("unknown route " + routeId);
+        Map<String, String> overrides = new HashMap<>(current.overrides());
+        overrides.put(busId, routeId);
+        return swap(current, current.routes(), current.files(), overrides);
+    }
+
+    /** Takes the bus off its route, including a default from a route file. */
+    public synchronized Map<String, RouteData> unassign(String busId) {
+        Snapshot current = snapshot.get();
+        Map<String, String> overrides = new HashMap<>(current.overrides());
+        overrides.put(busId, UNASSIGNED);
+        return swap(current, current.routes(), current.files(), overrides);
+    }
 
-            } catch (IOException e) {
-                System.err.println("Error loading file: " + file.getName());
-                e.printStackTrace();
+    // Resolves bus -> route, publishes the snapshot and returns the buses whose route changed
+    private Map<String, RouteData> swap(Snapshot current, Map<String, RouteData> routes,
+                                        Map<String, RouteFile> files, Map<String, String> overrides) {
+        Map<String, RouteData> buses = new HashMap<>();
+        Map<String, String> defaultFrom = new HashMap<>();
+        for (Map.Entry<String, RouteFile> f : new TreeMap<>(files).entrySet()) {
+            for (String busId : f.getValue().busIds()) {
+                String other = defaultFrom.putIfAbsent(busId, f.getKey());
+                if (other != null) {
+                    log.warn("Bus {} is named by both {} and {}, keeping {}", busId, other, f.getKey(), other);
+                    continue;
+                }
+                buses.put(busId, f.getValue().route());
+            }
+        }
+        for (Map.Entry<String, String> o : overrides.entrySet()) {
+            RouteData route = routes.get(o.getValue());
+            if (route != null) {
+                buses.put(o.getKey(), route);
+            } else {
+                buses.remove(o.getKey());
+                if (!o.getValue().equals(UNASSIGNED)) {
+                    log.warn("Bus {} is assigned to route {}, which is not loaded", o.getKey(), o.getValue());
+                }
             }
         }
+
+        Map<String, RouteData> changed = new HashMap<>();
+        for (Map.Entry<String, RouteData> b : buses.entrySet()) {
+            if (current.buses().get(b.getKey()) != b.getValue()) changed.put(b.getKey(), b.getValue());
+        }
+        for (String busId : current.buses().keySet()) {
+            if (!buses.containsKey(busId)) changed.put(busId, null);
+        }
+        snapshot.set(new Snapshot(current.version() + 1, Map.copyOf(routes), Map.copyOf(files),
+                Map.copyOf(overrides), Map.copyOf(buses)));
+        return changed;
     }
 
-    private double pointToSegmentDistance(
-            double lat, double lon,           // point P
-            double aLat, double aLon,         // segment start A
-            double bLat, double bLon          // segment end B
-    ) {
-        // Project all points from lat/lon to x/y in meters
-        double x0 = lonToX(lon);
-        double y0 = latToY(lat);
-        double x1 = lonToX(aLon);
-        double y1 = latToY(aLat);
-        double x2 = lonToX(bLon);
-        double y2 = latToY(bLat);
+    // Parses one route GeoJSON: a single LineString feature with routeId and stops
+    // properties, optionally busId or busIds naming the buses that run it by default.
+    // A stop's arrivalRadius property overrides the default radius for that stop.
+    public static RouteFile parseRouteFile(JsonNode root, double gridCellMeters, double arrivalRadiusMeters) {
+        JsonNode features = root.path("features");
+        if (!features.isArray() || features.isEmpty()) throw new IllegalArgumentException("no features");
+        JsonNode feature = features.get(0); // assuming single feature
+        JsonNode props = feature.path("properties");
+        JsonNode geometry = feature.path("geometry");
 
-        double dx = x2 - x1;
-        double dy = y2 - y1;
+        String routeId = requiredText(props, "routeId");
+        List<String> busIds = new ArrayList<>();
+        if (props.hasNonNull("busId")) busIds.add(requiredText(props, "busId"));
+        for (JsonNode busNode : props.path("busIds")) {
+            String busId = busNode.asText("");
+            if (busId.isEmpty()) throw new IllegalArgumentException("empty entry in busIds");
+            if (!busIds.contains(busId)) busIds.add(busId);
+        }
 
-        if (dx == 0 && dy == 0) {
-            // A and B are the same point
-            return haversine(lat, lon, aLat, aLon);
+        // Parse stops
+        List<Stop> stops = new ArrayList<>();
+        Set<String> stopIds = new HashSet<>();
+        for (JsonNode stopNode : props.path("stops")) {
+            String stopId = requiredText(stopNode, "stopId");
+            if (!stopIds.add(stopId)) throw new IllegalArgumentException("duplicate stop " + stopId);
+            Stop stop = new Stop(
+                    stopId,
+                    stopNode.path("name").asText(stopId),
+                    requiredNumber(stopNode, "lon"),
+                    requiredNumber(stopNode, "lat")
+            );
+            stop.setArrivalRadius(stopNode.has("arrivalRadius")
+                    ? requiredNumber(stopNode, "arrivalRadius") : arrivalRadiusMeters);
+            if (stop.getArrivalRadius() <= 0) throw new IllegalArgumentException("arrivalRadius of " + stopId);
+            stops.add(stop);
         }
 
-        double t = ((x0 - x1) * dx + (y0 - y1) * dy) / (dx * dx + dy * dy);
-        t = Math.max(0, Math.min(1, t));
+        // Parse coordinates into packed arrays
+        JsonNode coordNodes = geometry.path("coordinates");
+        if (!coordNodes.isArray() || coordNodes.size() < 2) {
+            throw new IllegalArgumentException("route needs at least 2 coordinates");
+        }
+        double[] lats = new double[coordNodes.size()];
+        double[] lons = new double[coordNodes.size()];
+        for (int i = 0; i < coordNodes.size(); i++) {
+            lons[i] = coordNodes.get(i).get(0).asDouble();
+            lats[i] = coordNodes.get(i).get(1).asDouble();
+        }
 
-        double projX = x1 + t * dx;
-        double projY = y1 + t * dy;
+        return new RouteFile(buildRoute(routeId, lats, lons, stops, gridCellMeters), List.copyOf(busIds));
+    }
 
-        // Return Euclidean distance in meters
-        double dx0 = projX - x0;
-        double dy0 = projY - y0;
-        return Math.sqrt(dx0 * dx0 + dy0 * dy0);
+    private static String requiredText(JsonNode node, String field) {
+        String value = node.path(field).asText("");
+        if (value.isEmpty()) throw new IllegalArgumentException("missing " + field);
+        return value;
     }
 
-    private double lonToX(double lon) {
-        return lon * 111320.0;
+    private static double requiredNumber(JsonNode node, String field) {
+        JsonNode value = node.path(field);
+        if (!value.isNumber()) throw new IllegalArgumentException("missing or non-numeric " + field);
+        return value.asDouble();
     }
 
-    private double latToY(double lat) {
-        return lat * 110540.0;
+    // Indexes the polyline, snaps every stop onto it and precomputes along-route offsets
+    public static RouteData buildRoute(String routeId, double[] lats, double[] lons,
+                                       List<Stop> stops, double gridCellMeters) {
+        SegmentGrid grid = new SegmentGrid(lats, lons, gridCellMeters);
+        double[] stopLats = new double[stops.size()];
+        double[] stopLons = new double[stops.size()];
+        double[] stopRadii = new double[stops.size()];
+        for (int i = 0; i < stops.size(); i++) {
+            Stop stop = stops.get(i);
+            stop.setSegmentIndex(grid.nearestSegment(stop.getLat(), stop.getLon()));
+            stopLats[i] = stop.getLat();
+            stopLons[i] = stop.getLon();
+            stopRadii[i] = stop.getArrivalRadius();
+        }
+
+        // Prefix sums of segment lengths so along-route distance is a subtraction
+        double[] cumulative = new double[lats.length];
+        for (int i = 1; i < lats.length; i++) {
+            cumulative[i] = cumulative[i - 1] + haversine(lats[i - 1], lons[i - 1], lats[i], lons[i]);
+        }
+
+        RouteData route = new RouteData();
+        route.setRouteId(routeId);
+        route.setLats(lats);
+        route.setLons(lons);
+        route.setStops(List.copyOf(stops));
+        route.setStopLats(stopLats);
+        route.setStopLons(stopLons);
+        route.setStopRadii(stopRadii);
+        route.setCumulativeDistances(cumulative);
+        route.setSegmentGrid(grid);
+        for (Stop stop : stops) {
+            stop.setRouteOffset(route.offsetOf(stop.getSegmentIndex(), stop.getLat(), stop.getLon()));
+        }
+        bucketStops(route);
+        return route;
     }
 
+    // A stop is within reach of a segment if its along-route offset is within its arrival
+    // radius of some point on the segment, wrapping around the loop. Counted, then filled.
+    private static void bucketStops(RouteData route) {
+        int segments = route.getCumulativeDistances().length - 1;
+        int[] start = new int[segments + 1];
+        forEachReach(route, (segment, stop) -> start[segment + 1]++);
+        for (int s = 0; s < segments; s++) start[s + 1] += start[s];
 
+        int[] cursor = Arrays.copyOf(start, segments);
+        int[] bucket = new int[start[segments]];
+        forEachReach(route, (segment, stop) -> bucket[cursor[segment]++] = stop);
+        route.setSegmentStopStart(start);
+        route.setSegmentStops(bucket);
+    }
 
-}
+    private interface Reach {
+        void accept(int segment, int stop);
+    }
 
+    private static void forEachReach(RouteData route, Reach reach) {
+        double[] cumulative = route.getCumulativeDistances();
+        double length = route.getLength();
+        int[] seen = new int[cumulative.length - 1];
+        Arrays.fill(seen, -1);
+        for (int i = 0; i < route.getStops().size(); i++) {
+            double offset = route.getStops().get(i).getRouteOffset();
+            double radius = route.getStopRadii()[i];
+            reachSegments(cumulative, offset - radius, offset + radius, i, seen, reach);
+            if (offset - radius < 0) reachSegments(cumulative, length + offset - radius, length, i, seen, reach);
+            if (offset + radius > length) reachSegments(cumulative, 0, offset + radius - length, i, seen, reach);
+        }
+    }
+
+    // Every segment overlapping [from, to] along the route, each reported once per stop
+    private static void reachSegments(double[] cumulative, double from, double to, int stop, int[] seen,
+                                      Reach reach) {
+        int segments = cumulative.length - 1;
+        int low = 0;
+        int high = segments - 1;
+        while (low < high) {                         // first segment ending at or after from
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid + 1] < from) low = mid + 1;
+            else high = mid;
+        }
+        for (int s = low; s < segments && cumulative[s] <= to; s++) {
+            if (cumulative[s + 1] < from || seen[s] == stop) continue;
+            seen[s] = stop;
+            reach.accept(s, stop);
+        }
+    }
+}
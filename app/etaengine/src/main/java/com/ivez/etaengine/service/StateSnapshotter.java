@@ -0,0 +1,278 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.EtaPrediction;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.util.KalmanFilterBank;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Warm restart: periodically writes every bus state, Kalman filter and latest ETA set
+// to a compact binary file (write to temp, then atomic rename) and reads it back on
+// startup before the GPS feed is connected. Values are read from the live maps
+// without stopping ingest, so each record is as of the moment it was copied.
+@Service
+public class StateSnapshotter {
+
+    private static final Logger log = LoggerFactory.getLogger(StateSnapshotter.class);
+
+    private static final int MAGIC = 0x53544154;     // "STAT"
+    private static final int VERSION = 1;
+
+    private final BusStateTracker tracker;
+    private final EtaPredictor predictor;
+    private final Routes routes;
+
+    @Value("${snapshot.enabled}")
+    private boolean enabled;
+    @Value("${snapshot.file}")
+    private String file;
+    @Value("${snapshot.interval-seconds}")
+    private long intervalSeconds;
+    @Value("${snapshot.max-age-minutes}")
+    private long maxAgeMinutes;         // older snapshots describe other trips and are ignored
+
+    private ScheduledExecutorService scheduler;
+
+    public StateSnapshotter(BusStateTracker tracker, EtaPredictor predictor, Routes routes) {
+        this.tracker = tracker;
+        this.predictor = predictor;
+        this.routes = routes;
+    }
+
+    /** Restores the last snapshot, then starts taking new ones. Call before ingest starts. */
+    public void start() {
+        if (!enabled) return;
+        Path path = Paths.get(file);
+        if (Files.exists(path)) {
+            long start = System.nanoTime();
+            try {
+                restore(path);
+                log.info("Restored {} bus states and {} filters from {} in {} ms",
+                        tracker.getAllStates().size(), predictor.getFilters().size(), path,
+                        (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Ignoring unreadable snapshot {}: {}", path, e.toString());
+            }
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "state-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::snapshotQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (scheduler == null) return;
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        snapshotQuietly();
+    }
+
+    private void snapshotQuietly() {
+        try {
+            long start = System.nanoTime();
+            snapshot(Paths.get(file));
+            log.debug("Wrote state snapshot in {} µs", (System.nanoTime() - start) / 1000);
+        } catch (IOException | RuntimeException e) {
+            log.warn("State snapshot failed: {}", e.toString());
+        }
+    }
+
+    void snapshot(Path path) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16), crc))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(System.currentTimeMillis());
+                writeStates(out);
+                writeFilters(out);
+                writePredictions(out);
+                out.writeLong(crc.getValue());
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    void restore(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 1 << 16), crc))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a version " + VERSION + " state snapshot");
+            }
+            long writtenAt = in.readLong();
+            long ageMinutes = (System.currentTimeMillis() - writtenAt) / 60_000;
+            if (ageMinutes > maxAgeMinutes) {
+                log.info("Snapshot {} is {} min old, starting cold", path, ageMinutes);
+                return;
+            }
+            // Decode fully and verify the checksum before touching live state
+            List<BusState> states = readStates(in);
+            Map<String, KalmanFilterBank> filters = readFilters(in);
+            Map<String, List<EtaPrediction>> predictions = readPredictions(in);
+            long expected = crc.getValue();
+            if (in.readLong() != expected) throw new IOException("checksum mismatch");
+
+            Set<String> restored = new HashSet<>();
+            for (BusState state : states) {
+                RouteData route = routes.getRoute(state.getBusId());
+                // Routes may have changed since the snapshot: drop what no longer matches
+                if (route == null || state.getSegmentIndex() >= route.getLats().length - 1) continue;
+                tracker.restore(state);
+                restored.add(state.getBusId());
+            }
+            filters.keySet().retainAll(restored);
+            predictions.keySet().retainAll(restored);
+            predictor.restoreFilters(filters);
+            predictor.getPredictionMap().putAll(predictions);
+        }
+    }
+
+    private void writeStates(DataOutputStream out) throws IOException {
+        List<BusState> states = new ArrayList<>(tracker.getAllStates().values());
+        out.writeInt(states.size());
+        for (BusState s : states) {
+            out.writeUTF(s.getBusId());
+            out.writeDouble(s.getLat());
+            out.writeDouble(s.getLon());
+            out.writeDouble(s.getSpeed());
+            out.writeInt(s.getSegmentIndex());
+            out.writeDouble(s.getRouteOffset());
+            out.writeLong(s.getLastUpdated());
+            out.writeInt(s.getTrip());
+            List<String> arrived = new ArrayList<>(s.getArrivedStops());
+            out.writeInt(arrived.size());
+            for (String stopId : arrived) out.writeUTF(stopId);
+            Map<String, Long> times = new HashMap<>(s.getArrivalTimes());
+            out.writeInt(times.size());
+            for (Map.Entry<String, Long> e : times.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue());
+            }
+        }
+    }
+
+    private static List<BusState> readStates(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<BusState> states = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            BusState s = new BusState();
+            s.setBusId(in.readUTF());
+            s.setLat(in.readDouble());
+            s.setLon(in.readDouble());
+            s.setSpeed(in.readDouble());
+            s.setSegmentIndex(in.readInt());
+            s.setRouteOffset(in.readDouble());
+            s.setLastUpdated(in.readLong());
+            s.setTrip(in.readInt());
+            int arrived = in.readInt();
+            for (int k = 0; k < arrived; k++) s.getArrivedStops().add(in.readUTF());
+            int times = in.readInt();
+            Map<String, Long> arrivalTimes = new ConcurrentHashMap<>();
+            for (int k = 0; k < times; k++) arrivalTimes.put(in.readUTF(), in.readLong());
+            s.setArrivalTimes(arrivalTimes);
+            states.add(s);
+        }
+        return states;
+    }
+
+    private void writeFilters(DataOutputStream out) throws IOException {
+        Map<String, KalmanFilterBank> filters = predictor.getFilters();
+        out.writeInt(filters.size());
+        for (Map.Entry<String, KalmanFilterBank> e : filters.entrySet()) {
+            KalmanFilterBank bank = e.getValue().copy();
+            double[] estimates = bank.getEstimates();
+            double[] covariances = bank.getCovariances();
+            boolean[] initialized = bank.getInitialized();
+            out.writeUTF(e.getKey());
+            out.writeDouble(bank.getInitialCovariance());
+            out.writeDouble(bank.getProcessNoise());
+            out.writeDouble(bank.getMeasurementNoise());
+            out.writeInt(bank.size());
+            for (int i = 0; i < bank.size(); i++) {
+                out.writeDouble(estimates[i]);
+                out.writeDouble(covariances[i]);
+                out.writeBoolean(initialized[i]);
+            }
+        }
+    }
+
+    private static Map<String, KalmanFilterBank> readFilters(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        Map<String, KalmanFilterBank> filters = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            String busId = in.readUTF();
+            double initialCovariance = in.readDouble();
+            double processNoise = in.readDouble();
+            double measurementNoise = in.readDouble();
+            int size = in.readInt();
+            double[] estimates = new double[size];
+            double[] covariances = new double[size];
+            boolean[] initialized = new boolean[size];
+            for (int k = 0; k < size; k++) {
+                estimates[k] = in.readDouble();
+                covariances[k] = in.readDouble();
+                initialized[k] = in.readBoolean();
+            }
+            filters.put(busId, KalmanFilterBank.restore(initialCovariance, processNoise, measurementNoise,
+                    estimates, covariances, initialized));
+        }
+        return filters;
+    }
+
+    private void writePredictions(DataOutputStream out) throws IOException {
+        Map<String, List<EtaPrediction>> predictions = new HashMap<>(predictor.getPredictionMap());
+        out.writeInt(predictions.size());
+        for (Map.Entry<String, List<EtaPrediction>> e : predictions.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeInt(e.getValue().size());
+            for (EtaPrediction p : e.getValue()) {
+                out.writeUTF(p.getStopId());
+                out.writeLong(p.getEtaTimestamp());
+                out.writeLong(p.getLastUpdated());
+            }
+        }
+    }
+
+    private static Map<String, List<EtaPrediction>> readPredictions(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        Map<String, List<EtaPrediction>> predictions = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            String busId = in.readUTF();
+            int stops = in.readInt();
+            List<EtaPrediction> list = new ArrayList<>(stops);
+            for (int k = 0; k < stops; k++) {
+                list.add(new EtaPrediction(busId, in.readUTF(), in.readLong(), in.readLong()));
+            }
+            predictions.put(busId, list);
+        }
+        return predictions;
+    }
+}
@@ -0,0 +1,277 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.entity.StopArrival;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.model.Stop;
+import com.ivez.etaengine.repository.StopArrivalRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Historical stop-to-stop travel times, mined from stop_arrivals. Consecutive arrivals of a
+// bus at stop i and stop i+1 of its route give one sample for leg i, bucketed by weekday and
+// time of day of the departure. Each route keeps running means in flat arrays; after every
+// refresh the miner publishes per-bucket cumulative times, so the seconds from a bus's
+// position to every stop are a few subtractions. Sparse weekday buckets fall back to the
+// same time of day across all weekdays. The miner reads new rows incrementally by id on the
+// "travel-times" thread. A reloaded route is picked up at the next refresh, and one whose
+// stops changed is re-mined from scratch.
+@Service
+public class TravelTimes {
+
+    private static final Logger log = LoggerFactory.getLogger(TravelTimes.class);
+
+    private static final int DAYS = 7;
+    private static final int BATCH = 5000;
+
+    private final StopArrivalRepository arrivals;
+    private final Routes routes;
+
+    @Value("${travel-times.enabled}")
+    private boolean enabled;
+    @Value("${travel-times.refresh-minutes}")
+    private long refreshMinutes;
+    @Value("${travel-times.history-days}")
+    private int historyDays;
+    @Value("${travel-times.bucket-minutes}")
+    private int bucketMinutes;
+    @Value("${travel-times.min-samples}")
+    private int minSamples;
+    @Value("${travel-times.max-samples}")
+    private int maxSamples;
+    @Value("${travel-times.max-leg-seconds}")
+    private int maxLegSeconds;
+
+    // Published lookups, read by the ingest workers
+    private final Map<String, Lookup> lookups = new ConcurrentHashMap<>();
+
+    // Miner state, only touched under the monitor
+    private final Map<String, Accumulator> tables = new HashMap<>();
+    private final Map<String, StopArrival> lastArrival = new HashMap<>();
+    private long watermark;
+
+    private ScheduledExecutorService scheduler;
+
+    // Cumulative seconds from the first stop, (legs + 1) per weekday/bucket slot, NaN from
+    // the first leg without enough samples
+    private record Lookup(RouteData route, int buckets, int bucketMinutes, float[] cumulative) {}
+
+    public TravelTimes(StopArrivalRepository arrivals, Routes routes) {
+        this.arrivals = arrivals;
+        this.routes = routes;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "travel-times");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshQuietly, 0, refreshMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private void refreshQuietly() {
+        long start = System.nanoTime();
+        try {
+            int rows = refresh(LocalDate.now());
+            log.debug("Travel times refreshed from {} arrivals in {} ms", rows, (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.error("Travel time refresh failed", e);
+        }
+    }
+
+    /** Mines arrivals recorded since the last refresh and republishes the tables. Returns rows read. */
+    public synchronized int refresh(LocalDate today) {
+        if (rebind()) {
+            tables.clear();
+            lastArrival.clear();
+            watermark = 0;
+        }
+        LocalDate from = today.minusDays(historyDays);
+        int rows = 0;
+        List<StopArrival> batch;
+        do {
+            batch = arrivals.findByDateGreaterThanEqualAndIdGreaterThanOrderByIdAsc(from, watermark, Limit.of(BATCH));
+            ingest(batch);
+            rows += batch.size();
+            if (!batch.isEmpty()) watermark = batch.get(batch.size() - 1).getId();
+        } while (batch.size() == BATCH);
+        publish();
+        return rows;
+    }
+
+    // Points tables at the current route instances; true if any route's stop list changed
+    private boolean rebind() {
+        boolean changed = false;
+        for (Iterator<Map.Entry<String, Accumulator>> it = tables.entrySet().iterator(); it.hasNext(); ) {
+            Accumulator table = it.next().getValue();
+            RouteData current = routes.getRouteById(table.route.getRouteId());
+            if (current == null) {
+                it.remove();
+            } else if (current != table.route) {
+                if (!stopIds(current).equals(table.stopIds)) changed = true;
+                table.route = current;
+            }
+        }
+        return changed;
+    }
+
+    // Pairs each arrival with the bus's previous one (arrivals are read in id, i.e. write, order)
+    synchronized void ingest(List<StopArrival> batch) {
+        for (StopArrival arrival : batch) {
+            StopArrival previous = lastArrival.put(arrival.getBusId(), arrival);
+            if (previous == null) continue;
+            RouteData route = routes.getRoute(arrival.getBusId());
+            if (route == null) continue;
+            Accumulator table = tables.computeIfAbsent(route.getRouteId(), id -> new Accumulator(route, bucketCount()));
+            if (table.route != route) continue;              // stops changed, re-mined on the next refresh
+
+            int from = table.stopIndex.getOrDefault(previous.getStopId(), -1);
+            int to = table.stopIndex.getOrDefault(arrival.getStopId(), -1);
+            if (from < 0 || to != (from + 1) % table.legs) continue;       // not consecutive on this route
+            long seconds = Duration.between(previous.getArrivalTime(), arrival.getArrivalTime()).getSeconds();
+            if (seconds <= 0 || seconds > maxLegSeconds) continue;         // gap, layover or clock skew
+            table.add(slot(previous.getArrivalTime()), from, seconds, maxSamples);
+        }
+    }
+
+    synchronized void publish() {
+        for (Accumulator table : tables.values()) {
+            lookups.put(table.route.getRouteId(),
+                    new Lookup(table.route, table.buckets, bucketMinutes, table.cumulative(minSamples)));
+        }
+        lookups.keySet().retainAll(tables.keySet());
+    }
+
+    private int bucketCount() {
+        return (24 * 60 + bucketMinutes - 1) / bucketMinutes;
+    }
+
+    private int slot(LocalDateTime time) {
+        return (time.getDayOfWeek().getValue() - 1) * bucketCount()
+                + (time.getHour() * 60 + time.getMinute()) / bucketMinutes;
+    }
+
+    /**
+     * Historical seconds from a bus at the given along-route offset to each stop of the route,
+     * for the weekday and time of day of {@code now}, written into {@code out} (NaN where
+     * there is not enough history). Returns false if the route has no table.
+     */
+    public boolean secondsToStops(RouteData route, double busOffset, long now, double[] out) {
+        Lookup lookup = lookups.get(route.getRouteId());
+        if (lookup == null || lookup.route() != route) return false;
+        List<Stop> stops = route.getStops();
+        int n = stops.size();
+        if (n < 2) return false;
+
+        // The stop most recently passed, and how much of the leg after it is still ahead
+        int last = 0;
+        double behind = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            double d = route.distanceAlong(stops.get(i).getRouteOffset(), busOffset);
+            if (d < behind) {
+                behind = d;
+                last = i;
+            }
+        }
+        int next = (last + 1) % n;
+        double legMeters = route.distanceAlong(stops.get(last).getRouteOffset(), stops.get(next).getRouteOffset());
+        double remaining = legMeters <= 0 ? 0
+                : Math.min(1, route.distanceAlong(busOffset, stops.get(next).getRouteOffset()) / legMeters);
+
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault());
+        int slot = (time.getDayOfWeek().getValue() - 1) * lookup.buckets()
+                + (time.getHour() * 60 + time.getMinute()) / lookup.bucketMinutes();
+        float[] c = lookup.cumulative();
+        int base = slot * (n + 1);
+        double total = c[base + n];
+        double toNext = remaining * (c[base + last + 1] - c[base + last]);
+        for (int j = 0; j < n; j++) {
+            double after = j >= next ? c[base + j] - c[base + next] : total - c[base + next] + c[base + j];
+            out[j] = toNext + after;                                   // NaN propagates
+        }
+        return true;
+    }
+
+    private static List<String> stopIds(RouteData route) {
+        return route.getStops().stream().map(Stop::getStopId).toList();
+    }
+
+    // Running means per (weekday, bucket, leg); a leg i runs from stop i to stop i+1, the
+    // last one back to the first. Means are capped at maxSamples so they follow drift.
+    private static final class Accumulator {
+        RouteData route;
+        final List<String> stopIds;
+        final Map<String, Integer> stopIndex = new HashMap<>();
+        final int legs;
+        final int buckets;
+        final float[] mean;
+        final int[] count;
+
+        Accumulator(RouteData route, int buckets) {
+            this.route = route;
+            this.stopIds = stopIds(route);
+            for (int i = 0; i < stopIds.size(); i++) stopIndex.put(stopIds.get(i), i);
+            this.legs = stopIds.size();
+            this.buckets = buckets;
+            this.mean = new float[DAYS * buckets * legs];
+            this.count = new int[DAYS * buckets * legs];
+        }
+
+        void add(int slot, int leg, double seconds, int maxSamples) {
+            int k = slot * legs + leg;
+            int n = Math.min(count[k] + 1, maxSamples);
+            mean[k] += (float) ((seconds - mean[k]) / n);
+            count[k] = n;
+        }
+
+        float[] cumulative(int minSamples) {
+            float[] out = new float[DAYS * buckets * (legs + 1)];
+            for (int slot = 0; slot < DAYS * buckets; slot++) {
+                int bucket = slot % buckets;
+                int base = slot * (legs + 1);
+                for (int leg = 0; leg < legs; leg++) {
+                    out[base + leg + 1] = out[base + leg] + legSeconds(slot, bucket, leg, minSamples);
+                }
+            }
+            return out;
+        }
+
+        // This weekday's mean if it has enough samples, else the same bucket across the week
+        private float legSeconds(int slot, int bucket, int leg, int minSamples) {
+            int k = slot * legs + leg;
+            if (count[k] >= minSamples) return mean[k];
+            double sum = 0;
+            int samples = 0;
+            for (int day = 0; day < DAYS; day++) {
+                int d = (day * buckets + bucket) * legs + leg;
+                sum += (double) mean[d] * count[d];
+                samples += count[d];
+            }
+            return samples >= minSamples ? (float) (sum / samples) : Float.NaN;
+        }
+    }
+}
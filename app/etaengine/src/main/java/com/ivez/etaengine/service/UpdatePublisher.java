@@ -0,0 +1,177 @@
+package com.ivez.etaengine.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.ivez.etaengine.cluster.ClusterNode;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.ws.EtaFrame;
+import com.ivez.etaengine.ws.EtaWebSocketHandler;
+import com.ivez.etaengine.ws.FrameCodec;
+import com.ivez.etaengine.ws.Topics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Builds the frames for ETA and position updates and hands them to the WebSocket
+// handler. Keeps, per bus and stream, what was last published so v2 clients only
+// receive ETAs that moved by more than the threshold and newly arrived stops.
+// ETA keyframes carry that same last-published baseline rather than the latest
+// values, so a client that joins or resyncs between periodic keyframes holds
+// exactly what every other delta client holds: within the threshold of the truth.
+// Each bus is only ever published from its own ingest worker. In cluster mode the
+// owner's updates are also relayed to the other nodes, which deliver them locally.
+@Service
+public class UpdatePublisher {
+
+    private static final int PROTOCOL_VERSION = 2;
+
+    private final EtaWebSocketHandler etaWs;
+    private final FrameCodec codec;
+    private final ClusterNode cluster;
+
+    @Value("${ws.delta.eta-threshold-ms}")
+    private long etaThresholdMs;
+    @Value("${ws.delta.keyframe-interval}")
+    private int keyframeInterval;
+
+    private final Map<String, EtaStream> etaStreams = new ConcurrentHashMap<>();
+    private final Map<String, PositionStream> positionStreams = new ConcurrentHashMap<>();
+
+    public UpdatePublisher(EtaWebSocketHandler etaWs, FrameCodec codec, ClusterNode cluster) {
+        this.etaWs = etaWs;
+        this.codec = codec;
+        this.cluster = cluster;
+    }
+
+    public void publishEta(String busId, RouteData route, Map<String, Long> etaPerStop) {
+        deliverEta(busId, route, etaPerStop);
+        cluster.relayEta(busId, etaPerStop);
+    }
+
+    public void publishPosition(BusState state, RouteData route, int occupancy) {
+        deliverPosition(state, route, occupancy);
+        cluster.relayPosition(state, occupancy);
+    }
+
+    /** Sends an ETA update to this node's clients only (updates relayed from the owner node). */
+    public void deliverEta(String busId, RouteData route, Map<String, Long> etaPerStop) {
+        EtaStream stream = etaStreams.computeIfAbsent(busId, id -> new EtaStream());
+        long seq = ++stream.seq;
+        boolean periodicKey = seq % keyframeInterval == 1;
+
+        Map<String, Long> changed = new HashMap<>();
+        stream.lastSent.keySet().retainAll(etaPerStop.keySet());     // stops dropped by a route reload
+        for (Map.Entry<String, Long> e : etaPerStop.entrySet()) {
+            Long sent = stream.lastSent.get(e.getKey());
+            long eta = e.getValue();
+            boolean moved = sent == null
+                    || (eta < 0) != (sent < 0)
+                    || Math.abs(eta - sent) > etaThresholdMs;
+            if (moved || periodicKey) {
+                changed.put(e.getKey(), eta);
+                stream.lastSent.put(e.getKey(), eta);
+            }
+        }
+
+        FrameCodec.Body legacy = g -> {
+            g.writeStringField("busId", busId);
+            FrameCodec.writeLongMap(g, "etaPerStop", etaPerStop);
+        };
+        // Copied now: the stream's baseline moves on with the next update
+        Map<String, Long> baseline = periodicKey ? etaPerStop : new HashMap<>(stream.lastSent);
+        FrameCodec.Body keyframe = etaEnvelope(busId, seq, true, baseline);
+        FrameCodec.Body delta = periodicKey ? keyframe : etaEnvelope(busId, seq, false, changed);
+        etaWs.broadcastEtaUpdate(new EtaFrame("eta:" + busId, Topics.forBus(busId, route),
+                legacy, keyframe, delta, codec));
+    }
+
+    /** Sends a position update to this node's clients only (updates relayed from the owner node). */
+    public void deliverPosition(BusState state, RouteData route, int occupancy) {
+        String busId = state.getBusId();
+        PositionStream stream = positionStreams.computeIfAbsent(busId, id -> new PositionStream());
+        long seq = ++stream.seq;
+        // A new trip clears the arrived stops, which deltas (arrivals only) cannot express
+        boolean newTrip = state.getTrip() != stream.trip;
+        stream.trip = state.getTrip();
+        boolean keyframeDue = seq % keyframeInterval == 1 || newTrip;
+
+        Set<String> arrivedStops = new HashSet<>(state.getArrivedStops());
+        Map<String, Long> arrivalTimes = new HashMap<>(state.getArrivalTimes());
+
+        Map<String, Long> newArrivals = new HashMap<>();
+        for (Map.Entry<String, Long> e : arrivalTimes.entrySet()) {
+            if (!e.getValue().equals(stream.sentArrivals.get(e.getKey()))) {
+                newArrivals.put(e.getKey(), e.getValue());
+            }
+        }
+        stream.sentArrivals.keySet().retainAll(arrivalTimes.keySet());   // new trip
+        stream.sentArrivals.putAll(newArrivals);
+
+        // Snapshot the scalars now: the frame may be encoded after the next ping lands
+        double lat = state.getLat();                 // already smoothed
+        double lon = state.getLon();
+        long timestamp = state.getLastUpdated();
+
+        FrameCodec.Body legacy = g -> {
+            g.writeStringField("busId", busId);
+            g.writeNumberField("lat", lat);
+            g.writeNumberField("lon", lon);
+            g.writeNumberField("timestamp", timestamp);
+            FrameCodec.writeStrings(g, "arrivedStops", arrivedStops);
+            FrameCodec.writeLongMap(g, "arrivalTimes", arrivalTimes);
+            g.writeNumberField("occupancy", occupancy);
+        };
+        FrameCodec.Body keyframe = g -> {
+            writeHeader(g, "pos", busId, seq, true);
+            writePosition(g, lat, lon, timestamp, occupancy);
+            FrameCodec.writeStrings(g, "arrivedStops", arrivedStops);
+            FrameCodec.writeLongMap(g, "arrivalTimes", arrivalTimes);
+        };
+        FrameCodec.Body delta = keyframeDue ? keyframe : g -> {
+            writeHeader(g, "pos", busId, seq, false);
+            writePosition(g, lat, lon, timestamp, occupancy);
+            FrameCodec.writeStrings(g, "arrivedStops", newArrivals.keySet());
+            FrameCodec.writeLongMap(g, "arrivalTimes", newArrivals);
+        };
+        etaWs.broadcastEtaUpdate(new EtaFrame("pos:" + busId, Topics.forBus(busId, route),
+                legacy, keyframe, delta, codec));
+    }
+
+    private FrameCodec.Body etaEnvelope(String busId, long seq, boolean keyframe, Map<String, Long> etaPerStop) {
+        return g -> {
+            writeHeader(g, "eta", busId, seq, keyframe);
+            FrameCodec.writeLongMap(g, "etaPerStop", etaPerStop);
+        };
+    }
+
+    private static void writeHeader(JsonGenerator g, String type, String busId, long seq, boolean keyframe)
+            throws IOException {
+        g.writeNumberField("v", PROTOCOL_VERSION);
+        g.writeStringField("type", type);
+        g.writeBooleanField("keyframe", keyframe);
+        g.writeNumberField("seq", seq);
+        g.writeStringField("busId", busId);
+    }
+
+    private static void writePosition(JsonGenerator g, double lat, double lon, long timestamp, int occupancy)
+            throws IOException {
+        g.writeNumberField("lat", lat);
+        g.writeNumberField("lon", lon);
+        g.writeNumberField("timestamp", timestamp);
+        g.writeNumberField("occupancy", occupancy);
+    }
+
+    private static final class EtaStream {
+        long seq;
+        final Map<String, Long> lastSent = new HashMap<>();
+    }
+
+    private static final class PositionStream {
+        long seq;
+        int trip;
+        final Map<String, Long> sentArrivals = new HashMap<>();
+    }
+}
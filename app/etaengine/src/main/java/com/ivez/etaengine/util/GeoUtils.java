@@ -17,4 +17,18 @@ public class GeoUtils {
         double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
         return R * c;
     }
+
+    // Fraction [0, 1] along segment A→B of the projection of P, on a local flat-earth plane
+    public static double segmentFraction(double lat, double lon,
+                                         double aLat, double aLon,
+                                         double bLat, double bLon) {
+        double kx = Math.cos(Math.toRadians(aLat));
+        double dx = (bLon - aLon) * kx;
+        double dy = bLat - aLat;
+        double len2 = dx * dx + dy * dy;
+        if (len2 == 0) return 0;
+
+        double t = ((lon - aLon) * kx * dx + (lat - aLat) * dy) / len2;
+        return Math.max(0, Math.min(1, t));
+    }
 }
@@ -0,0 +1,113 @@
+package com.ivez.etaengine.util;
+
+import java.util.Arrays;
+
+// The scalar filters of KalmanFilter for every stop of one bus, held in parallel arrays
+// indexed by stop ordinal and stepped together in one branch-free loop. The bus's ingest
+// worker is the only writer; the methods are synchronized so snapshot and handoff threads
+// always copy a consistent bank.
+public class KalmanFilterBank {
+
+    private final double initialCovariance;
+    private final double processNoise;
+    private final double measurementNoise;
+    private final double[] estimates;
+    private final double[] covariances;
+    private final boolean[] initialized;
+
+    public KalmanFilterBank(int size, double initialCovariance, double processNoise, double measurementNoise) {
+        this.initialCovariance = initialCovariance;
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+        this.estimates = new double[size];
+        this.covariances = new double[size];
+        this.initialized = new boolean[size];
+        Arrays.fill(covariances, initialCovariance);
+    }
+
+    /**
+     * Steps filter i with measurements[i]; NaN entries leave their filter untouched. Writes
+     * each estimate to out[i], NaN for filters that have never had a measurement. out may
+     * be the measurements array.
+     */
+    public synchronized void update(double[] measurements, double[] out) {
+        double q = processNoise;
+        double r = measurementNoise;
+        for (int i = 0; i < estimates.length; i++) {
+            double z = measurements[i];
+            boolean measured = z == z;                       // not NaN
+            double x = initialized[i] ? estimates[i] : z;   // the first measurement seeds the filter
+            double p = covariances[i] + q;
+            double gain = p / (p + r);
+            double estimate = measured ? x + gain * (z - x) : estimates[i];
+            boolean seen = initialized[i] | measured;
+            estimates[i] = estimate;
+            covariances[i] = measured ? (1 - gain) * p : covariances[i];
+            initialized[i] = seen;
+            out[i] = seen ? estimate : Double.NaN;
+        }
+    }
+
+    /** Back to unseeded filters, e.g. when the bus starts a new trip. */
+    public synchronized void reset() {
+        Arrays.fill(estimates, 0);
+        Arrays.fill(covariances, initialCovariance);
+        Arrays.fill(initialized, false);
+    }
+
+    public int size() {
+        return estimates.length;
+    }
+
+    /** A detached copy, for snapshots and handoff. */
+    public synchronized KalmanFilterBank copy() {
+        return restore(initialCovariance, processNoise, measurementNoise, estimates, covariances, initialized);
+    }
+
+    public synchronized double getEstimate(int i) {
+        return estimates[i];
+    }
+
+    public synchronized double getErrorCovariance(int i) {
+        return covariances[i];
+    }
+
+    public synchronized boolean isInitialized(int i) {
+        return initialized[i];
+    }
+
+    public synchronized double[] getEstimates() {
+        return estimates.clone();
+    }
+
+    public synchronized double[] getCovariances() {
+        return covariances.clone();
+    }
+
+    public synchronized boolean[] getInitialized() {
+        return initialized.clone();
+    }
+
+    public double getInitialCovariance() {
+        return initialCovariance;
+    }
+
+    public double getProcessNoise() {
+        return processNoise;
+    }
+
+    public double getMeasurementNoise() {
+        return measurementNoise;
+    }
+
+    // Resume a bank saved with the getters above (warm restart, cluster handoff)
+    public static KalmanFilterBank restore(double initialCovariance, double processNoise, double measurementNoise,
+                                           double[] estimates, double[] covariances, boolean[] initialized) {
+        KalmanFilterBank bank = new KalmanFilterBank(estimates.length, initialCovariance, processNoise,
+                measurementNoise);
+        System.arraycopy(estimates, 0, bank.estimates, 0, estimates.length);
+        System.arraycopy(covariances, 0, bank.covariances, 0, covariances.length);
+        System.arraycopy(initialized, 0, bank.initialized, 0, initialized.length);
+        return bank;
+    }
+}
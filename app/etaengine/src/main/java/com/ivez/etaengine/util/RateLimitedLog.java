@@ -0,0 +1,42 @@
+package com.ivez.etaengine.util;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Logs at most one message per interval for a hot-path call site and reports
+// how many were suppressed in between, so a flood of bad pings can't flood the log.
+public class RateLimitedLog {
+
+    private final Logger log;
+    private final long intervalMillis;
+    private final AtomicLong nextAllowed = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public RateLimitedLog(Logger log, long intervalMillis) {
+        this.log = log;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void warn(String format, Object... args) {
+        long now = System.currentTimeMillis();
+        long next = nextAllowed.get();
+        if (now < next || !nextAllowed.compareAndSet(next, now + intervalMillis)) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        long skipped = suppressed.getAndSet(0);
+        if (skipped > 0) {
+            log.warn(format + " ({} similar messages suppressed)", append(args, skipped));
+        } else {
+            log.warn(format, args);
+        }
+    }
+
+    private static Object[] append(Object[] args, Object extra) {
+        Object[] all = new Object[args.length + 1];
+        System.arraycopy(args, 0, all, 0, args.length);
+        all[args.length] = extra;
+        return all;
+    }
+}
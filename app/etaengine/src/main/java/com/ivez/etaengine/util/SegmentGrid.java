@@ -0,0 +1,172 @@
+package com.ivez.etaengine.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Uniform-grid spatial index over the segments of one route polyline.
+// Vertices are projected once onto a local flat plane (meters, origin at the
+// first vertex); each grid cell lists the segments whose bounding box touches it.
+public class SegmentGrid {
+
+    private static final double METERS_PER_DEG_LAT = 110540.0;
+    private static final double METERS_PER_DEG_LON = 111320.0;
+
+    private final double originLat;
+    private final double originLon;
+    private final double lonScale;        // meters per degree of longitude at the origin
+
+    private final double[] xs;            // projected vertices
+    private final double[] ys;
+    private final int segmentCount;
+
+    private final double cellSize;
+    private final double minX;
+    private final double minY;
+    private final int nx;
+    private final int ny;
+    private final int[] cellStart;        // CSR: segments of cell c are cellSegments[cellStart[c] .. cellStart[c+1])
+    private final int[] cellSegments;
+
+    public SegmentGrid(double[] lats, double[] lons, double cellSize) {
+        if (lats.length < 2) {
+            throw new IllegalArgumentException("Route needs at least two vertices");
+        }
+        this.originLat = lats[0];
+        this.originLon = lons[0];
+        this.lonScale = METERS_PER_DEG_LON * Math.cos(Math.toRadians(originLat));
+        this.cellSize = cellSize;
+        this.segmentCount = lats.length - 1;
+
+        xs = new double[lats.length];
+        ys = new double[lats.length];
+        double loX = Double.MAX_VALUE, loY = Double.MAX_VALUE, hiX = -Double.MAX_VALUE, hiY = -Double.MAX_VALUE;
+        for (int i = 0; i < lats.length; i++) {
+            xs[i] = projectX(lons[i]);
+            ys[i] = projectY(lats[i]);
+            loX = Math.min(loX, xs[i]);
+            loY = Math.min(loY, ys[i]);
+            hiX = Math.max(hiX, xs[i]);
+            hiY = Math.max(hiY, ys[i]);
+        }
+        minX = loX;
+        minY = loY;
+        nx = (int) ((hiX - loX) / cellSize) + 1;
+        ny = (int) ((hiY - loY) / cellSize) + 1;
+
+        // Two passes: count segments per cell, then fill
+        int[] counts = new int[nx * ny + 1];
+        for (int s = 0; s < segmentCount; s++) {
+            forEachCell(s, c -> counts[c + 1]++);
+        }
+        for (int c = 0; c < nx * ny; c++) {
+            counts[c + 1] += counts[c];
+        }
+        cellStart = counts;
+        cellSegments = new int[cellStart[nx * ny]];
+        int[] fill = Arrays.copyOf(cellStart, nx * ny);
+        for (int s = 0; s < segmentCount; s++) {
+            final int seg = s;
+            forEachCell(s, c -> cellSegments[fill[c]++] = seg);
+        }
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /** Closest segment to the point over the whole route. */
+    public int nearestSegment(double lat, double lon) {
+        double px = projectX(lon);
+        double py = projectY(lat);
+        int cx = (int) Math.floor((px - minX) / cellSize);
+        int cy = (int) Math.floor((py - minY) / cellSize);
+        // Rings closer than minRing lie entirely outside the grid (point off the route area)
+        int minRing = Math.max(0, Math.max(Math.max(-cx, cx - (nx - 1)), Math.max(-cy, cy - (ny - 1))));
+        int maxRing = Math.max(Math.max(cx, nx - 1 - cx), Math.max(cy, ny - 1 - cy));
+
+        int best = -1;
+        double bestD2 = Double.MAX_VALUE;
+        for (int r = minRing; r <= maxRing; r++) {
+            for (int y = Math.max(cy - r, 0); y <= Math.min(cy + r, ny - 1); y++) {
+                boolean edgeRow = y == cy - r || y == cy + r;
+                int step = edgeRow || r == 0 ? 1 : 2 * r;
+                for (int x = cx - r; x <= cx + r; x += step) {
+                    if (x < 0 || x >= nx) continue;
+                    int c = y * nx + x;
+                    for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                        int s = cellSegments[k];
+                        double d2 = distanceSq(px, py, s);
+                        if (d2 < bestD2 || (d2 == bestD2 && s < best)) {
+                            bestD2 = d2;
+                            best = s;
+                        }
+                    }
+                }
+            }
+            // Every unvisited cell is at least r cells away from the point
+            double reach = r * cellSize;
+            if (best >= 0 && bestD2 <= reach * reach) break;
+        }
+        return best;
+    }
+
+    /**
+     * Closest segment within {@code window} segments either side of {@code hint}
+     * (wrapping around the loop), or -1 if none of them is within {@code maxMeters}.
+     */
+    public int nearestSegmentNear(double lat, double lon, int hint, int window, double maxMeters) {
+        if (hint < 0 || hint >= segmentCount) return -1;
+        double px = projectX(lon);
+        double py = projectY(lat);
+
+        int best = -1;
+        double bestD2 = Double.MAX_VALUE;
+        int span = Math.min(window, segmentCount / 2);
+        for (int k = -span; k <= span; k++) {
+            int s = Math.floorMod(hint + k, segmentCount);
+            double d2 = distanceSq(px, py, s);
+            if (d2 < bestD2) {
+                bestD2 = d2;
+                best = s;
+            }
+        }
+        return bestD2 <= maxMeters * maxMeters ? best : -1;
+    }
+
+    /** Distance in meters from the point to the given segment. */
+    public double distanceToSegment(double lat, double lon, int segment) {
+        return Math.sqrt(distanceSq(projectX(lon), projectY(lat), segment));
+    }
+
+    private double distanceSq(double px, double py, int s) {
+        double ax = xs[s], ay = ys[s];
+        double dx = xs[s + 1] - ax;
+        double dy = ys[s + 1] - ay;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / len2;
+        t = Math.max(0, Math.min(1, t));
+        double ex = ax + t * dx - px;
+        double ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+
+    private void forEachCell(int s, IntConsumer action) {
+        int x0 = (int) ((Math.min(xs[s], xs[s + 1]) - minX) / cellSize);
+        int x1 = (int) ((Math.max(xs[s], xs[s + 1]) - minX) / cellSize);
+        int y0 = (int) ((Math.min(ys[s], ys[s + 1]) - minY) / cellSize);
+        int y1 = (int) ((Math.max(ys[s], ys[s + 1]) - minY) / cellSize);
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                action.accept(y * nx + x);
+            }
+        }
+    }
+
+    private double projectX(double lon) {
+        return (lon - originLon) * lonScale;
+    }
+
+    private double projectY(double lat) {
+        return (lat - originLat) * METERS_PER_DEG_LAT;
+    }
+}
@@ -0,0 +1,53 @@
+package com.ivez.etaengine.ws;
+
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.Collection;
+
+// One immutable update about one bus, in every shape a client may ask for:
+//  • legacy   – the original full-state JSON (no envelope), for clients that never negotiated
+//  • keyframe – v2 full state, sent on (re)sync and periodically
+//  • delta    – v2 changes since the previous frame of the same stream
+// Each shape is encoded at most once per encoding, on first use, and the resulting
+// message is shared by every recipient.
+public class EtaFrame {
+
+    public enum Variant { LEGACY, KEYFRAME, DELTA }
+
+    private final String key;                 // coalescing key / stream id, e.g. "eta:bus01"
+    private final Collection<String> topics;
+    private final FrameCodec.Body[] bodies;   // indexed by Variant
+    private final WebSocketMessage<?>[][] encoded =
+            new WebSocketMessage<?>[Variant.values().length][FrameCodec.Encoding.values().length];
+    private final FrameCodec codec;
+
+    public EtaFrame(String key, Collection<String> topics,
+                    FrameCodec.Body legacy, FrameCodec.Body keyframe, FrameCodec.Body delta,
+                    FrameCodec codec) {
+        this.key = key;
+        this.topics = topics;
+        this.bodies = new FrameCodec.Body[]{legacy, keyframe, delta};
+        this.codec = codec;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Collection<String> getTopics() {
+        return topics;
+    }
+
+    public synchronized WebSocketMessage<?> message(Variant variant, FrameCodec.Encoding encoding) {
+        WebSocketMessage<?> message = encoded[variant.ordinal()][encoding.ordinal()];
+        if (message == null) {
+            try {
+                message = codec.encode(bodies[variant.ordinal()], encoding);
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to encode " + variant + " frame for " + key, e);
+            }
+            encoded[variant.ordinal()][encoding.ordinal()] = message;
+        }
+        return message;
+    }
+}
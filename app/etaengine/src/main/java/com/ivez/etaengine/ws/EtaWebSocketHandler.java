@@ -1,64 +1,234 @@
 package com.ivez.etaengine.ws;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ivez.etaengine.dto.SubscriptionRequest;
+import com.ivez.etaengine.service.PipelineMetrics;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.annotation.PostConstruct;
-import java.io.IOException;
-import java.util.Set;
+import javax.annotation.PreDestroy;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// Fans ETA / position updates out to /ws/eta clients. Clients pick topics either
+// with query parameters on connect (?busId=bus01&stopId=stop_kc_1) or by sending a
+// SubscriptionRequest; clients that never subscribe keep receiving every update.
+// Adding protocol=delta (and optionally encoding=cbor) switches a client from
+// full-state JSON to versioned keyframe/delta frames.
 @Component
 public class EtaWebSocketHandler extends TextWebSocketHandler {
-    private final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+
+    private static final Logger log = LoggerFactory.getLogger(EtaWebSocketHandler.class);
+
+    private final Map<String, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+    private final Set<SessionOutbox> unfiltered = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<SessionOutbox>> subscribers = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${ws.sender-threads}")
+    private int senderThreads;
+    @Value("${ws.send-time-limit-ms}")
+    private long sendTimeLimitMs;
+    @Value("${ws.buffer-size-limit}")
+    private int bufferSizeLimit;
+
+    private ExecutorService senders;
+    private ScheduledExecutorService stallSweeper;
+
+    private final PipelineMetrics metrics;
+    private final Counter slowClientsDropped;
+
+    public EtaWebSocketHandler(PipelineMetrics metrics) {
+        this.metrics = metrics;
+        this.slowClientsDropped = metrics.counter("eta.ws.slow_clients.dropped");
+        metrics.gauge("eta.ws.sessions", outboxes, Map::size);
+    }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        sessions.add(session);
-        System.out.println("[CONNECTED] " + session.getId() + ", Total: " + sessions.size());
-        System.out.println("Handler instance: " + this);
+        SessionOutbox outbox = new SessionOutbox(session, senders, sendTimeLimitMs, bufferSizeLimit,
+                slowClientsDropped::increment);
+        outboxes.put(session.getId(), outbox);
+
+        List<String> initial = List.of();
+        if (session.getUri() != null) {
+            MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams();
+            initial = topicsFromQuery(params);
+            if ("delta".equals(params.getFirst("protocol"))) {
+                outbox.setProtocol(true, FrameCodec.parseEncoding(params.getFirst("encoding")));
+            }
+        }
+        if (initial.isEmpty()) {
+            unfiltered.add(outbox);
+        } else {
+            subscribe(outbox, initial);
+        }
+        log.info("Client {} connected, total {}{}", session.getId(), outboxes.size(),
+                initial.isEmpty() ? "" : ", topics " + initial);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        SessionOutbox outbox = outboxes.get(session.getId());
+        if (outbox == null) return;
+        try {
+            SubscriptionRequest request = objectMapper.readValue(message.getPayload(), SubscriptionRequest.class);
+            List<String> topics = new ArrayList<>();
+            request.getBusIds().forEach(id -> topics.add(Topics.bus(id)));
+            request.getRouteIds().forEach(id -> topics.add(Topics.route(id)));
+            request.getStopIds().forEach(id -> topics.add(Topics.stop(id)));
+
+            if (request.getProtocol() != null) {
+                outbox.setProtocol("delta".equals(request.getProtocol()), FrameCodec.parseEncoding(request.getEncoding()));
+            }
+
+            if ("resync".equals(request.getAction())) {
+                outbox.resync();
+            } else if ("subscribe".equals(request.getAction())) {
+                subscribe(outbox, topics);
+            } else if ("unsubscribe".equals(request.getAction())) {
+                unsubscribe(outbox, topics);
+            } else {
+                log.warn("Unknown action from {}: {}", session.getId(), request.getAction());
+            }
+        } catch (Exception e) {
+            log.warn("Bad subscription message from {}: {}", session.getId(), e.getMessage());
+        }
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        sessions.remove(session);
-        System.out.println("[DISCONNECTED] " + session.getId() + " (" + status + ")");
+        remove(session);
+        log.info("Client {} disconnected ({})", session.getId(), status);
     }
 
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
-        System.err.println("⚠️ WebSocket error on session " + session.getId() + ": " + exception.getMessage());
-        sessions.remove(session);
+        log.warn("WebSocket error on session {}: {}", session.getId(), exception.getMessage());
+        remove(session);
         if (session.isOpen()) {
             session.close(CloseStatus.SERVER_ERROR);
         }
     }
 
-    public void broadcastEtaUpdate(String etaJson) {
-        System.out.println("[BROADCASTING] to " + sessions.size() + " clients");
-        System.out.println("Handler instance: " + this);
+    /**
+     * Queues a frame for every client subscribed to any of its topics, plus
+     * clients that never subscribed. Frames sharing a key (e.g. "eta:bus01")
+     * replace each other in a lagging client's queue.
+     */
+    public void broadcastEtaUpdate(EtaFrame frame) {
+        long start = System.nanoTime();
+        try {
+            fanOut(frame);
+        } finally {
+            metrics.recordStage(PipelineMetrics.Stage.FANOUT, start);
+        }
+    }
 
-        for (WebSocketSession session : sessions) {
-            if (!session.isOpen()) {
-                sessions.remove(session);
+    private void fanOut(EtaFrame frame) {
+        Set<SessionOutbox> recipients = Collections.newSetFromMap(new IdentityHashMap<>());
+        recipients.addAll(unfiltered);
+        for (String topic : frame.getTopics()) {
+            Set<SessionOutbox> subs = subscribers.get(topic);
+            if (subs != null) recipients.addAll(subs);
+        }
+
+        for (SessionOutbox outbox : recipients) {
+            if (outbox.isClosed()) {
+                remove(outbox.getSession());
                 continue;
             }
-
             try {
-                session.sendMessage(new TextMessage(etaJson));
-            } catch (IOException e) {
-                System.err.println("❌ Failed to send to session " + session.getId() + ": " + e.getMessage());
-                sessions.remove(session);
-                try {
-                    session.close(CloseStatus.SERVER_ERROR);
-                } catch (IOException ignore) {}
+                outbox.offer(frame);
+            } catch (IllegalStateException e) {
+                // Only this variant/encoding failed; the other recipients may want a different one
+                log.error("Failed to encode frame {} for {}: {}", frame.getKey(), outbox.getSession().getId(), e.getMessage());
+            }
+        }
+    }
+
+    private void subscribe(SessionOutbox outbox, Collection<String> topics) {
+        outbox.setFiltered(true);
+        unfiltered.remove(outbox);
+        boolean added = false;
+        for (String topic : topics) {
+            if (outbox.getTopics().add(topic)) {
+                subscribers.computeIfAbsent(topic, t -> ConcurrentHashMap.newKeySet()).add(outbox);
+                added = true;
+            }
+        }
+        // Streams of a topic dropped earlier moved on without this client: start them with keyframes
+        if (added) outbox.resync();
+    }
+
+    private void unsubscribe(SessionOutbox outbox, Collection<String> topics) {
+        for (String topic : topics) {
+            if (outbox.getTopics().remove(topic)) {
+                subscribers.computeIfPresent(topic, (t, subs) -> {
+                    subs.remove(outbox);
+                    return subs.isEmpty() ? null : subs;
+                });
             }
         }
     }
 
+    private void remove(WebSocketSession session) {
+        SessionOutbox outbox = outboxes.remove(session.getId());
+        if (outbox == null) return;
+        outbox.dispose();
+        unfiltered.remove(outbox);
+        unsubscribe(outbox, new ArrayList<>(outbox.getTopics()));
+    }
+
+    private List<String> topicsFromQuery(MultiValueMap<String, String> params) {
+        List<String> topics = new ArrayList<>();
+        params.getOrDefault("busId", List.of()).forEach(id -> topics.add(Topics.bus(id)));
+        params.getOrDefault("routeId", List.of()).forEach(id -> topics.add(Topics.route(id)));
+        params.getOrDefault("stopId", List.of()).forEach(id -> topics.add(Topics.stop(id)));
+        return topics;
+    }
+
     @PostConstruct
     public void init() {
-        System.out.println("Handler instance: " + this);
+        AtomicInteger n = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(senderThreads, r -> {
+            Thread t = new Thread(r, "ws-sender-" + n.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        // Sessions whose send is stuck and that get no further frames to notice it on offer
+        stallSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-stall-sweep");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(100, sendTimeLimitMs / 2);
+        stallSweeper.scheduleWithFixedDelay(this::closeStalled, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void closeStalled() {
+        long now = System.currentTimeMillis();
+        for (SessionOutbox outbox : outboxes.values()) {
+            if (outbox.closeIfStalled(now)) remove(outbox.getSession());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (stallSweeper != null) stallSweeper.shutdownNow();
+        senders.shutdownNow();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package com.ivez.etaengine.ws;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+// Encodes frame bodies straight from a streaming JsonGenerator into a per-thread
+// reusable buffer, in the encoding a client negotiated. No intermediate maps or
+// Strings: one byte[] per encoded frame, shared by every recipient.
+@Component
+public class FrameCodec {
+
+    public enum Encoding { JSON, CBOR }
+
+    // Writes one frame's fields; must only read data captured when the frame was built
+    @FunctionalInterface
+    public interface Body {
+        void writeTo(JsonGenerator g) throws IOException;
+    }
+
+    private final JsonFactory jsonFactory;
+    private final CBORFactory cborFactory = new CBORFactory();
+    private final ThreadLocal<ByteArrayBuilder> buffers = ThreadLocal.withInitial(() -> new ByteArrayBuilder(4096));
+
+    public FrameCodec(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    public WebSocketMessage<?> encode(Body body, Encoding encoding) throws IOException {
+        ByteArrayBuilder buffer = buffers.get();
+        try {
+            try (JsonGenerator g = (encoding == Encoding.CBOR ? cborFactory : jsonFactory).createGenerator(buffer)) {
+                g.writeStartObject();
+                body.writeTo(g);
+                g.writeEndObject();
+            }
+            byte[] bytes = buffer.toByteArray();
+            return encoding == Encoding.CBOR ? new BinaryMessage(bytes) : new TextMessage(bytes);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    public static Encoding parseEncoding(String value) {
+        return "cbor".equalsIgnoreCase(value) ? Encoding.CBOR : Encoding.JSON;
+    }
+
+    public static void writeLongMap(JsonGenerator g, String field, Map<String, Long> values) throws IOException {
+        g.writeObjectFieldStart(field);
+        for (Map.Entry<String, Long> e : values.entrySet()) {
+            g.writeNumberField(e.getKey(), e.getValue());
+        }
+        g.writeEndObject();
+    }
+
+    public static void writeStrings(JsonGenerator g, String field, Collection<String> values) throws IOException {
+        g.writeArrayFieldStart(field);
+        for (String value : values) {
+            g.writeString(value);
+        }
+        g.writeEndArray();
+    }
+}
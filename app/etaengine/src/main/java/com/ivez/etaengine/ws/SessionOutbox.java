@@ -0,0 +1,200 @@
+package com.ivez.etaengine.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Outbound queue for one client session. Updates are keyed (e.g. "eta:bus01"):
+// a newer update replaces an older one still waiting under the same key, so a
+// lagging client skips straight to the latest state instead of replaying history.
+// Sends are drained by at most one sender task at a time; a client whose single
+// send takes longer than the time limit, or whose backlog exceeds the buffer
+// limit, is disconnected. A send still blocked past the limit is caught by the
+// next offer or the handler's stall sweep, which closes the session so the shared
+// sender thread is released.
+public class SessionOutbox {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionOutbox.class);
+
+    private final WebSocketSession session;
+    private final Executor senders;
+    private final long sendTimeLimitMs;
+    private final int bufferSizeLimit;
+    private final Runnable onSlowClose;
+
+    private final Map<String, WebSocketMessage<?>> pending = new LinkedHashMap<>();
+    private int pendingBytes;
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private volatile long sendStartedAt;      // start of the send in flight, 0 when none
+    private volatile boolean closed;
+
+    // Topics this session subscribed to; until the first subscribe it receives everything
+    private final Set<String> topics = ConcurrentHashMap.newKeySet();
+    private volatile boolean filtered;
+
+    // Negotiated wire format; legacy clients get full JSON state on every update
+    private volatile boolean deltaProtocol;
+    private volatile FrameCodec.Encoding encoding = FrameCodec.Encoding.JSON;
+    private final Set<String> syncedKeys = new HashSet<>();   // streams this client holds a keyframe for, guarded by pending
+
+    public SessionOutbox(WebSocketSession session, Executor senders, long sendTimeLimitMs, int bufferSizeLimit,
+                         Runnable onSlowClose) {
+        this.session = session;
+        this.senders = senders;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.onSlowClose = onSlowClose;
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public Set<String> getTopics() {
+        return topics;
+    }
+
+    public boolean isFiltered() {
+        return filtered;
+    }
+
+    public void setFiltered(boolean filtered) {
+        this.filtered = filtered;
+    }
+
+    public void setProtocol(boolean deltaProtocol, FrameCodec.Encoding encoding) {
+        this.deltaProtocol = deltaProtocol;
+        this.encoding = encoding;
+        resync();
+    }
+
+    // Forget delivered state so the next frame of every stream is a keyframe
+    public void resync() {
+        synchronized (pending) {
+            syncedKeys.clear();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed || !session.isOpen();
+    }
+
+    /**
+     * Queues a frame, replacing any unsent message with the same key. Never blocks on the network.
+     * Delta clients get a keyframe instead of a delta whenever they are not in sync with the
+     * stream, including when coalescing is about to discard a delta they have not seen.
+     */
+    public void offer(EtaFrame frame) {
+        if (isClosed() || closeIfStalled(System.currentTimeMillis())) return;
+        String key = frame.getKey();
+        boolean overflow;
+        synchronized (pending) {
+            WebSocketMessage<?> message;
+            if (!deltaProtocol) {
+                message = frame.message(EtaFrame.Variant.LEGACY, FrameCodec.Encoding.JSON);
+            } else {
+                boolean inSync = syncedKeys.contains(key) && !pending.containsKey(key);
+                message = frame.message(inSync ? EtaFrame.Variant.DELTA : EtaFrame.Variant.KEYFRAME, encoding);
+                syncedKeys.add(key);
+            }
+            WebSocketMessage<?> replaced = pending.remove(key);
+            if (replaced != null) pendingBytes -= replaced.getPayloadLength();
+            pending.put(key, message);
+            pendingBytes += message.getPayloadLength();
+            overflow = pendingBytes > bufferSizeLimit;
+        }
+        if (overflow) {
+            close("outbound buffer over " + bufferSizeLimit + " bytes");
+            return;
+        }
+        if (draining.compareAndSet(false, true)) {
+            senders.execute(this::drain);
+        }
+    }
+
+    /**
+     * Closes the session if its in-flight send has been blocked past the time limit, which
+     * releases the sender thread stuck in it. Called on every offer and by the handler's
+     * periodic sweep, for clients that receive no further frames. Returns true if closed.
+     */
+    public boolean closeIfStalled(long nowMillis) {
+        long started = sendStartedAt;
+        if (started == 0 || nowMillis - started <= sendTimeLimitMs) return false;
+        close("send blocked for more than " + sendTimeLimitMs + " ms");
+        return true;
+    }
+
+    private void drain() {
+        try {
+            while (!isClosed()) {
+                WebSocketMessage<?> next;
+                synchronized (pending) {
+                    Iterator<WebSocketMessage<?>> it = pending.values().iterator();
+                    if (!it.hasNext()) break;
+                    next = it.next();
+                    it.remove();
+                    pendingBytes -= next.getPayloadLength();
+                }
+                long start = System.currentTimeMillis();
+                sendStartedAt = start;
+                try {
+                    session.sendMessage(next);
+                } finally {
+                    sendStartedAt = 0;
+                }
+                if (System.currentTimeMillis() - start > sendTimeLimitMs) {
+                    close("send took longer than " + sendTimeLimitMs + " ms");
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close("send failed: " + e.getMessage());
+            return;
+        } finally {
+            draining.set(false);
+        }
+        // A message may have arrived between the empty check and releasing the flag
+        boolean more;
+        synchronized (pending) {
+            more = !pending.isEmpty();
+        }
+        if (more && !isClosed() && draining.compareAndSet(false, true)) {
+            senders.execute(this::drain);
+        }
+    }
+
+    // Session already gone: discard the backlog quietly
+    public void dispose() {
+        closed = true;
+        synchronized (pending) {
+            pending.clear();
+            pendingBytes = 0;
+        }
+    }
+
+    public void close(String reason) {
+        if (closed) return;
+        closed = true;
+        synchronized (pending) {
+            pending.clear();
+            pendingBytes = 0;
+        }
+        log.warn("Dropping slow client {}: {}", session.getId(), reason);
+        if (onSlowClose != null) onSlowClose.run();
+        try {
+            session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException ignore) {}
+    }
+}
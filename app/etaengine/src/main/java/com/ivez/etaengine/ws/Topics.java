@@ -0,0 +1,38 @@
+package com.ivez.etaengine.ws;
+
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.model.Stop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Topic names used for /ws/eta subscriptions
+public final class Topics {
+
+    private Topics() {}
+
+    public static String bus(String busId) {
+        return "bus:" + busId;
+    }
+
+    public static String route(String routeId) {
+        return "route:" + routeId;
+    }
+
+    public static String stop(String stopId) {
+        return "stop:" + stopId;
+    }
+
+    // Every topic an update about this bus is relevant to: the bus, its route and each stop it serves
+    public static List<String> forBus(String busId, RouteData route) {
+        List<String> topics = new ArrayList<>(route == null ? 1 : route.getStops().size() + 2);
+        topics.add(bus(busId));
+        if (route != null) {
+            topics.add(route(route.getRouteId()));
+            for (Stop stop : route.getStops()) {
+                topics.add(stop(stop.getStopId()));
+            }
+        }
+        return topics;
+    }
+}
@@ -0,0 +1,203 @@
+package com.ivez.etaengine.cluster;
+
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.service.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ClusterNodeTests {
+
+	private static final int BUSES = 12;
+
+	private final LoopbackNetwork network = new LoopbackNetwork();
+	private final List<Node> nodes = new ArrayList<>();
+
+	private static final class Node {
+		BusStateTracker tracker;
+		PingPipeline pipeline;
+		ClusterNode cluster;
+		final Set<String> relayed = ConcurrentHashMap.newKeySet();
+	}
+
+	private static String bus(int i) {
+		return "bus" + i;
+	}
+
+	private Node node(String id) {
+		PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+		Routes routes = new Routes();
+		double[] lats = {17.430, 17.431, 17.432, 17.433};
+		double[] lons = {78.380, 78.381, 78.382, 78.383};
+		RouteData loop = Routes.buildRoute("loop", lats, lons, new ArrayList<>(), 100);
+		for (int i = 0; i < BUSES; i++) {
+			ReflectionTestUtils.invokeMethod(routes, "addRoute", bus(i), loop);
+		}
+
+		Node node = new Node();
+		node.tracker = new BusStateTracker(routes, null, null, metrics);
+		ReflectionTestUtils.setField(node.tracker, "windowSegments", 10);
+		ReflectionTestUtils.setField(node.tracker, "windowMaxMeters", 30.0);
+		EtaPredictor predictor = new EtaPredictor(routes, null, null, mock(PredictionHistory.class), metrics,
+				new TravelTimes(null, routes));
+
+		DefaultListableBeanFactory beans = new DefaultListableBeanFactory();
+		node.cluster = new ClusterNode(new LoopbackTransport(network), node.tracker, routes,
+				beans.getBeanProvider(EtaPredictor.class), beans.getBeanProvider(PingPipeline.class), beans.getBeanProvider(UpdatePublisher.class), metrics);
+		ReflectionTestUtils.setField(node.cluster, "enabled", true);
+		ReflectionTestUtils.setField(node.cluster, "nodeId", id);
+		ReflectionTestUtils.setField(node.cluster, "virtualNodes", 64);
+		ReflectionTestUtils.setField(node.cluster, "handoffDelayMs", 0L);
+
+		UpdatePublisher publisher = new UpdatePublisher(null, null, node.cluster) {
+			@Override
+			public void deliverPosition(BusState state, RouteData route, int occupancy) {
+				node.relayed.add(state.getBusId());
+			}
+		};
+		PingPool pool = new PingPool();
+		ReflectionTestUtils.setField(pool, "size", 16);
+		pool.init();
+		node.pipeline = new PingPipeline(node.tracker, predictor, publisher, routes, metrics, node.cluster, pool);
+		ReflectionTestUtils.setField(node.pipeline, "workerCount", 2);
+		ReflectionTestUtils.setField(node.pipeline, "queueCapacity", 1024);
+		node.pipeline.start();
+		beans.registerSingleton("predictor", predictor);
+		beans.registerSingleton("pipeline", node.pipeline);
+		beans.registerSingleton("publisher", publisher);
+
+		node.cluster.start();
+		nodes.add(node);
+		return node;
+	}
+
+	@AfterEach
+	void tearDown() {
+		for (Node node : nodes) node.pipeline.stop();
+	}
+
+	private static void sendAll(Node to, long timestamp, double lat) {
+		for (int i = 0; i < BUSES; i++) {
+			to.pipeline.submit(new BusPing(bus(i), lat, 78.3815, timestamp, 3));
+		}
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "timed out");
+			Thread.sleep(10);
+		}
+	}
+
+	private static boolean holds(Node node, String busId, long lastUpdated) {
+		BusState state = node.tracker.getState(busId);
+		return state != null && state.getLastUpdated() == lastUpdated;
+	}
+
+	@Test
+	void forwardsPingsHandsOffStateAndRelaysUpdates() throws InterruptedException {
+		Node a = node("a");
+		sendAll(a, 1000, 17.4310);
+		await(() -> a.tracker.getAllStates().size() == BUSES);
+
+		// b joins: a keeps its share and hands b's share over with its state
+		Node b = node("b");
+		HashRing ring = new HashRing(Set.of("a", "b"), 64);
+		await(() -> {
+			for (int i = 0; i < BUSES; i++) {
+				Node owner = ring.owner(bus(i)).equals("a") ? a : b;
+				Node other = owner == a ? b : a;
+				if (!holds(owner, bus(i), 1000) || other.tracker.getState(bus(i)) != null) return false;
+			}
+			return true;
+		});
+		Map<String, BusState> atB = b.tracker.getAllStates();
+		assertTrue(atB.size() > 0 && atB.size() < BUSES, "both nodes own some buses");
+
+		// Everything still arrives at a: b's buses are forwarded, and b's updates relayed back
+		a.relayed.clear();
+		sendAll(a, 1010, 17.4312);
+		await(() -> {
+			for (int i = 0; i < BUSES; i++) {
+				Node owner = ring.owner(bus(i)).equals("a") ? a : b;
+				if (!holds(owner, bus(i), 1010)) return false;
+			}
+			return a.relayed.containsAll(atB.keySet());
+		});
+
+		// b leaves gracefully: its buses come back to a with their latest state
+		b.cluster.leave();
+		await(() -> {
+			for (int i = 0; i < BUSES; i++) {
+				if (!holds(a, bus(i), 1010)) return false;
+			}
+			return true;
+		});
+		assertEquals(Set.of("a"), network.members());
+	}
+
+	@Test
+	void handoffToSaturatedWorkerIsRetriedBySweep() throws InterruptedException {
+		PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+		Routes routes = new Routes();
+		double[] lats = {17.430, 17.431, 17.432, 17.433};
+		double[] lons = {78.380, 78.381, 78.382, 78.383};
+		ReflectionTestUtils.invokeMethod(routes, "addRoute", bus(0), Routes.buildRoute("loop", lats, lons, new ArrayList<>(), 100));
+		BusStateTracker tracker = new BusStateTracker(routes, null, null, metrics);
+		PingPipeline pipeline = mock(PingPipeline.class);
+		List<Runnable> queued = new ArrayList<>();
+		when(pipeline.tryExecute(eq(bus(0)), any())).thenReturn(false).thenAnswer(i -> queued.add(i.getArgument(1)));
+
+		DefaultListableBeanFactory beans = new DefaultListableBeanFactory();
+		beans.registerSingleton("predictor", new EtaPredictor(routes, null, null, mock(PredictionHistory.class), metrics,
+				new TravelTimes(null, routes)));
+		beans.registerSingleton("pipeline", pipeline);
+		ClusterNode cluster = new ClusterNode(new LoopbackTransport(network), tracker, routes,
+				beans.getBeanProvider(EtaPredictor.class), beans.getBeanProvider(PingPipeline.class), beans.getBeanProvider(UpdatePublisher.class), metrics);
+
+		BusState state = new BusState(bus(0), 17.4315, 78.3815, 7.5, 1, 160.0,
+				ConcurrentHashMap.newKeySet(), new ConcurrentHashMap<>(), 1000);
+		cluster.onMessage("b", new ClusterMessage.Handoff(state, null, List.of()));
+		assertTrue(queued.isEmpty(), "worker queue full");
+		ReflectionTestUtils.invokeMethod(cluster, "sweep");
+		assertEquals(1, queued.size());
+		queued.get(0).run();
+		assertEquals(1000, tracker.getState(bus(0)).getLastUpdated());
+		verify(pipeline, never()).execute(any(), any());
+	}
+
+	@Test
+	void ringMovesOnlyTheJoiningNodesShare() {
+		HashRing three = new HashRing(Set.of("a", "b", "c"), 128);
+		HashRing four = new HashRing(Set.of("a", "b", "c", "d"), 128);
+		int moved = 0;
+		int toD = 0;
+		for (int i = 0; i < 10_000; i++) {
+			String before = three.owner(bus(i));
+			String after = four.owner(bus(i));
+			if (!before.equals(after)) {
+				moved++;
+				if (after.equals("d")) toD++;
+			}
+		}
+		assertEquals(moved, toD, "buses only move to the new node");
+		assertTrue(moved > 1_800 && moved < 3_200, "about a quarter moves: " + moved);
+	}
+}
@@ -0,0 +1,71 @@
+package com.ivez.etaengine.ingest;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.service.PingPool;
+import com.ivez.etaengine.service.PipelineMetrics;
+import com.ivez.etaengine.service.Routes;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PingDecoderTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final PingIngest.Counters counters = new PingIngest(null, new PipelineMetrics(registry), null, null)
+			.counters("test");
+	private final PingPool pool = new PingPool();
+	private final Routes routes = new Routes();
+	private final PingDecoder decoder = new PingDecoder(routes, pool);
+
+	PingDecoderTests() {
+		ReflectionTestUtils.setField(pool, "size", 8);
+		pool.init();
+		String busId = new String("bus01".toCharArray());           // a distinct instance from the literals below
+		ReflectionTestUtils.invokeMethod(routes, "addRoute", busId, Routes.buildRoute("r1",
+				new double[] {17.43, 17.44}, new double[] {78.38, 78.39}, new ArrayList<>(), 100));
+	}
+
+	@Test
+	void decodesObjectsAndArraysIntoPooledPings() throws Exception {
+		List<BusPing> out = new ArrayList<>();
+		decoder.decode("{\"busId\":\"bus01\",\"lat\":17.4312,\"lon\":78.3801,\"timestamp\":1700000000,\"occupancy\":23}",
+				counters, out::add);
+		byte[] batch = ("[{\"busId\":\"bus01\",\"lat\":17.5,\"lon\":78.5,\"timestamp\":1700000005.7,\"speed\":{\"kmh\":30}},"
+				+ " {\"busId\":\"bus99\",\"lat\":1,\"lon\":2,\"timestamp\":3,\"occupancy\":4}]").getBytes(StandardCharsets.UTF_8);
+		decoder.decode(batch, 0, batch.length, counters, out::add);
+
+		assertEquals(List.of(
+				new BusPing("bus01", 17.4312, 78.3801, 1_700_000_000L, 23),
+				new BusPing("bus01", 17.5, 78.5, 1_700_000_005L, 0),
+				new BusPing("bus99", 1, 2, 3, 4)), out);
+		String routeKey = routes.getAllBusIds().iterator().next();
+		assertSame(routeKey, out.get(0).getBusId());                  // interned against the route set
+		assertSame(routeKey, out.get(1).getBusId());
+		assertEquals(1, registry.counter("eta.ingest.unknown_fields", "source", "test").count());
+
+		// Released pings are reused
+		pool.release(out.get(2));
+		List<BusPing> next = new ArrayList<>();
+		decoder.decode("{\"busId\":\"bus01\",\"lat\":1}", counters, next::add);
+		assertSame(out.get(2), next.get(0));
+		assertEquals(new BusPing("bus01", 1, 0, 0, 0), next.get(0));
+	}
+
+	@Test
+	void malformedFramesKeepThePingsBeforeTheError() {
+		List<BusPing> out = new ArrayList<>();
+		assertThrows(JsonParseException.class, () -> decoder.decode(
+				"[{\"busId\":\"bus01\",\"lat\":1}, {\"busId\":\"bus02\",\"lat\":", counters, out::add));
+		assertEquals(1, out.size());
+		assertThrows(JsonParseException.class, () -> decoder.decode("[1, 2]", counters, out::add));
+		assertThrows(JsonParseException.class, () -> decoder.decode("{\"lat\":1} {}", counters, out::add));
+		assertEquals(2, out.size());
+	}
+}
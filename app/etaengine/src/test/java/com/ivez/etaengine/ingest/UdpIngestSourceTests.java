@@ -0,0 +1,81 @@
+package com.ivez.etaengine.ingest;
+
+import com.ivez.etaengine.journal.PingJournal;
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.service.PingPipeline;
+import com.ivez.etaengine.service.PingPool;
+import com.ivez.etaengine.service.PipelineMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UdpIngestSourceTests {
+
+	@Test
+	void decodesDatagramsAndCountsMalformedOnes() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		PingPipeline pipeline = mock(PingPipeline.class);
+		when(pipeline.submit(any())).thenReturn(true);
+		PingIngest ingest = new PingIngest(pipeline, new PipelineMetrics(registry), mock(PingJournal.class),
+				mock(PingPool.class));
+		ReflectionTestUtils.setField(ingest, "maxAgeSec", 120L);
+
+		UdpIngestSource source = new UdpIngestSource(ingest);
+		ReflectionTestUtils.setField(source, "port", 0);
+		ReflectionTestUtils.setField(source, "receiveBufferKb", 64);
+		source.start();
+		try (DatagramChannel client = DatagramChannel.open()) {
+			int port = ((InetSocketAddress) source.localAddress()).getPort();
+			InetSocketAddress target = new InetSocketAddress("127.0.0.1", port);
+			long now = System.currentTimeMillis() / 1000;
+
+			ByteBuffer truncated = UdpPingFormat.encode(List.of(new BusPing("bus01", 17.4, 78.3, now, 1)));
+			client.send(truncated.limit(truncated.limit() - 3), target);
+			client.send(UdpPingFormat.encode(List.of(
+					new BusPing("bus01", 17.4312345, 78.3801234, now, 12),
+					new BusPing("bus02", 17.5, 78.4, now - 600, 0))), target);       // stale
+
+			ArgumentCaptor<BusPing> submitted = ArgumentCaptor.forClass(BusPing.class);
+			verify(pipeline, timeout(2000)).submit(submitted.capture());
+			BusPing ping = submitted.getValue();
+			assertEquals("bus01", ping.getBusId());
+			assertEquals(17.4312345, ping.getLat(), 1e-7);
+			assertEquals(78.3801234, ping.getLon(), 1e-7);
+			assertEquals(now, ping.getTimestamp());
+			assertEquals(12, ping.getOccupancy());
+			assertTrue(ping.getReceivedAtMillis() > 0);
+		} finally {
+			source.stop();
+		}
+
+		assertEquals(1, registry.counter("eta.ingest.pings", "source", "udp", "outcome", "accepted").count());
+		assertEquals(1, registry.counter("eta.ingest.pings", "source", "udp", "outcome", "rejected").count());
+		assertEquals(1, registry.counter("eta.ingest.errors", "source", "udp", "kind", "decode").count());
+		assertEquals(1, registry.counter("eta.pings.dropped", "reason", "stale_age").count());
+	}
+
+	@Test
+	void rejectsTrailingBytesAndBadVersion() {
+		List<BusPing> out = new ArrayList<>();
+		ByteBuffer valid = UdpPingFormat.encode(List.of(new BusPing("b", 1, 2, 3, 4)));
+		ByteBuffer padded = ByteBuffer.allocate(valid.remaining() + 1).put(valid.duplicate()).put((byte) 0).flip();
+		assertThrows(IllegalArgumentException.class, () -> UdpPingFormat.decode(padded, out));
+
+		ByteBuffer wrongVersion = ByteBuffer.allocate(valid.remaining()).put(valid.duplicate()).flip().put(0, (byte) 9);
+		assertThrows(IllegalArgumentException.class, () -> UdpPingFormat.decode(wrongVersion, out));
+
+		out.clear();
+		UdpPingFormat.decode(valid, out);
+		assertEquals(List.of(new BusPing("b", 1, 2, 3, 4)), out);
+	}
+}
@@ -0,0 +1,124 @@
+package com.ivez.etaengine.journal;
+
+import com.ivez.etaengine.ingest.PingIngest;
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.service.PingPipeline;
+import com.ivez.etaengine.service.PingPool;
+import com.ivez.etaengine.service.PipelineMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class PingJournalTests {
+
+	@TempDir
+	Path dir;
+
+	private PingJournal journal(int maxSegments) {
+		PingJournal journal = new PingJournal(new PipelineMetrics(new SimpleMeterRegistry()));
+		ReflectionTestUtils.setField(journal, "enabled", true);
+		ReflectionTestUtils.setField(journal, "directory", dir.toString());
+		ReflectionTestUtils.setField(journal, "segmentSizeMb", 1);
+		ReflectionTestUtils.setField(journal, "fsyncIntervalMs", 0L);
+		ReflectionTestUtils.setField(journal, "maxSegments", maxSegments);
+		journal.start();
+		return journal;
+	}
+
+	private static BusPing ping(int i) {
+		String busId = i % 7 == 0 ? "b".repeat(BusPing.MAX_BUS_ID_BYTES) : "bus" + (i % 7);   // longest accepted busId
+		BusPing ping = new BusPing(busId, 17.43 + i * 1e-6, 78.38 - i * 1e-6, 1_700_000_000L + i, i % 40);
+		ping.setReceivedAtMillis(1_700_000_000_000L + i * 250L);
+		return ping;
+	}
+
+	private List<BusPing> readAll() throws Exception {
+		List<BusPing> pings = new ArrayList<>();
+		try (JournalReader reader = new JournalReader(dir)) {
+			reader.forEachRemaining(pings::add);
+		}
+		return pings;
+	}
+
+	@Test
+	void roundTripsAcrossSegmentRolls() throws Exception {
+		// 1 MiB segments hold 8191 records, so this spans three segments
+		int n = 20_000;
+		PingJournal journal = journal(0);
+		for (int i = 0; i < n; i++) journal.append(ping(i), false);
+		journal.stop();
+
+		assertEquals(3, PingJournal.segments(dir).size());
+		List<BusPing> pings = readAll();
+		assertEquals(n, pings.size());
+		for (int i = 0; i < n; i++) {
+			assertEquals(ping(i), pings.get(i));
+		}
+	}
+
+	@Test
+	void stopsAtTornRecordAndSkipsOversizedBusIds() throws Exception {
+		PingJournal journal = journal(0);
+		for (int i = 0; i < 10; i++) journal.append(ping(i), false);
+		journal.append(new BusPing("bus-".repeat(17), 17.4, 78.3, 1_700_000_000L, 0), false);     // 68 bytes
+		journal.stop();
+
+		// Corrupt the 8th record as if the process died while writing it
+		try (RandomAccessFile file = new RandomAccessFile(PingJournal.segments(dir).get(0).toFile(), "rw")) {
+			file.seek(JournalFormat.HEADER_SIZE + 7L * JournalFormat.RECORD_SIZE + 20);
+			file.write(0x7F);
+		}
+		assertEquals(7, readAll().size());
+	}
+
+	@Test
+	void deletesOldestSegmentsBeyondRetention() throws Exception {
+		PingJournal journal = journal(2);
+		for (int i = 0; i < 8_191 * 4 + 1; i++) journal.append(ping(i), false);
+		journal.stop();
+
+		List<Path> segments = PingJournal.segments(dir);
+		assertEquals(2, segments.size());
+		assertTrue(segments.get(0).getFileName().toString().startsWith("pings-00000004"));
+	}
+
+	@Test
+	void replaySkipsPingsDroppedLive() throws Exception {
+		PingJournal journal = journal(0);
+		PingPipeline live = mock(PingPipeline.class);
+		when(live.submit(any())).thenAnswer(i -> !"bus-full".equals(((BusPing) i.getArgument(0)).getBusId()));
+		PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+		PingIngest ingest = new PingIngest(live, metrics, journal, mock(PingPool.class));
+		ReflectionTestUtils.setField(ingest, "maxAgeSec", 120L);
+		PingIngest.Counters counters = ingest.counters("test");
+
+		long now = 1_700_000_000L;
+		ingest.accept(received(new BusPing("bus01", 17.43, 78.38, now, 3), now), counters);
+		ingest.accept(received(new BusPing("bus02", 17.43, 78.38, now - 600, 3), now), counters);    // stale
+		ingest.accept(received(new BusPing("bus03", 0, 0, now, 3), now), counters);                  // no fix
+		ingest.accept(received(new BusPing("bus-full", 17.43, 78.38, now, 3), now), counters);       // queue full
+		ingest.accept(received(new BusPing("bus04", 17.44, 78.39, now + 5, 4), now + 5), counters);
+		journal.stop();
+
+		PingPipeline replayed = mock(PingPipeline.class);
+		List<String> busIds = new ArrayList<>();
+		doAnswer(i -> busIds.add(((BusPing) i.getArgument(0)).getBusId())).when(replayed).replay(any());
+		assertEquals(2, new JournalReplayer(replayed).replay(dir, 0));
+		assertEquals(List.of("bus01", "bus04"), busIds);
+	}
+
+	private static BusPing received(BusPing ping, long atSeconds) {
+		ping.setReceivedAtMillis(atSeconds * 1000);
+		return ping;
+	}
+}
@@ -0,0 +1,81 @@
+package com.ivez.etaengine.repository;
+
+import com.ivez.etaengine.service.PipelineMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryMaintenanceTests {
+
+	private static final LocalDate TODAY = LocalDate.of(2025, 3, 20);
+
+	private JdbcTemplate jdbc;
+	private HistoryMaintenance maintenance;
+
+	@BeforeEach
+	void setUp() {
+		jdbc = new JdbcTemplate(new DriverManagerDataSource(
+				"jdbc:h2:mem:history-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1;MODE=MySQL;NON_KEYWORDS=DATE"));
+		for (String table : new String[]{"eta_predictions", "stop_arrivals"}) {
+			jdbc.execute("CREATE TABLE " + table + " (id BIGINT AUTO_INCREMENT PRIMARY KEY, bus_id VARCHAR(32), date DATE)");
+		}
+		jdbc.execute("CREATE TABLE prediction_accuracy (id BIGINT AUTO_INCREMENT PRIMARY KEY, bus_id VARCHAR(32),"
+				+ " stop_id VARCHAR(32), stop_name VARCHAR(64), arrival_time TIMESTAMP, eta_5min_before TIMESTAMP,"
+				+ " eta_3min_before TIMESTAMP, eta_2min_before TIMESTAMP, date DATE)");
+		jdbc.execute("CREATE TABLE daily_stop_accuracy (id BIGINT AUTO_INCREMENT PRIMARY KEY, bus_id VARCHAR(32),"
+				+ " stop_id VARCHAR(32), stop_name VARCHAR(64), date DATE, arrivals INT, eta5_samples INT,"
+				+ " eta5_mae_seconds DOUBLE, eta3_samples INT, eta3_mae_seconds DOUBLE, eta2_samples INT, eta2_mae_seconds DOUBLE)");
+
+		maintenance = new HistoryMaintenance(jdbc, new PipelineMetrics(new SimpleMeterRegistry()));
+		ReflectionTestUtils.setField(maintenance, "partitioning", true);
+		ReflectionTestUtils.setField(maintenance, "rawRetentionDays", 30);
+		ReflectionTestUtils.setField(maintenance, "accuracyRetentionDays", 0);
+		ReflectionTestUtils.setField(maintenance, "deleteBatchSize", 3);
+	}
+
+	private void arrival(LocalDate day, String stopId, int eta5ErrorSec, Integer eta2ErrorSec) {
+		String arrival = day + " 09:00:00";
+		jdbc.update("INSERT INTO prediction_accuracy (bus_id, stop_id, stop_name, arrival_time, eta_5min_before,"
+						+ " eta_2min_before, date) VALUES ('bus01', ?, 'Gate', ?, DATEADD(SECOND, ?, CAST(? AS TIMESTAMP)),"
+						+ " DATEADD(SECOND, ?, CAST(? AS TIMESTAMP)), ?)",
+				stopId, arrival, eta5ErrorSec, arrival, eta2ErrorSec, eta2ErrorSec == null ? null : arrival, day);
+	}
+
+	@Test
+	void rollsUpFinishedDaysAndDeletesExpiredDetail() {
+		for (int d = 0; d < 40; d++) {
+			jdbc.update("INSERT INTO stop_arrivals (bus_id, date) VALUES ('bus01', ?)", TODAY.minusDays(d));
+			jdbc.update("INSERT INTO eta_predictions (bus_id, date) VALUES ('bus01', ?)", TODAY.minusDays(d));
+		}
+		arrival(TODAY.minusDays(1), "stop_1", 60, 10);
+		arrival(TODAY.minusDays(1), "stop_1", -120, null);
+		arrival(TODAY, "stop_1", 30, 30);
+
+		maintenance.maintain(TODAY);
+		maintenance.maintain(TODAY);        // idempotent
+
+		// Rows dated before today minus 30 days are gone (not a multiple of the batch size)
+		assertEquals(31, jdbc.queryForObject("SELECT COUNT(*) FROM stop_arrivals", Integer.class));
+		assertEquals(31, jdbc.queryForObject("SELECT COUNT(*) FROM eta_predictions", Integer.class));
+		assertEquals(3, jdbc.queryForObject("SELECT COUNT(*) FROM prediction_accuracy", Integer.class));
+
+		// Only finished days are rolled up, once
+		Map<String, Object> rollup = jdbc.queryForMap("SELECT * FROM daily_stop_accuracy");
+		assertEquals(java.sql.Date.valueOf(TODAY.minusDays(1)), rollup.get("DATE"));
+		assertEquals(2, rollup.get("ARRIVALS"));
+		assertEquals(2, rollup.get("ETA5_SAMPLES"));
+		assertEquals(90.0, (Double) rollup.get("ETA5_MAE_SECONDS"), 1e-9);
+		assertEquals(1, rollup.get("ETA2_SAMPLES"));
+		assertEquals(10.0, (Double) rollup.get("ETA2_MAE_SECONDS"), 1e-9);
+		assertEquals(0, rollup.get("ETA3_SAMPLES"));
+		assertNull(rollup.get("ETA3_MAE_SECONDS"));
+	}
+}
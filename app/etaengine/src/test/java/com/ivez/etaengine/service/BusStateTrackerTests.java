@@ -0,0 +1,82 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.model.BusPing;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.model.Stop;
+import com.ivez.etaengine.repository.WriteBehindWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class BusStateTrackerTests {
+
+	@Test
+	void detectsArrivalsOnlyAtStopsWithinReachAlongTheRoute() {
+		// Out east, a short leg north, back west ~44 m from the outbound lane
+		double[] lats = {17.4300, 17.4300, 17.4304, 17.4304};
+		double[] lons = {78.3800, 78.3830, 78.3830, 78.3800};
+		Stop out = new Stop("out", "Outbound", 78.3815, 17.4300);
+		Stop back = new Stop("back", "Return", 78.3815, 17.4304);
+		back.setArrivalRadius(60);                      // wider than the gap between the lanes
+		RouteData route = Routes.buildRoute("hairpin", lats, lons, List.of(out, back), 100);
+
+		int[] start = route.getSegmentStopStart();
+		assertArrayEquals(new int[] {0}, Arrays.copyOfRange(route.getSegmentStops(), start[0], start[1]));
+		assertEquals(start[1], start[2]);               // the short leg has no stop within reach
+		assertArrayEquals(new int[] {1}, Arrays.copyOfRange(route.getSegmentStops(), start[2], start[3]));
+
+		Routes routes = new Routes();
+		routes.addRoute("bus01", route);
+		BusStateTracker tracker = new BusStateTracker(routes, mock(WriteBehindWriter.class),
+				mock(PredictionHistory.class), new PipelineMetrics(new SimpleMeterRegistry()));
+		ReflectionTestUtils.setField(tracker, "windowSegments", 10);
+		ReflectionTestUtils.setField(tracker, "windowMaxMeters", 30.0);
+
+		tracker.updateBusState(new BusPing("bus01", 17.4300, 78.3805, 1000, 0));
+		tracker.updateBusState(new BusPing("bus01", 17.4300, 78.3815, 1020, 0));
+		// "back" is 44 m away across the road but ~360 m ahead along the route
+		assertEquals(Set.of("out"), tracker.getState("bus01").getArrivedStops());
+
+		tracker.updateBusState(new BusPing("bus01", 17.4302, 78.3830, 1060, 0));
+		tracker.updateBusState(new BusPing("bus01", 17.4304, 78.3817, 1080, 0));
+		assertEquals(Set.of("out", "back"), tracker.getState("bus01").getArrivedStops());
+		assertEquals(1_080_000L, tracker.getState("bus01").getArrivalTimes().get("back"));
+
+		// Round again: back at the first stop, arrivals restart with the next trip
+		tracker.updateBusState(new BusPing("bus01", 17.4300, 78.3805, 1120, 0));
+		tracker.updateBusState(new BusPing("bus01", 17.4300, 78.3815, 1140, 0));
+		assertEquals(Set.of("out"), tracker.getState("bus01").getArrivedStops());
+		assertEquals(1, tracker.getState("bus01").getTrip());
+	}
+
+	@Test
+	void lastSeenGaugeFollowsTheBusOnAndOffThisNode() {
+		double[] lats = {17.4300, 17.4300};
+		double[] lons = {78.3800, 78.3830};
+		Routes routes = new Routes();
+		routes.addRoute("bus01", Routes.buildRoute("line", lats, lons, List.of(), 100));
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		BusStateTracker tracker = new BusStateTracker(routes, mock(WriteBehindWriter.class),
+				mock(PredictionHistory.class), new PipelineMetrics(registry));
+		ReflectionTestUtils.setField(tracker, "windowSegments", 10);
+		ReflectionTestUtils.setField(tracker, "windowMaxMeters", 30.0);
+
+		tracker.updateBusState(new BusPing("bus01", 17.4300, 78.3805, 1000, 0));
+		assertNotNull(registry.find("eta.bus.last_seen.age").tag("busId", "bus01").gauge());
+		BusState state = tracker.getState("bus01");
+
+		tracker.forget("bus01");                        // handed off, unassigned or route removed
+		assertNull(registry.find("eta.bus.last_seen.age").tag("busId", "bus01").gauge());
+
+		tracker.restore(state);
+		assertNotNull(registry.find("eta.bus.last_seen.age").tag("busId", "bus01").gauge());
+	}
+}
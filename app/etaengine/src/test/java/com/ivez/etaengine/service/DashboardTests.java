@@ -0,0 +1,62 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.dto.StopEtaResponse;
+import com.ivez.etaengine.entity.EtaPrediction;
+import com.ivez.etaengine.entity.StopArrival;
+import com.ivez.etaengine.repository.DailyStopAccuracyRepository;
+import com.ivez.etaengine.repository.EtaPredictionRepository;
+import com.ivez.etaengine.repository.PredictionAccuracyRepository;
+import com.ivez.etaengine.repository.StopArrivalRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DashboardTests {
+
+	private static final LocalDate DAY = LocalDate.now().minusDays(3);
+	private static final LocalDateTime ARRIVAL = DAY.atTime(9, 0);
+
+	private static EtaPrediction prediction(String stopId, int minutesBefore, int secondsBefore) {
+		LocalDateTime createdAt = ARRIVAL.minusMinutes(minutesBefore).minusSeconds(secondsBefore);
+		return new EtaPrediction(null, "bus01", stopId, null, createdAt.plusMinutes(minutesBefore + 1), createdAt, DAY);
+	}
+
+	@Test
+	void picksClosestPredictionPerHorizonFromTrace() {
+		StopArrivalRepository arrivals = mock(StopArrivalRepository.class);
+		EtaPredictionRepository predictions = mock(EtaPredictionRepository.class);
+		when(arrivals.findByBusIdAndDateOrderByArrivalTimeAsc("bus01", DAY)).thenReturn(List.of(
+				new StopArrival(null, "bus01", "stop_1", "Gate", ARRIVAL, DAY, null)));
+		when(predictions.findByBusIdAndDateOrderByStopIdAscCreatedAtAsc("bus01", DAY)).thenReturn(List.of(
+				prediction("stop_1", 7, 0),
+				prediction("stop_1", 5, 40),   // 5 whole minutes, earliest of the ties
+				prediction("stop_1", 5, 10),
+				prediction("stop_1", 3, 0),
+				prediction("stop_1", 1, 30),
+				prediction("stop_1", -1, 0),   // made after the arrival
+				prediction("stop_2", 2, 0)));
+
+		// No checkpoint rows for the day: falls back to the full prediction trace
+		Dashboard dashboard = new Dashboard(arrivals, predictions, mock(PredictionAccuracyRepository.class),
+				mock(DailyStopAccuracyRepository.class));
+		ReflectionTestUtils.setField(dashboard, "pastDayCacheSize", 10);
+
+		List<StopEtaResponse> rows = dashboard.getDashboardData("bus01", DAY);
+		assertEquals(1, rows.size());
+		StopEtaResponse row = rows.get(0);
+		assertEquals(prediction("stop_1", 5, 40).getPredictedArrivalTime(), row.getEta5minBefore());
+		assertEquals(prediction("stop_1", 3, 0).getPredictedArrivalTime(), row.getEta3minBefore());
+		assertEquals(prediction("stop_1", 3, 0).getPredictedArrivalTime(), row.getEta2minBefore());
+
+		// Past days are served from the cache
+		assertSame(rows, dashboard.getDashboardData("bus01", DAY));
+		verify(predictions, times(1)).findByBusIdAndDateOrderByStopIdAscCreatedAtAsc("bus01", DAY);
+		verifyNoMoreInteractions(predictions);
+	}
+}
@@ -0,0 +1,51 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.entity.PredictionAccuracy;
+import com.ivez.etaengine.repository.WriteBehindWriter;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PredictionHistoryTests {
+
+	private static final long ARRIVAL = 1_700_000_000_000L;
+
+	private static LocalDateTime local(long millis) {
+		return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+	}
+
+	@Test
+	void resolvesHorizonsFromRingAndForgetsStop() {
+		WriteBehindWriter writer = mock(WriteBehindWriter.class);
+		PredictionHistory history = new PredictionHistory(writer);
+		ReflectionTestUtils.setField(history, "historySize", 48);
+
+		// One prediction every 5 s for the 10 minutes before arrival; 48 entries keep the last 4 minutes
+		for (long created = ARRIVAL - 600_000; created < ARRIVAL; created += 5_000) {
+			history.record("bus01", 3, 0, created, created + 7_000);
+		}
+		history.onArrival("bus01", 0, "stop_1", "Gate", ARRIVAL);
+		history.onArrival("bus01", 0, "stop_1", "Gate", ARRIVAL + 3_600_000);
+
+		ArgumentCaptor<PredictionAccuracy> rows = ArgumentCaptor.forClass(PredictionAccuracy.class);
+		verify(writer, times(2)).save(rows.capture());
+		PredictionAccuracy row = rows.getAllValues().get(0);
+		assertEquals(local(ARRIVAL), row.getArrivalTime());
+		// Earliest prediction with the closest whole-minute lead among those still held (oldest is 4 min)
+		assertEquals(local(ARRIVAL - 240_000 + 7_000), row.getEta5minBefore());
+		assertEquals(local(ARRIVAL - 235_000 + 7_000), row.getEta3minBefore());
+		assertEquals(local(ARRIVAL - 175_000 + 7_000), row.getEta2minBefore());
+
+		// History is cleared on arrival, so the next lap starts empty
+		PredictionAccuracy nextLap = rows.getAllValues().get(1);
+		assertNull(nextLap.getEta5minBefore());
+		assertNull(nextLap.getEta2minBefore());
+	}
+}
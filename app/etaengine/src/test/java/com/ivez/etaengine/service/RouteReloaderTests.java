@@ -0,0 +1,157 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.RouteData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class RouteReloaderTests {
+
+	@TempDir
+	Path dir;
+
+	private static String route(String busId, double startLon, String... stopIds) {
+		StringBuilder stops = new StringBuilder();
+		for (int i = 0; i < stopIds.length; i++) {
+			if (i > 0) stops.append(',');
+			stops.append("{\"stopId\":\"").append(stopIds[i]).append("\",\"name\":\"").append(stopIds[i])
+					.append("\",\"lon\":").append(startLon + 0.001 * (i + 1)).append(",\"lat\":17.43}");
+		}
+		return "{\"features\":[{\"properties\":{\"busId\":\"" + busId + "\",\"routeId\":\"r-" + busId
+				+ "\",\"stops\":[" + stops + "]},\"geometry\":{\"type\":\"LineString\",\"coordinates\":["
+				+ "[" + startLon + ",17.43],[" + (startLon + 0.005) + ",17.43],[" + (startLon + 0.01) + ",17.43]]}}]}";
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "timed out");
+			Thread.sleep(20);
+		}
+	}
+
+	@Test
+	void reloadsChangedFilesAndMigratesBuses() throws Exception {
+		Files.writeString(dir.resolve("a.geojson"), route("bus01", 78.380, "s1", "s2"));
+		Routes routes = new Routes();
+		ReflectionTestUtils.setField(routes, "routesDir", dir.toString());
+		ReflectionTestUtils.setField(routes, "gridCellMeters", 100.0);
+		ReflectionTestUtils.setField(routes, "arrivalRadiusMeters", 50.0);
+		routes.loadRoutes();
+		RouteData original = routes.getRoute("bus01");
+		assertNotNull(original);
+
+		BusStateTracker tracker = new BusStateTracker(routes, null, null, new PipelineMetrics(new SimpleMeterRegistry()));
+		Set<String> arrived = ConcurrentHashMap.newKeySet();
+		arrived.addAll(Set.of("s1", "s2"));
+		tracker.restore(new BusState("bus01", 17.43, 78.386, 5, 1, 0, arrived, new ConcurrentHashMap<>(), 1000));
+		EtaPredictor predictor = mock(EtaPredictor.class);
+		PingPipeline pipeline = mock(PingPipeline.class);
+		doAnswer(inv -> {
+			inv.getArgument(1, Runnable.class).run();            // run migrations inline
+			return null;
+		}).when(pipeline).execute(anyString(), any());
+
+		RouteReloader reloader = new RouteReloader(routes, tracker, predictor, pipeline);
+		ReflectionTestUtils.setField(reloader, "watch", true);
+		ReflectionTestUtils.setField(reloader, "debounceMs", 100L);
+		reloader.start();
+		try {
+			// New geometry and stop list: the bus is re-matched and loses arrivals at removed stops
+			Files.writeString(dir.resolve("a.geojson"), route("bus01", 78.383, "s2", "s3"));
+			await(() -> routes.getRoute("bus01") != original);
+			await(() -> !tracker.getState("bus01").getArrivedStops().contains("s1"));
+			BusState state = tracker.getState("bus01");
+			assertEquals(Set.of("s2"), state.getArrivedStops());
+			assertEquals(0, state.getSegmentIndex());
+			assertEquals(routes.getRoute("bus01").offsetOf(0, 17.43, 78.386), state.getRouteOffset(), 1e-6);
+			verify(predictor).migrate("bus01", routes.getRoute("bus01"));
+
+			// A broken file keeps the previous version; a new file adds a bus
+			RouteData current = routes.getRoute("bus01");
+			long version = routes.getVersion();
+			Files.writeString(dir.resolve("a.geojson"), "{\"features\":[");
+			Files.writeString(dir.resolve("b.geojson"), route("bus02", 78.390, "t1"));
+			await(() -> routes.getRoute("bus02") != null);
+			assertSame(current, routes.getRoute("bus01"));
+			assertEquals(version + 1, routes.getVersion());
+
+			// Deleting a file removes its route and the bus's state
+			Files.delete(dir.resolve("a.geojson"));
+			await(() -> tracker.getState("bus01") == null);
+			assertNull(routes.getRoute("bus01"));
+			verify(predictor).forget("bus01");
+		} finally {
+			reloader.stop();
+		}
+	}
+
+	@Test
+	void busesShareRoutesAndCanBeReassigned() throws Exception {
+		Files.writeString(dir.resolve("a.geojson"), route("bus01", 78.380, "s1", "s2")
+				.replace("\"busId\":\"bus01\"", "\"busIds\":[\"bus01\",\"bus02\",\"bus03\"]"));
+		Files.writeString(dir.resolve("b.geojson"), route("bus09", 78.390, "t1"));
+		Routes routes = new Routes();
+		ReflectionTestUtils.setField(routes, "routesDir", dir.toString());
+		ReflectionTestUtils.setField(routes, "gridCellMeters", 100.0);
+		ReflectionTestUtils.setField(routes, "arrivalRadiusMeters", 50.0);
+		ReflectionTestUtils.setField(routes, "assignments", "bus03:r-bus09, bus04:r-bus01");
+		routes.loadRoutes();
+
+		// One route instance per file, shared by its buses; config overrides the file defaults
+		RouteData a = routes.getRouteById("r-bus01");
+		RouteData b = routes.getRouteById("r-bus09");
+		assertSame(a, routes.getRoute("bus01"));
+		assertSame(a, routes.getRoute("bus02"));
+		assertSame(a, routes.getRoute("bus04"));
+		assertSame(b, routes.getRoute("bus03"));
+		assertEquals(Set.of("bus01", "bus02", "bus03", "bus04", "bus09"), routes.getAllBusIds());
+
+		BusStateTracker tracker = new BusStateTracker(routes, null, null, new PipelineMetrics(new SimpleMeterRegistry()));
+		tracker.restore(new BusState("bus02", 17.43, 78.386, 5, 1, 0, ConcurrentHashMap.newKeySet(),
+				new ConcurrentHashMap<>(), 1000));
+		EtaPredictor predictor = mock(EtaPredictor.class);
+		PingPipeline pipeline = mock(PingPipeline.class);
+		doAnswer(inv -> {
+			inv.getArgument(1, Runnable.class).run();
+			return null;
+		}).when(pipeline).execute(anyString(), any());
+		RouteReloader reloader = new RouteReloader(routes, tracker, predictor, pipeline);
+
+		// Moving a bus migrates only that bus onto the other route
+		reloader.assign("bus02", "r-bus09");
+		assertSame(b, routes.getRoute("bus02"));
+		assertSame(a, routes.getRoute("bus01"));
+		assertEquals(b.offsetOf(0, 17.43, 78.386), tracker.getState("bus02").getRouteOffset(), 1e-6);
+		verify(predictor).migrate("bus02", b);
+		verify(pipeline, times(1)).execute(anyString(), any());
+		assertThrows(IllegalArgumentException.class, () -> reloader.assign("bus02", "nope"));
+
+		// Unassigning overrides the file default and drops the bus's state
+		reloader.assign("bus02", "r-bus01");
+		reloader.unassign("bus02");
+		assertNull(routes.getRoute("bus02"));
+		assertNull(tracker.getState("bus02"));
+		verify(predictor).forget("bus02");
+
+		// Reloading a shared route migrates every bus on it
+		Files.writeString(dir.resolve("a.geojson"), route("bus01", 78.381, "s1"));
+		Map<String, RouteData> changed = routes.reload(Set.of("a.geojson"));
+		assertEquals(Set.of("bus01", "bus04"), changed.keySet());
+		assertSame(routes.getRouteById("r-bus01"), changed.get("bus04"));
+	}
+}
@@ -0,0 +1,111 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.EtaPrediction;
+import com.ivez.etaengine.util.KalmanFilterBank;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StateSnapshotterTests {
+
+	@TempDir
+	Path dir;
+
+	private final Routes routes = new Routes();
+
+	StateSnapshotterTests() {
+		double[] lats = {17.430, 17.431, 17.432, 17.433};
+		double[] lons = {78.380, 78.381, 78.382, 78.383};
+		routes.addRoute("bus01", Routes.buildRoute("loop", lats, lons, new ArrayList<>(), 100));
+	}
+
+	private StateSnapshotter snapshotter(BusStateTracker tracker, EtaPredictor predictor) {
+		StateSnapshotter snapshotter = new StateSnapshotter(tracker, predictor, routes);
+		ReflectionTestUtils.setField(snapshotter, "maxAgeMinutes", 30L);
+		return snapshotter;
+	}
+
+	private BusStateTracker tracker() {
+		return new BusStateTracker(routes, null, null, new PipelineMetrics(new SimpleMeterRegistry()));
+	}
+
+	private EtaPredictor predictor() {
+		return new EtaPredictor(routes, null, null, null, new PipelineMetrics(new SimpleMeterRegistry()),
+				new TravelTimes(null, routes));
+	}
+
+	@Test
+	void restoresTrackerFiltersAndPredictions() throws IOException {
+		BusStateTracker tracker = tracker();
+		EtaPredictor predictor = predictor();
+		BusState state = new BusState("bus01", 17.4315, 78.3815, 7.5, 1, 160.0,
+				ConcurrentHashMap.newKeySet(), new ConcurrentHashMap<>(), 1_700_000_000L);
+		state.getArrivedStops().add("stop_1");
+		state.getArrivalTimes().put("stop_1", 1_699_999_900_000L);
+		state.setTrip(3);
+		tracker.restore(state);
+		// Unknown bus: its state, filters and predictions are dropped on restore
+		tracker.restore(new BusState("ghost", 0, 0, 0, 0, 0, ConcurrentHashMap.newKeySet(), new ConcurrentHashMap<>(), 1));
+
+		KalmanFilterBank filter = new KalmanFilterBank(2, 1, 0.5, 5);
+		double[] out = new double[2];
+		filter.update(new double[] {Double.NaN, 300}, out);
+		filter.update(new double[] {Double.NaN, 290}, out);
+		filter.update(new double[] {Double.NaN, 280}, out);
+		predictor.restoreFilters(Map.of("bus01", filter, "ghost", new KalmanFilterBank(2, 1, 0.5, 5)));
+		predictor.getPredictionMap().put("bus01", List.of(new EtaPrediction("bus01", "stop_2", 1_700_000_280_000L, 1_700_000_000_000L)));
+		predictor.getPredictionMap().put("ghost", List.of(new EtaPrediction("ghost", "stop_2", 1_700_000_280_000L, 1_700_000_000_000L)));
+
+		Path file = dir.resolve("state.bin");
+		snapshotter(tracker, predictor).snapshot(file);
+
+		BusStateTracker restoredTracker = tracker();
+		EtaPredictor restoredPredictor = predictor();
+		snapshotter(restoredTracker, restoredPredictor).restore(file);
+
+		assertEquals(state, restoredTracker.getState("bus01"));
+		assertNull(restoredTracker.getState("ghost"));
+		assertFalse(restoredPredictor.getFilters().containsKey("ghost"));
+		assertFalse(restoredPredictor.getPredictionMap().containsKey("ghost"));
+		KalmanFilterBank restored = restoredPredictor.getFilters().get("bus01");
+		assertEquals(filter.getEstimate(1), restored.getEstimate(1));
+		assertEquals(filter.getErrorCovariance(1), restored.getErrorCovariance(1));
+		assertFalse(restored.isInitialized(0));
+		assertTrue(restored.isInitialized(1));
+		// The restored filters continue exactly where the original left off
+		double[] restoredOut = new double[2];
+		filter.update(new double[] {400, 270}, out);
+		restored.update(new double[] {400, 270}, restoredOut);
+		assertArrayEquals(out, restoredOut);
+		assertEquals(predictor.getPredictions("bus01"), restoredPredictor.getPredictions("bus01"));
+	}
+
+	@Test
+	void rejectsCorruptSnapshotWithoutTouchingState() throws IOException {
+		BusStateTracker tracker = tracker();
+		tracker.restore(new BusState("bus01", 17.4315, 78.3815, 7.5, 1, 160.0,
+				ConcurrentHashMap.newKeySet(), new ConcurrentHashMap<>(), 1_700_000_000L));
+		Path file = dir.resolve("state.bin");
+		snapshotter(tracker, predictor()).snapshot(file);
+
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			raf.seek(30);
+			raf.write(raf.read() ^ 0x40);
+		}
+		BusStateTracker restoredTracker = tracker();
+		assertThrows(IOException.class, () -> snapshotter(restoredTracker, predictor()).restore(file));
+		assertTrue(restoredTracker.getAllStates().isEmpty());
+	}
+}
@@ -0,0 +1,105 @@
+package com.ivez.etaengine.service;
+
+import com.ivez.etaengine.entity.StopArrival;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.EtaPrediction;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.model.Stop;
+import com.ivez.etaengine.repository.StopArrivalRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class TravelTimesTests {
+
+	private static final LocalDate MONDAY = LocalDate.of(2025, 3, 17);
+
+	private final Routes routes = new Routes();
+	private final RouteData route;
+	private final StopArrivalRepository repository = mock(StopArrivalRepository.class);
+	private final TravelTimes travelTimes = new TravelTimes(repository, routes);
+
+	TravelTimesTests() {
+		double[] lats = {17.430, 17.430, 17.434, 17.434, 17.430};
+		double[] lons = {78.380, 78.384, 78.384, 78.380, 78.380};
+		route = Routes.buildRoute("loop", lats, lons, List.of(new Stop("s1", "One", 78.381, 17.430),
+				new Stop("s2", "Two", 78.384, 17.432), new Stop("s3", "Three", 78.381, 17.434)), 100);
+		routes.addRoute("bus01", route);
+		ReflectionTestUtils.setField(travelTimes, "historyDays", 28);
+		ReflectionTestUtils.setField(travelTimes, "bucketMinutes", 30);
+		ReflectionTestUtils.setField(travelTimes, "minSamples", 3);
+		ReflectionTestUtils.setField(travelTimes, "maxSamples", 50);
+		ReflectionTestUtils.setField(travelTimes, "maxLegSeconds", 1800);
+
+		// Three Monday morning laps: legs of 120, 180 and 240 s, plus a skipped stop that is ignored
+		List<StopArrival> rows = new ArrayList<>();
+		for (int week = 0; week < 3; week++) {
+			LocalDateTime start = MONDAY.minusWeeks(week).atTime(8, 0);
+			rows.add(arrival(rows, "s1", start));
+			rows.add(arrival(rows, "s2", start.plusSeconds(120)));
+			rows.add(arrival(rows, "s3", start.plusSeconds(300)));
+			rows.add(arrival(rows, "s1", start.plusSeconds(540)));
+			rows.add(arrival(rows, "s3", start.plusSeconds(600)));
+		}
+		when(repository.findByDateGreaterThanEqualAndIdGreaterThanOrderByIdAsc(any(), any(), any()))
+				.thenReturn(rows, List.of());
+	}
+
+	private static StopArrival arrival(List<StopArrival> rows, String stopId, LocalDateTime time) {
+		return new StopArrival((long) rows.size() + 1, "bus01", stopId, stopId, time, time.toLocalDate(), time);
+	}
+
+	private static long at(LocalDateTime time) {
+		return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	}
+
+	@Test
+	void looksUpCumulativeTravelTimesByWeekdayAndTimeOfDay() {
+		assertEquals(15, travelTimes.refresh(MONDAY));
+		double[] out = new double[3];
+		double atFirstStop = route.getStops().get(0).getRouteOffset();
+
+		assertTrue(travelTimes.secondsToStops(route, atFirstStop, at(MONDAY.atTime(8, 10)), out));
+		assertArrayEquals(new double[] {540, 120, 300}, out, 0.01);
+
+		// Halfway along the second leg (stops sit on the polyline, so offsets are linear)
+		double halfway = (route.getStops().get(1).getRouteOffset() + route.getStops().get(2).getRouteOffset()) / 2;
+		travelTimes.secondsToStops(route, halfway, at(MONDAY.atTime(8, 10)), out);
+		assertArrayEquals(new double[] {330, 450, 90}, out, 0.01);
+
+		// No Tuesday samples: the Monday bucket stands in; no samples at all at 15:00
+		travelTimes.secondsToStops(route, atFirstStop, at(MONDAY.plusDays(1).atTime(8, 20)), out);
+		assertEquals(120, out[1], 0.01);
+		travelTimes.secondsToStops(route, atFirstStop, at(MONDAY.atTime(15, 0)), out);
+		assertTrue(Double.isNaN(out[1]));
+	}
+
+	@Test
+	void predictsFromHistoryWhileTheBusDwells() {
+		travelTimes.refresh(MONDAY);
+		EtaPredictor predictor = new EtaPredictor(routes, mock(UpdatePublisher.class), null,
+				mock(PredictionHistory.class), new PipelineMetrics(new SimpleMeterRegistry()), travelTimes);
+		ReflectionTestUtils.setField(predictor, "historyWeight", 0.5);
+
+		long now = at(MONDAY.atTime(8, 10));
+		double atFirstStop = route.getStops().get(0).getRouteOffset();
+		predictor.predict(new BusState("bus01", 17.430, 78.381, 0, 0, atFirstStop,
+				ConcurrentHashMap.newKeySet(), new ConcurrentHashMap<>(), 1000), now);
+
+		List<EtaPrediction> etas = predictor.getPredictions("bus01");
+		assertEquals(3, etas.size());
+		assertEquals(now + 120_000, etas.get(1).getEtaTimestamp(), 1000);
+		assertEquals(now + 300_000, etas.get(2).getEtaTimestamp(), 1000);
+	}
+}
@@ -0,0 +1,64 @@
+package com.ivez.etaengine.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ivez.etaengine.model.BusState;
+import com.ivez.etaengine.model.RouteData;
+import com.ivez.etaengine.ws.EtaFrame;
+import com.ivez.etaengine.ws.EtaWebSocketHandler;
+import com.ivez.etaengine.ws.FrameCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpdatePublisherTests {
+
+	@Test
+	void newTripSendsPositionKeyframeThatClearsArrivals() throws Exception {
+		List<EtaFrame> frames = new ArrayList<>();
+		EtaWebSocketHandler ws = new EtaWebSocketHandler(new PipelineMetrics(new SimpleMeterRegistry())) {
+			@Override
+			public void broadcastEtaUpdate(EtaFrame frame) {
+				frames.add(frame);
+			}
+		};
+		ObjectMapper mapper = new ObjectMapper();
+		UpdatePublisher publisher = new UpdatePublisher(ws, new FrameCodec(mapper), null);
+		ReflectionTestUtils.setField(publisher, "etaThresholdMs", 10_000L);
+		ReflectionTestUtils.setField(publisher, "keyframeInterval", 30);
+		double[] lats = {17.430, 17.431, 17.432};
+		double[] lons = {78.380, 78.381, 78.382};
+		RouteData route = Routes.buildRoute("loop", lats, lons, new ArrayList<>(), 100);
+
+		BusState state = new BusState("bus01", 17.4305, 78.3805, 5, 0, 50,
+				ConcurrentHashMap.newKeySet(), new ConcurrentHashMap<>(), 1000);
+		publisher.deliverPosition(state, route, 0);               // first frame: periodic keyframe
+		state.getArrivedStops().add("stop_2");
+		state.getArrivalTimes().put("stop_2", 1_010_000L);
+		publisher.deliverPosition(state, route, 0);
+		state.getArrivedStops().clear();                          // back at the first stop
+		state.getArrivalTimes().clear();
+		state.getArrivedStops().add("stop_1");
+		state.getArrivalTimes().put("stop_1", 1_020_000L);
+		state.setTrip(1);
+		publisher.deliverPosition(state, route, 0);
+
+		assertFalse(delta(mapper, frames.get(1)).get("keyframe").asBoolean());
+		JsonNode newTrip = delta(mapper, frames.get(2));
+		assertTrue(newTrip.get("keyframe").asBoolean(), "delta clients get the cleared arrivals");
+		assertEquals(1, newTrip.get("arrivedStops").size());
+		assertEquals("stop_1", newTrip.get("arrivedStops").get(0).asText());
+	}
+
+	private static JsonNode delta(ObjectMapper mapper, EtaFrame frame) throws Exception {
+		TextMessage message = (TextMessage) frame.message(EtaFrame.Variant.DELTA, FrameCodec.Encoding.JSON);
+		return mapper.readTree(message.getPayload());
+	}
+}
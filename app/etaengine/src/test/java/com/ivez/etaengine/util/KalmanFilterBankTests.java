@@ -0,0 +1,46 @@
+package com.ivez.etaengine.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KalmanFilterBankTests {
+
+	@Test
+	void matchesOneKalmanFilterPerStopAndSkipsMissingMeasurements() {
+		int stops = 9;
+		Random random = new Random(11);
+		KalmanFilterBank bank = new KalmanFilterBank(stops, 1, 0.5, 5);
+		KalmanFilter[] filters = new KalmanFilter[stops];
+		double[] measurements = new double[stops];
+		double[] out = new double[stops];
+
+		for (int step = 0; step < 200; step++) {
+			for (int i = 0; i < stops; i++) {
+				// Stop i only starts getting measurements at step 10 * i, and misses some after
+				boolean measured = step >= 10 * i && random.nextInt(4) != 0;
+				measurements[i] = measured ? 600 - step + random.nextGaussian() * 20 : Double.NaN;
+			}
+			bank.update(measurements, out);
+			for (int i = 0; i < stops; i++) {
+				if (!Double.isNaN(measurements[i])) {
+					if (filters[i] == null) filters[i] = new KalmanFilter(measurements[i], 1, 0.5, 5);
+					filters[i].update(measurements[i]);
+				}
+				if (filters[i] == null) {
+					assertTrue(Double.isNaN(out[i]), "unseeded stop " + i);
+					assertFalse(bank.isInitialized(i));
+				} else {
+					assertEquals(filters[i].getEstimate(), out[i], 0, "stop " + i + " step " + step);
+				}
+			}
+		}
+
+		bank.reset();
+		bank.update(new double[] {120, Double.NaN, 0, 0, 0, 0, 0, 0, 0}, out);
+		assertEquals(120, out[0], 0, "a reset bank is seeded again by the next measurement");
+		assertTrue(Double.isNaN(out[1]));
+	}
+}
@@ -0,0 +1,59 @@
+package com.ivez.etaengine.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SegmentGridTests {
+
+	// Wiggly ~2 km loop around a campus-scale origin
+	private static double[][] syntheticLoop(int vertices) {
+		double[] lats = new double[vertices];
+		double[] lons = new double[vertices];
+		for (int i = 0; i < vertices; i++) {
+			double a = 2 * Math.PI * i / (vertices - 1);
+			double r = 0.004 + 0.0006 * Math.sin(7 * a);
+			lats[i] = 17.44 + r * Math.sin(a);
+			lons[i] = 78.37 + r * Math.cos(a);
+		}
+		return new double[][]{lats, lons};
+	}
+
+	@Test
+	void nearestSegmentMatchesBruteForce() {
+		double[][] loop = syntheticLoop(2000);
+		SegmentGrid grid = new SegmentGrid(loop[0], loop[1], 50);
+		Random random = new Random(42);
+
+		for (int n = 0; n < 500; n++) {
+			double lat = 17.44 + (random.nextDouble() - 0.5) * 0.012;
+			double lon = 78.37 + (random.nextDouble() - 0.5) * 0.012;
+
+			double bestDistance = Double.MAX_VALUE;
+			for (int s = 0; s < grid.getSegmentCount(); s++) {
+				double d = grid.distanceToSegment(lat, lon, s);
+				if (d < bestDistance) {
+					bestDistance = d;
+				}
+			}
+			int indexed = grid.nearestSegment(lat, lon);
+			assertEquals(bestDistance, grid.distanceToSegment(lat, lon, indexed), 1e-9);
+		}
+	}
+
+	@Test
+	void windowedMatchFallsBackWhenBusIsFarFromHint() {
+		double[][] loop = syntheticLoop(2000);
+		SegmentGrid grid = new SegmentGrid(loop[0], loop[1], 50);
+
+		int target = 1200;
+		double lat = (loop[0][target] + loop[0][target + 1]) / 2;
+		double lon = (loop[1][target] + loop[1][target + 1]) / 2;
+
+		assertEquals(target, grid.nearestSegmentNear(lat, lon, target - 3, 10, 30));
+		assertEquals(-1, grid.nearestSegmentNear(lat, lon, 100, 10, 30));
+		assertEquals(target, grid.nearestSegment(lat, lon));
+	}
+}
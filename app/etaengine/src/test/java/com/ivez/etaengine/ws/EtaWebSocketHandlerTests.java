@@ -0,0 +1,74 @@
+package com.ivez.etaengine.ws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ivez.etaengine.service.PipelineMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class EtaWebSocketHandlerTests {
+
+	private final EtaWebSocketHandler handler = new EtaWebSocketHandler(new PipelineMetrics(new SimpleMeterRegistry()));
+	private final FrameCodec codec = new FrameCodec(new ObjectMapper());
+
+	@AfterEach
+	void tearDown() {
+		handler.shutdown();
+	}
+
+	private EtaFrame frame() {
+		return new EtaFrame("eta:bus01", List.of(Topics.bus("bus01")),
+				g -> g.writeStringField("kind", "legacy"),
+				g -> g.writeStringField("kind", "keyframe"),
+				g -> g.writeStringField("kind", "delta"), codec);
+	}
+
+	private static String next(BlockingQueue<String> sent) throws InterruptedException {
+		String payload = sent.poll(5, TimeUnit.SECONDS);
+		assertNotNull(payload, "frame not sent");
+		return payload;
+	}
+
+	@Test
+	void resubscribedStreamStartsWithKeyframe() throws Exception {
+		ReflectionTestUtils.setField(handler, "senderThreads", 1);
+		ReflectionTestUtils.setField(handler, "sendTimeLimitMs", 5000L);
+		ReflectionTestUtils.setField(handler, "bufferSizeLimit", 1 << 20);
+		handler.init();
+
+		BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+		WebSocketSession session = mock(WebSocketSession.class);
+		when(session.getId()).thenReturn("s1");
+		when(session.isOpen()).thenReturn(true);
+		when(session.getUri()).thenReturn(URI.create("ws://localhost/ws/eta?busId=bus01&protocol=delta"));
+		doAnswer(i -> sent.add(((TextMessage) i.getArgument(0)).getPayload()))
+				.when(session).sendMessage(any(WebSocketMessage.class));
+		handler.afterConnectionEstablished(session);
+
+		handler.broadcastEtaUpdate(frame());
+		assertTrue(next(sent).contains("keyframe"));
+		handler.broadcastEtaUpdate(frame());
+		assertTrue(next(sent).contains("delta"));
+
+		handler.handleTextMessage(session, new TextMessage("{\"action\":\"unsubscribe\",\"busIds\":[\"bus01\"]}"));
+		handler.broadcastEtaUpdate(frame());                 // missed while unsubscribed
+		handler.handleTextMessage(session, new TextMessage("{\"action\":\"subscribe\",\"busIds\":[\"bus01\"]}"));
+		handler.broadcastEtaUpdate(frame());
+		assertTrue(next(sent).contains("keyframe"), "first frame after resubscribing");
+		assertTrue(sent.isEmpty());
+	}
+}
@@ -0,0 +1,89 @@
+package com.ivez.etaengine.ws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SessionOutboxTests {
+
+	private final CountDownLatch sending = new CountDownLatch(1);
+	private final CountDownLatch released = new CountDownLatch(1);
+	private final FrameCodec codec = new FrameCodec(new ObjectMapper());
+	private final FrameCodec.Body body = g -> g.writeStringField("busId", "bus01");
+
+	// A client that stopped reading: the send blocks until the connection is closed
+	private WebSocketSession stalledSession() throws Exception {
+		AtomicBoolean open = new AtomicBoolean(true);
+		WebSocketSession session = mock(WebSocketSession.class);
+		when(session.getId()).thenReturn("s1");
+		when(session.isOpen()).thenAnswer(i -> open.get());
+		doAnswer(i -> {
+			sending.countDown();
+			released.await();
+			return null;
+		}).when(session).sendMessage(any(WebSocketMessage.class));
+		doAnswer(i -> {
+			open.set(false);
+			released.countDown();
+			return null;
+		}).when(session).close(any(CloseStatus.class));
+		return session;
+	}
+
+	private EtaFrame frame() {
+		return new EtaFrame("eta:bus01", List.of(), body, body, body, codec);
+	}
+
+	@Test
+	void closesSessionWhoseSendIsStuckAndReleasesTheSender() throws Exception {
+		ExecutorService senders = Executors.newSingleThreadExecutor();
+		try {
+			AtomicBoolean dropped = new AtomicBoolean();
+			SessionOutbox outbox = new SessionOutbox(stalledSession(), senders, 50, 1 << 20, () -> dropped.set(true));
+			outbox.offer(frame());
+			assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+			outbox.offer(frame());
+			assertFalse(dropped.get(), "within the time limit");
+			Thread.sleep(80);
+			outbox.offer(frame());
+
+			assertTrue(dropped.get());
+			assertTrue(outbox.isClosed());
+			// The sender thread is free for other clients again
+			assertTrue(senders.submit(() -> true).get(5, TimeUnit.SECONDS));
+		} finally {
+			senders.shutdownNow();
+		}
+	}
+
+	@Test
+	void stallSweepClosesStuckSessionThatGetsNoMoreFrames() throws Exception {
+		ExecutorService senders = Executors.newSingleThreadExecutor();
+		try {
+			SessionOutbox outbox = new SessionOutbox(stalledSession(), senders, 50, 1 << 20, null);
+			outbox.offer(frame());
+			assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+			assertFalse(outbox.closeIfStalled(System.currentTimeMillis()));
+			assertTrue(outbox.closeIfStalled(System.currentTimeMillis() + 1000));
+			assertTrue(outbox.isClosed());
+			assertTrue(senders.submit(() -> true).get(5, TimeUnit.SECONDS));
+		} finally {
+			senders.shutdownNow();
+		}
+	}
+}